@@ -0,0 +1,80 @@
+package fr.irisa.diverse.Core;
+
+import fr.irisa.diverse.Utils.Utils;
+import org.json.simple.JSONObject;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.TreeMap;
+
+/**
+ * A variable sent to the next nodes as a binary buffer, in a comm message, see sendTheseDataToNextNodes.
+ *
+ * It is kept as received : the typed header that tells how to read the buffer, and the raw buffer. It is stored as is
+ * in the pickled result of the node and in the ResultCache, and sent as a buffer again to the kernels of the next
+ * nodes. So the value is never copied into python code nor into a JSON.
+ *
+ * The header is :
+ * - {"type": "pickle"} : the buffer is the pickle of the value
+ * - {"type": "ndarray", "dtype": "<f8", "shape": [2, 3]} : the buffer is the raw content of a numeric numpy array,
+ *   in C order
+ */
+public final class BinaryValue {
+
+    // Attributes
+    private final JSONObject header;
+    private final byte[] buffer;
+    private String digest = null; // Hash of the buffer, computed lazily
+
+    // Constructor
+    public BinaryValue (JSONObject header, byte[] buffer) {
+        this.header = header;
+        this.buffer = buffer;
+    }
+
+    /*==================================================================================================================
+                                                GETTERS AND SETTERS
+     =================================================================================================================*/
+
+    /**
+     * @return the typed header of the value, that tells how to read the buffer
+     */
+    public JSONObject getHeader () {
+        return header;
+    }
+
+    /**
+     * @return the raw buffer. It must not be modified.
+     */
+    public byte[] getBuffer () {
+        return buffer;
+    }
+
+    /**
+     * @return the hex encoded SHA-256 of the buffer
+     */
+    public synchronized String getDigest () {
+        if (digest == null) {
+            try {
+                digest = Utils.toHex(MessageDigest.getInstance("SHA-256").digest(buffer));
+            } catch (NoSuchAlgorithmException e) {
+                // SHA-256 is available in every JVM
+                throw new IllegalStateException(e);
+            }
+        }
+
+        return digest;
+    }
+
+    /**
+     * Describe the value without its content : its header and the hash of its buffer. Two values with the same
+     * description are the same, so it is used to compute the fingerprint of the variable.
+     *
+     * @return the description of the value
+     */
+    @Override
+    public String toString () {
+        // The keys are sorted, so the description doesn't depend on the order of the header
+        return JSONObject.toJSONString(new TreeMap<>(header)) + " " + getDigest();
+    }
+}
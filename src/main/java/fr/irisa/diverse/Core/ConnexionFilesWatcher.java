@@ -0,0 +1,147 @@
+package fr.irisa.diverse.Core;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeoutException;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * The ConnexionFilesWatcher tells when the connexion file of a kernel has been written in the connexion_files folder.
+ *
+ * A single WatchService watches the folder for the whole server, in its own thread. Each kernel waiting for its
+ * connexion file registers a future, completed with the content of the file as soon as it is created and contains
+ * a complete JSON object. So no thread sleeps while the containers start.
+ *
+ * If the folder can't be watched, the pending files are looked for every POLLING_PERIOD milliseconds instead.
+ */
+public class ConnexionFilesWatcher {
+
+    // Configuration
+    private static final long POLLING_PERIOD = 100;
+
+    // Attributes
+    private Path folder;
+    private final Map<String, CompletableFuture<JSONObject>> pending; // File name <-> future completed with its content
+
+    // Singleton object, created at the first use
+    private static ConnexionFilesWatcher ourInstance = null;
+
+    // Singleton specific getInstance method
+    synchronized public static ConnexionFilesWatcher getInstance() {
+        if (ourInstance == null) ourInstance = new ConnexionFilesWatcher(Paths.get(Root.PATH_TO_PROJECT_STORAGE, "connexion_files"));
+        return ourInstance;
+    }
+
+    // Constructor
+    private ConnexionFilesWatcher (Path folder) {
+        this.folder = folder;
+        this.pending = new ConcurrentHashMap<>();
+
+        try {
+            WatchService watchService = folder.getFileSystem().newWatchService();
+            folder.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+
+            Thread thread = new Thread(() -> watch(watchService), "connexion-files-watcher");
+            thread.setDaemon(true);
+            thread.start();
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("\033[32m" + "[INFO] " + "\033[0m" + "Unable to watch " + folder + ", polling it instead");
+            ExecutionService.getInstance().schedulePeriodicTask(this::readPendingFiles, POLLING_PERIOD);
+        }
+    }
+
+    /*==================================================================================================================
+                                              PUBLIC CLASS METHODS
+     =================================================================================================================*/
+
+    /**
+     * Wait for a connexion file to be written.
+     *
+     * @param fileName : the name of the file, in the connexion_files folder
+     * @param timeout : the maximum time to wait, in milliseconds
+     * @return a future completed with the content of the file, or with a TimeoutException
+     */
+    public CompletableFuture<JSONObject> await (String fileName, long timeout) {
+        CompletableFuture<JSONObject> res = new CompletableFuture<>();
+        CompletableFuture<JSONObject> previous = pending.putIfAbsent(fileName, res);
+        if (previous != null) return previous;
+
+        ScheduledFuture<?> timer = ExecutionService.getInstance().scheduleTask(() -> res.completeExceptionally(
+                new TimeoutException("No connexion file " + fileName + " after " + timeout + "ms")), timeout);
+        res.whenComplete((content, e) -> {
+            timer.cancel(false);
+            pending.remove(fileName, res);
+        });
+
+        // The file may have been written before the registration
+        read(fileName);
+
+        return res;
+    }
+
+    /*==================================================================================================================
+                                              PRIVATE CLASS METHODS
+     =================================================================================================================*/
+
+    /**
+     * Read the events of the WatchService, until the thread is interrupted.
+     *
+     * @param watchService : the WatchService of the folder
+     */
+    private void watch (WatchService watchService) {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.take();
+
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) readPendingFiles();
+                    else read(event.context().toString());
+                }
+
+                if (!key.reset()) {
+                    System.err.println("[ERROR] The folder " + folder + " can't be watched anymore");
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stop watching
+        }
+    }
+
+    private void readPendingFiles () {
+        for (String fileName : pending.keySet()) {
+            read(fileName);
+        }
+    }
+
+    /**
+     * Complete the future waiting for the given file, if the file is complete. A file being written is read again
+     * at its next modification.
+     *
+     * @param fileName : the name of the file
+     */
+    private void read (String fileName) {
+        CompletableFuture<JSONObject> future = pending.get(fileName);
+        if (future == null) return;
+
+        try (Reader reader = Files.newBufferedReader(folder.resolve(fileName), StandardCharsets.UTF_8)) {
+            future.complete((JSONObject) new JSONParser().parse(reader));
+        } catch (NoSuchFileException | ParseException e) {
+            // Not written yet
+        } catch (IOException | ClassCastException e) {
+            future.completeExceptionally(e);
+        }
+    }
+}
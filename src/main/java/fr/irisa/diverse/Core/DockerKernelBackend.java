@@ -0,0 +1,121 @@
+package fr.irisa.diverse.Core;
+
+import fr.irisa.diverse.Docker.ContainerRuntime;
+import org.json.simple.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * KernelBackend running the kernel in a Docker container, started by the ContainerRuntime.
+ *
+ * The container mounts the folder of the workspace, the python utils and the connexion_files folder, in which it
+ * creates the connexion file of its kernel, named {{containerId}}.json. The ConnexionFilesWatcher tells when it is
+ * written.
+ */
+public class DockerKernelBackend implements KernelBackend {
+
+    // Configuration
+    private static final String IMAGE = "antoinecheronirisa/lmt-python-core";
+
+    // Attributes
+    private String containerId = null;
+    private String pathToConnexionFilesFolder;
+    private String pathToWorkspaceStorage;
+    private String pathToUtils;
+
+    // Constructor
+    public DockerKernelBackend (Workspace workspace) {
+        this.pathToWorkspaceStorage = Root.PATH_TO_PROJECT_STORAGE + "/workspaces/" + workspace.getUuid();
+        this.pathToUtils = Root.PATH_TO_PROJECT_STORAGE + "/workspaces/utils";
+        this.pathToConnexionFilesFolder = Root.PATH_TO_PROJECT_STORAGE + "/connexion_files";
+    }
+
+    /*==================================================================================================================
+                                              PUBLIC CLASS METHODS
+     =================================================================================================================*/
+
+    @Override
+    public void launch () throws IOException {
+        Map<String, String> volumes = new LinkedHashMap<>();
+        volumes.put(pathToConnexionFilesFolder, "/home/diverse/connexion_files");
+        volumes.put(pathToWorkspaceStorage, "/home/diverse/workspace");
+        volumes.put(pathToUtils, "/home/diverse/utils");
+
+        // The container names its connexion file with its short id
+        String id = ContainerRuntime.getInstance().run(IMAGE, volumes);
+        if (id.length() < 12) throw new IOException("Invalid container id " + id);
+        this.containerId = id.substring(0, 12);
+
+        // Log the containerId of the newly started docker Jupyter
+        System.out.println("Kernel started with id " + containerId);
+    }
+
+    @Override
+    public CompletableFuture<JSONObject> awaitConnectionInfo (long timeout) {
+        return ConnexionFilesWatcher.getInstance().await(containerId + ".json", timeout);
+    }
+
+    @Override
+    public String getIpAddress () throws IOException {
+        String ip = ContainerRuntime.getInstance().getIpAddress(containerId);
+
+        // If not found we return the localhost
+        return ip != null ? ip : "127.0.0.1";
+    }
+
+    @Override
+    public String getId () {
+        return containerId;
+    }
+
+    @Override
+    public String getWorkspacePath () {
+        return "/home/diverse/workspace";
+    }
+
+    @Override
+    public String getUtilsPath () {
+        return "/home/diverse/utils";
+    }
+
+    @Override
+    public String release () {
+        deleteConnexionFile();
+        return containerId;
+    }
+
+    @Override
+    public void stop () {
+        if (release() == null) return;
+
+        try {
+            System.out.println("Stopping container " + containerId + "...");
+            ContainerRuntime.getInstance().stop(containerId);
+            System.out.println("\033[32m" + "[INFO]" + "\033[0m" + " Container " + containerId + " successfully stopped");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /*==================================================================================================================
+                                              PRIVATE CLASS METHODS
+     =================================================================================================================*/
+
+    private String getConnexionFilePath () {
+        return pathToConnexionFilesFolder + "/" + containerId + ".json";
+    }
+
+    /**
+     * Delete the connexion file, in case the container did not.
+     */
+    private void deleteConnexionFile () {
+        if (containerId == null) return;
+
+        File f = new File(getConnexionFilePath());
+        if (f.exists()) f.delete();
+    }
+}
@@ -0,0 +1,321 @@
+package fr.irisa.diverse.Core;
+
+import fr.irisa.diverse.Utils.Utils;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Decode the data a node sends to the next nodes from the stdout of its execution.
+ *
+ * Jupyter splits a large stdout into several stream messages, that can end in the middle of a line. The decoder is
+ * fed with each chunk, in order, and reads the lines as soon as they are complete. Each character is read once,
+ * so decoding is linear in the size of the output.
+ *
+ * The data is printed by the sendTheseDataToNextNodes python function, after a delimiter line :
+ *  #BEGINNING OF DATA RETRIEVING
+ *  key theKey
+ *  pickle thePickledValue
+ *  json theJsonifiedValue
+ *  ...
+ * The jsonified value can take several lines, until the next key. What is printed before the delimiter is ignored.
+ * To change the format, see ressources/workspaces/utils/sendTheseDataToNextNodes.
+ *
+ * When the kernel supports comms, the variables are sent as binary buffers in comm messages instead, see
+ * addBinaryVariable. They are stored in the same result.
+ *
+ * The pickled value of a variable is what gives it back in the kernel of the next nodes : the literal of its pickle
+ * when printed on the stdout, a BinaryValue keeping the raw buffer when sent in a comm. The jsonified value is only
+ * a preview of the variable for the UIs : it is summarized when the variable is too large.
+ */
+@SuppressWarnings("unchecked")
+class ExecutionResultDecoder {
+
+    // Configuration
+    private static final String DELIMITER = "#BEGINNING OF DATA RETRIEVING";
+    private static final Pattern NUMERIC_DTYPE = Pattern.compile("[<>|=]([biuf])([1248])");
+    public static final int PREVIEW_MAX_ELEMENTS = Integer.getInteger("padins.results.previewMaxElements", 10000);
+
+    // Decoded result
+    private final JSONObject json;
+    private final JSONObject pickled;
+    private final JSONObject fingerprints;
+    private boolean hasData = false;
+
+    // State of the decoding
+    private final StringBuilder line; // Line not complete yet
+    private boolean afterCarriageReturn = false;
+    private String key = null; // Key of the variable being read
+    private String pickle = null;
+    private StringBuilder jsonValue = null;
+    private JSONParser parser = null;
+
+    // Constructor
+    ExecutionResultDecoder () {
+        this.json = new JSONObject();
+        this.pickled = new JSONObject();
+        this.fingerprints = new JSONObject();
+        this.line = new StringBuilder();
+    }
+
+    /*==================================================================================================================
+                                              PACKAGE CLASS METHODS
+     =================================================================================================================*/
+
+    /**
+     * Read a chunk of the stdout.
+     *
+     * @param text : the text of a stdout stream message
+     */
+    void feed (String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+
+            if (c == '\n' && afterCarriageReturn) {
+                // End of a \r\n line break, the line has already been read
+                afterCarriageReturn = false;
+            } else if (c == '\n' || c == '\r') {
+                readLine(line.toString());
+                line.setLength(0);
+                afterCarriageReturn = c == '\r';
+            } else {
+                line.append(c);
+                afterCarriageReturn = false;
+            }
+        }
+    }
+
+    /**
+     * Read the end of the stdout, once the execution is finished.
+     */
+    void finish () {
+        if (line.length() > 0) {
+            readLine(line.toString());
+            line.setLength(0);
+        }
+        endVariable();
+    }
+
+    /**
+     * Read a variable sent in a comm message by the sendTheseDataToNextNodes python function.
+     *
+     * The data of the message is a small typed header, the value is in the first buffer :
+     * - {"key": theKey, "type": "pickle", "json": theJsonifiedValue} : the buffer is the pickle of the value
+     * - {"key": theKey, "type": "ndarray", "dtype": "<f8", "shape": [2, 3]} : the buffer is the raw content of a
+     *   numeric numpy array, in C order. Its jsonified value is built from the buffer if it has at most
+     *   PREVIEW_MAX_ELEMENTS elements, otherwise it is only its dtype and shape.
+     *
+     * The buffer is kept as is in a BinaryValue, with the header without its key and jsonified value.
+     *
+     * @param header : the data of the comm message
+     * @param buffers : the buffers of the comm message
+     * @throws IllegalArgumentException : thrown if the header is not supported
+     */
+    void addBinaryVariable (JSONObject header, List<byte[]> buffers) {
+        String variable = (String) header.get("key");
+        String type = (String) header.get("type");
+        if (variable == null || buffers.isEmpty()) throw new IllegalArgumentException("Incomplete result " + header);
+
+        hasData = true;
+        byte[] buffer = buffers.get(0);
+        JSONObject valueHeader = new JSONObject();
+        valueHeader.put("type", type);
+
+        if ("pickle".equals(type)) {
+            Object jsonified = header.get("json");
+            addVariable(variable, parseJson(jsonified != null ? jsonified.toString() : null), new BinaryValue(valueHeader, buffer));
+
+        } else if ("ndarray".equals(type)) {
+            String dtype = (String) header.get("dtype");
+            Matcher matcher = NUMERIC_DTYPE.matcher(dtype != null ? dtype : "");
+            if (!matcher.matches() || (matcher.group(1).equals("b") && !matcher.group(2).equals("1"))
+                    || (matcher.group(1).equals("f") && Integer.parseInt(matcher.group(2)) < 4)) {
+                throw new IllegalArgumentException("Unsupported dtype " + dtype);
+            }
+
+            JSONArray shapeArray = new JSONArray();
+            List<Integer> shape = new ArrayList<>();
+            long elements = 1;
+            for (Object dimension : (JSONArray) header.get("shape")) {
+                int length = ((Number) dimension).intValue();
+                shape.add(length);
+                shapeArray.add((long) length);
+                elements *= length;
+            }
+
+            int size = Integer.parseInt(matcher.group(2));
+            if (buffer.length != elements * size) throw new IllegalArgumentException("Incomplete array " + header);
+
+            valueHeader.put("dtype", dtype);
+            valueHeader.put("shape", shapeArray);
+
+            Object value;
+            if (elements <= PREVIEW_MAX_ELEMENTS) {
+                ByteBuffer data = ByteBuffer.wrap(buffer).order(dtype.charAt(0) == '>' ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+                value = toJson(data, matcher.group(1).charAt(0), size, shape, 0);
+            } else {
+                // Too large to be displayed : only its description
+                JSONObject summary = new JSONObject();
+                summary.put("dtype", dtype);
+                summary.put("shape", shapeArray);
+                value = summary;
+            }
+
+            addVariable(variable, value, new BinaryValue(valueHeader, buffer));
+
+        } else {
+            throw new IllegalArgumentException("Unsupported result type " + type);
+        }
+    }
+
+    /**
+     * @return true if the stdout contained data to send to the next nodes
+     */
+    boolean hasData () {
+        return hasData;
+    }
+
+    /**
+     * @return the jsonified value of each variable
+     */
+    JSONObject getJson () {
+        return json;
+    }
+
+    /**
+     * @return the pickled value of each variable
+     */
+    JSONObject getPickled () {
+        return pickled;
+    }
+
+    /**
+     * @return the fingerprint of each variable, so the next nodes are not re-run if it didn't change
+     */
+    JSONObject getFingerprints () {
+        return fingerprints;
+    }
+
+    /*==================================================================================================================
+                                              PRIVATE CLASS METHODS
+     =================================================================================================================*/
+
+    private void readLine (String l) {
+        if (l.equals(DELIMITER)) {
+            endVariable();
+            hasData = true;
+        } else if (!hasData) {
+            // Printed by the code of the user, before the data
+        } else if (l.startsWith("key")) {
+            endVariable();
+            key = valueOf(l, 4);
+        } else if (key != null && pickle == null && l.startsWith("pickle")) {
+            pickle = valueOf(l, 6);
+        } else if (key != null && jsonValue == null && l.startsWith("json")) {
+            jsonValue = new StringBuilder(valueOf(l, 5));
+        } else if (jsonValue != null) {
+            // The jsonified value continues until the next key
+            jsonValue.append(l);
+        }
+    }
+
+    /**
+     * Store the variable that has been read.
+     */
+    private void endVariable () {
+        if (key == null) return;
+
+        // Jsonify the read value
+        addVariable(key, parseJson(jsonValue != null ? jsonValue.toString() : null), pickle);
+
+        key = null;
+        pickle = null;
+        jsonValue = null;
+    }
+
+    /**
+     * Parse the jsonified value of a variable. A None is printed as an empty value.
+     *
+     * @param jsonified : the jsonified value, null if it has not been sent
+     * @return the parsed value, null for an empty value
+     */
+    private Object parseJson (String jsonified) {
+        if (jsonified == null) return new Object();
+        if (jsonified.trim().isEmpty()) return null;
+
+        if (parser == null) parser = new JSONParser();
+        try {
+            return parser.parse(jsonified);
+        } catch (ParseException e) {
+            e.printStackTrace();
+            return new Object();
+        }
+    }
+
+    /**
+     * Store the JSON and the pickle of a variable.
+     */
+    private void addVariable (String variable, Object value, Object pickle) {
+        json.put(variable, value);
+        pickled.put(variable, pickle);
+        fingerprints.put(variable, Utils.hash(variable, pickle != null ? pickle.toString() : null));
+    }
+
+    /**
+     * Read the elements of a numpy array, as nested lists like numpy.ndarray.tolist does.
+     *
+     * @param data : the raw content of the array, positioned on the first element to read
+     * @param kind : the kind of the dtype : b (boolean), i (signed integer), u (unsigned integer) or f (float)
+     * @param size : the number of bytes of an element
+     * @param shape : the shape of the array
+     * @param dimension : the dimension to read
+     * @return the element or the list of elements of the dimension
+     */
+    private static Object toJson (ByteBuffer data, char kind, int size, List<Integer> shape, int dimension) {
+        if (dimension == shape.size()) return readElement(data, kind, size);
+
+        JSONArray res = new JSONArray();
+        for (int i = 0; i < shape.get(dimension); i++) {
+            res.add(toJson(data, kind, size, shape, dimension + 1));
+        }
+        return res;
+    }
+
+    private static Object readElement (ByteBuffer data, char kind, int size) {
+        switch (kind) {
+            case 'b':
+                return data.get() != 0;
+            case 'f':
+                if (size == 4) return (double) data.getFloat();
+                return data.getDouble();
+            default:
+                long value;
+                switch (size) {
+                    case 1: value = data.get(); break;
+                    case 2: value = data.getShort(); break;
+                    case 4: value = data.getInt(); break;
+                    default: value = data.getLong(); break;
+                }
+                if (kind == 'u' && size < 8) value &= (1L << (8 * size)) - 1;
+                return value;
+        }
+    }
+
+    /**
+     * @return the value of a line, after its prefix and the spaces that follow it
+     */
+    private static String valueOf (String l, int prefixLength) {
+        int i = Math.min(prefixLength, l.length());
+        while (i < l.length() && l.charAt(i) == ' ') i++;
+
+        return l.substring(i);
+    }
+}
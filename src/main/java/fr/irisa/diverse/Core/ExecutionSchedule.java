@@ -0,0 +1,136 @@
+package fr.irisa.diverse.Core;
+
+import fr.irisa.diverse.Flow.FlowSnapshot;
+import fr.irisa.diverse.Flow.Node;
+
+import java.util.*;
+
+/**
+ * The order in which the nodes of one execution of a flow are run. It is used by the FlowExecutionHandler.
+ *
+ * It counts, once, the number of dependencies (previous nodes in the flow) of each node to execute. The nodes with
+ * no dependency are ready. Each time a node finishes successfully, the counter of each of its next nodes is
+ * decremented and the ones that have no more dependency to wait for become ready. If the outputs of the node changed,
+ * its next nodes are marked as dirty. A node whose previous node failed, or that is in a cycle, never becomes ready.
+ *
+ * Only the edges between the executed nodes are considered : a previous node that is not executed is not waited for.
+ *
+ * The schedule is not thread-safe, the FlowExecutionHandler uses it while holding its own lock.
+ */
+class ExecutionSchedule {
+
+    // Attributes
+    private final FlowSnapshot snapshot;
+    private final Deque<Node> ready;
+    private final Map<Node, Integer> remainingDependencies;
+    private final Set<Node> dirty;
+
+    // Constructor
+    ExecutionSchedule (FlowSnapshot snapshot, List<Node> toExecute) {
+        this.snapshot = snapshot;
+        this.ready = new ArrayDeque<>();
+        this.remainingDependencies = new HashMap<>();
+        this.dirty = new HashSet<>();
+
+        Set<Node> executed = new HashSet<>(toExecute);
+        for (Node n : toExecute) {
+            int count = 0;
+            for (Node previous : distinct(snapshot.previousNodes(n))) {
+                if (executed.contains(previous)) count++;
+            }
+
+            remainingDependencies.put(n, count);
+            if (count == 0) ready.add(n);
+        }
+    }
+
+    /*==================================================================================================================
+                                              PACKAGE CLASS METHODS
+     =================================================================================================================*/
+
+    /**
+     * Retrieve the given node and all the nodes it depends on, directly or not.
+     *
+     * @param snapshot : the snapshot of the flow
+     * @param target : the Node from which to go up the flow
+     * @return the target and its transitive predecessors
+     */
+    static List<Node> upstreamNodes (FlowSnapshot snapshot, Node target) {
+        Set<Node> visited = new LinkedHashSet<>();
+        Deque<Node> toVisit = new ArrayDeque<>();
+        toVisit.add(target);
+
+        while (!toVisit.isEmpty()) {
+            Node n = toVisit.poll();
+            if (!visited.add(n)) continue;
+
+            List<Node> previousNodes = snapshot.previousNodes(n);
+            if (previousNodes != null) toVisit.addAll(previousNodes);
+        }
+
+        return new ArrayList<>(visited);
+    }
+
+    /**
+     * @return the next ready node, null if there is none
+     */
+    Node nextReady () {
+        return ready.poll();
+    }
+
+    /**
+     * @return true if a node is ready
+     */
+    boolean hasReady () {
+        return !ready.isEmpty();
+    }
+
+    /**
+     * Record that a node finished. If it succeeded, the counter of each of its next nodes is decremented and the ones
+     * that have no more dependency to wait for become ready. If the outputs of the node changed, the next nodes are
+     * marked as dirty : they will have to be executed, even if they have already been executed before.
+     *
+     * @param node : the Node that finished.
+     * @param succeeded : false if the execution of the node thrown an error.
+     * @param outputsChanged : true if the node doesn't send the same data to its next nodes anymore.
+     */
+    void finished (Node node, boolean succeeded, boolean outputsChanged) {
+        if (!succeeded) return;
+
+        // A node can be connected several times to the same next node, it was counted only once
+        for (Node next : distinct(snapshot.nextNodes(node))) {
+            Integer remaining = remainingDependencies.get(next);
+            // Nodes that are not part of the executed graph are ignored
+            if (remaining == null) continue;
+
+            if (outputsChanged) dirty.add(next);
+
+            remaining--;
+            remainingDependencies.put(next, remaining);
+            if (remaining == 0) ready.add(next);
+        }
+    }
+
+    /**
+     * @param node : a node of the schedule
+     * @return true if a previous node changed its outputs during this execution
+     */
+    boolean isDirty (Node node) {
+        return dirty.contains(node);
+    }
+
+    /**
+     * Forget the ready nodes, used when the execution is stopped.
+     */
+    void clear () {
+        ready.clear();
+    }
+
+    /*==================================================================================================================
+                                              PRIVATE CLASS METHODS
+     =================================================================================================================*/
+
+    private static Collection<Node> distinct (List<Node> nodes) {
+        return nodes != null ? new LinkedHashSet<>(nodes) : Collections.emptySet();
+    }
+}
@@ -0,0 +1,316 @@
+package fr.irisa.diverse.Core;
+
+import org.json.simple.JSONObject;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * The ExecutionService is the singleton that runs every asynchronous task of the backend.
+ *
+ * Instead of creating a new Thread each time we need to do something in background, the tasks are submitted to
+ * a few named and bounded pools of threads :
+ * - nodes : runs the execution of the nodes. Each workspace can't run more than WORKSPACE_PARALLELISM nodes at
+ *   the same time, the other ones wait in a queue specific to the workspace. A node only holds a thread while it
+ *   prepares its execution or handles its result, not while its kernel executes it.
+ * - kernels : starts and stops the kernels (so the Docker containers).
+ * - graphs : starts the execution of the graphs requested by the UIs.
+ * - persistence : writes the workspaces on the disk. Its tasks can be delayed, to coalesce the saves.
+ * - scheduler : a single thread running the short periodic or delayed tasks, like looking for idle kernels or
+ *   timing out the start of a kernel.
+ *
+ * The size of each pool can be configured with the following system properties :
+ * padins.pool.nodes, padins.pool.kernels, padins.pool.graphs, padins.pool.persistence
+ * and padins.pool.workspaceParallelism.
+ */
+@SuppressWarnings("unchecked")
+public class ExecutionService {
+
+    // Configuration
+    private static final int NB_OF_CORES = Runtime.getRuntime().availableProcessors();
+    public static final int NODES_POOL_SIZE = Integer.getInteger("padins.pool.nodes", 2 * NB_OF_CORES);
+    public static final int KERNELS_POOL_SIZE = Integer.getInteger("padins.pool.kernels", NB_OF_CORES);
+    public static final int GRAPHS_POOL_SIZE = Integer.getInteger("padins.pool.graphs", NB_OF_CORES);
+    public static final int PERSISTENCE_POOL_SIZE = Integer.getInteger("padins.pool.persistence", 2);
+    public static final int WORKSPACE_PARALLELISM = Integer.getInteger("padins.pool.workspaceParallelism", NB_OF_CORES);
+
+    // Attributes
+    private ThreadPoolExecutor nodesPool;
+    private ThreadPoolExecutor kernelsPool;
+    private ThreadPoolExecutor graphsPool;
+    private ScheduledThreadPoolExecutor persistencePool;
+    private ScheduledThreadPoolExecutor scheduler;
+    private Map<String, WorkspaceQueue> workspacesQueues;
+
+    // Singleton object
+    private static ExecutionService ourInstance = new ExecutionService();
+
+    // Singleton specific getInstance method
+    public static ExecutionService getInstance() {
+        return ourInstance;
+    }
+
+    // Constructor
+    private ExecutionService() {
+        nodesPool = createPool("nodes", NODES_POOL_SIZE);
+        kernelsPool = createPool("kernels", KERNELS_POOL_SIZE);
+        graphsPool = createPool("graphs", GRAPHS_POOL_SIZE);
+        persistencePool = new ScheduledThreadPoolExecutor(PERSISTENCE_POOL_SIZE, threadFactory("persistence"));
+        scheduler = new ScheduledThreadPoolExecutor(1, threadFactory("scheduler"));
+        workspacesQueues = new ConcurrentHashMap<>();
+    }
+
+    /*==================================================================================================================
+                                              PUBLIC CLASS METHODS
+     =================================================================================================================*/
+
+    /**
+     * Submit the execution of a node. The task will wait in the queue of its workspace if the workspace already
+     * runs WORKSPACE_PARALLELISM nodes.
+     * The task launches the execution and returns a future, the node keeps its place in the workspace until this
+     * future completes but the thread is released as soon as the task returns.
+     *
+     * @param workspace : the uuid of the workspace the node is on
+     * @param task : the task launching the execution of the node
+     */
+    public void executeNode (String workspace, Supplier<? extends CompletableFuture<?>> task) {
+        workspacesQueues.computeIfAbsent(workspace, k -> new WorkspaceQueue()).execute(task);
+    }
+
+    /**
+     * Submit a short step of the execution of a node that has already been launched, like handling its result.
+     * It doesn't wait in the queue of the workspace as the node already has its place.
+     *
+     * @param task : the task to run
+     */
+    public void executeNodeStep (Runnable task) {
+        nodesPool.execute(task);
+    }
+
+    /**
+     * Submit a task related to the lifecycle of a kernel : start or stop.
+     *
+     * @param task : the task to run
+     * @return a Future that can be used to wait for the end of the task
+     */
+    public Future<?> executeKernelTask (Runnable task) {
+        return kernelsPool.submit(task);
+    }
+
+    /**
+     * Submit a task that follows the execution of a graph.
+     *
+     * @param task : the task to run
+     * @return a Future that can be used to wait for the end of the task
+     */
+    public Future<?> executeGraphTask (Runnable task) {
+        return graphsPool.submit(task);
+    }
+
+    /**
+     * Submit a task that writes on the disk, to be run after the given delay.
+     * The delayed tasks are still run when the service shuts down.
+     *
+     * @param task : the task to run
+     * @param delay : the delay, in milliseconds
+     * @return a Future that can be used to wait for the end of the task
+     */
+    public Future<?> schedulePersistenceTask (Runnable task, long delay) {
+        return persistencePool.schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Run a task periodically, until it is cancelled. The task must be short, as every periodic task runs on the
+     * same thread.
+     *
+     * @param task : the task to run
+     * @param period : the time between two runs, in milliseconds
+     * @return a ScheduledFuture that can be used to cancel the task
+     */
+    public ScheduledFuture<?> schedulePeriodicTask (Runnable task, long period) {
+        return scheduler.scheduleAtFixedRate(() -> {
+            // An exception would cancel the next runs
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Run a task once, after the given delay. The task must be short, as it runs on the same thread as the periodic
+     * tasks.
+     *
+     * @param task : the task to run
+     * @param delay : the delay, in milliseconds
+     * @return a ScheduledFuture that can be used to cancel the task
+     */
+    public ScheduledFuture<?> scheduleTask (Runnable task, long delay) {
+        return scheduler.schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Number of tasks waiting for a thread, in every pool and every workspace queue.
+     *
+     * @return the total queue depth
+     */
+    public int getQueueDepth () {
+        int res = nodesPool.getQueue().size() + kernelsPool.getQueue().size() + graphsPool.getQueue().size()
+                + persistencePool.getQueue().size();
+        for (WorkspaceQueue queue : workspacesQueues.values()) {
+            res += queue.size();
+        }
+
+        return res;
+    }
+
+    /**
+     * Get the metrics of each pool : number of threads, of active threads, queue depth and completed tasks.
+     * It also gives the number of nodes waiting in the queue of each workspace.
+     *
+     * @return a JSONObject containing one object per pool
+     */
+    public JSONObject getMetrics () {
+        JSONObject res = new JSONObject();
+        res.put("nodes", poolMetrics(nodesPool));
+        res.put("kernels", poolMetrics(kernelsPool));
+        res.put("graphs", poolMetrics(graphsPool));
+        res.put("persistence", poolMetrics(persistencePool));
+
+        JSONObject workspaces = new JSONObject();
+        for (Map.Entry<String, WorkspaceQueue> entry : workspacesQueues.entrySet()) {
+            workspaces.put(entry.getKey(), entry.getValue().size());
+        }
+        res.put("workspacesQueues", workspaces);
+
+        return res;
+    }
+
+    /**
+     * Stop accepting new tasks and wait for the running ones to finish.
+     * Use only when stopping the server.
+     *
+     * @param timeout : the maximum time to wait, in seconds
+     * @return true if every pool terminated before the timeout
+     * @throws InterruptedException : thrown if interrupted while waiting.
+     */
+    public boolean shutdown (long timeout) throws InterruptedException {
+        graphsPool.shutdownNow();
+        nodesPool.shutdownNow();
+        kernelsPool.shutdown();
+        persistencePool.shutdown();
+        scheduler.shutdownNow();
+
+        return graphsPool.awaitTermination(timeout, TimeUnit.SECONDS)
+                && nodesPool.awaitTermination(timeout, TimeUnit.SECONDS)
+                && kernelsPool.awaitTermination(timeout, TimeUnit.SECONDS)
+                && persistencePool.awaitTermination(timeout, TimeUnit.SECONDS);
+    }
+
+    /*==================================================================================================================
+                                              PRIVATE CLASS METHODS
+     =================================================================================================================*/
+
+    /**
+     * Create a pool with a fixed number of named threads.
+     *
+     * @param name : the name of the pool, used to name the threads
+     * @param size : the number of threads
+     * @return the newly created pool
+     */
+    private ThreadPoolExecutor createPool (String name, int size) {
+        return new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory(name));
+    }
+
+    /**
+     * Create a factory of named daemon threads.
+     *
+     * @param name : the name of the pool, used to name the threads
+     * @return the factory
+     */
+    private ThreadFactory threadFactory (String name) {
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        return (Runnable r) -> {
+            Thread t = new Thread(r, "padins-" + name + "-" + threadNumber.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Build the metrics object of the given pool.
+     *
+     * @param pool : the pool
+     * @return a JSONObject containing the metrics of the pool
+     */
+    private JSONObject poolMetrics (ThreadPoolExecutor pool) {
+        JSONObject res = new JSONObject();
+        res.put("size", pool.getPoolSize());
+        res.put("maxSize", pool.getMaximumPoolSize());
+        res.put("active", pool.getActiveCount());
+        res.put("queueDepth", pool.getQueue().size());
+        res.put("completed", pool.getCompletedTaskCount());
+
+        return res;
+    }
+
+    /* =================================================================================================================
+                                                    INNER CLASSES
+       ===============================================================================================================*/
+
+    /**
+     * Queue of the nodes of one workspace. It lets at most WORKSPACE_PARALLELISM nodes execute at the same time and
+     * keeps the others until the execution of one of the running nodes finishes.
+     */
+    private class WorkspaceQueue {
+
+        private final Deque<Supplier<? extends CompletableFuture<?>>> pending = new ArrayDeque<>();
+        private int running = 0;
+
+        synchronized void execute (Supplier<? extends CompletableFuture<?>> task) {
+            if (running < WORKSPACE_PARALLELISM) {
+                running++;
+                nodesPool.execute(wrap(task));
+            } else {
+                pending.add(task);
+            }
+        }
+
+        synchronized int size () {
+            return pending.size();
+        }
+
+        /**
+         * Wrap the task so that it submits the next pending task when the execution it launched finishes.
+         *
+         * @param task : the task to wrap
+         * @return the wrapped task
+         */
+        private Runnable wrap (Supplier<? extends CompletableFuture<?>> task) {
+            return () -> {
+                CompletableFuture<?> execution;
+                try {
+                    execution = task.get();
+                } catch (RuntimeException e) {
+                    next();
+                    throw e;
+                }
+
+                if (execution == null) next();
+                else execution.whenComplete((res, e) -> next());
+            };
+        }
+
+        private synchronized void next () {
+            Supplier<? extends CompletableFuture<?>> task = pending.poll();
+            if (task != null) {
+                nodesPool.execute(wrap(task));
+            } else {
+                running--;
+            }
+        }
+    }
+}
@@ -2,44 +2,55 @@ package fr.irisa.diverse.Core;
 
 import fr.irisa.diverse.MessageHandlers.FBPNetworkProtocol.Utils.Status;
 import fr.irisa.diverse.Flow.Flow;
+import fr.irisa.diverse.Flow.FlowSnapshot;
 import fr.irisa.diverse.Flow.Group;
 import fr.irisa.diverse.Flow.Node;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Handle the execution of one group or flow. A group or flow is composed of several nodes. One node is one block on
  * the UI.
  *
  * You have to create one instance of this class per flow you want to run.
+ * The whole flow can be run, or only a target node and all the nodes it depends on (see runUpTo).
+ * Each run works on the snapshot of the flow taken when it starts, so the UIs can edit the flow meanwhile.
  * Then, when you want to run a flow, it works has following :
- * 1 - Search for the first Nodes to execute (the ones with no inputs connected)
- * 2 - Run these first nodes.
- *      To do that, we put all the nodes to execute in a Set.
- *      Beside that, we have a master that look at each node in the Set and run it if possible.
- *      The execution of a node is done in a new thread.
- *      After starting the execution of a node, it put the thread into a Running Set.
- *      When the execution of a Node in a thread finishes, it adds the nodes following the one that just runned into the
- *      toLaunch Set.
- *      In order to run a node, the master verify that its dependencies have finished their own execution.
- *      If not, it continues going through the Set, looking for nodes that can be launched.
- *      When both Set (toLaunch and running) are empty, we stop the master and the execution of the flow is finished.
+ * 1 - Compute, once, the number of dependencies (previous nodes in the flow) of each node to execute.
+ *      The nodes with no dependency are put into the ready queue. This is the ExecutionSchedule of the run.
+ * 2 - Run the nodes of the ready queue.
+ *      The nodes are taken from the ready queue and their execution is submitted to the ExecutionService.
+ *      After submitting the execution of a node, its task is put into the Running Set.
+ *      No thread waits for the nodes to finish : when the execution of a Node finishes, the task calls
+ *      nodeFinished. It decrements the counter of each next node and puts the ones that have no more dependency
+ *      to wait for into the ready queue, then launches them. If the outputs of the node changed, its next nodes are
+ *      marked as dirty.
+ *      A ready node that is not dirty, and whose code and inputs didn't change since its last execution, is not
+ *      submitted at all : it is directly considered as finished with unchanged outputs (early cutoff).
+ *      When both the ready queue and the running Set are empty, the execution of the flow is finished and the
+ *      future returned by whenFinished completes.
  *
  * Created by antoine on 02/06/17.
  */
 public class FlowExecutionHandler {
 
     // Attributes
-    private ArrayList<Node> nodes;
+    private volatile FlowSnapshot snapshot;
+    private volatile List<Node> executedNodes;
     private Workspace owningWorkspace;
     private Flow flow;
+    private String graph;
     private Status status;
 
-    private Set<Node> toLaunch;
+    private ExecutionSchedule schedule;
     private Set<NodeExecutionThread> running;
-    private Map<Node, NodeExecutionThread> runningMap;
-    private boolean stop;
+    private volatile boolean stop;
+    private boolean executing;
+    private AtomicInteger cacheHits;
+    private AtomicInteger cacheMisses;
+    private volatile CompletableFuture<Void> finished;
 
     /*==================================================================================================================
                                                     CONSTRUCTOR
@@ -47,18 +58,20 @@ public class FlowExecutionHandler {
     public FlowExecutionHandler (String graph, Workspace owningWorkspace, Flow flow) {
         this.owningWorkspace = owningWorkspace;
         this.flow = flow;
-        this.toLaunch = new ConcurrentSkipListSet<>();
-        this.running = new ConcurrentSkipListSet<>();
-        this.runningMap = new HashMap<>();
+        this.schedule = null;
+        this.running = new HashSet<>();
         this.stop = false;
+        this.executing = false;
+        this.cacheHits = new AtomicInteger(0);
+        this.cacheMisses = new AtomicInteger(0);
+        this.finished = CompletableFuture.completedFuture(null);
+        this.graph = graph;
 
         Object o = flow.getGraph(graph);
 
         if (o instanceof Flow) {
-            nodes = ((Flow) o).getNodes();
             status = ((Flow) o).getStatus();
         } else if (o instanceof  Group){
-            nodes = flow.getNodes((Group) o);
             status = ((Group) o).getStatus();
         }
     }
@@ -68,45 +81,83 @@ public class FlowExecutionHandler {
      =================================================================================================================*/
 
     /**
-     * Start the execution of the flow given to the constructor
+     * Start the execution of the flow given to the constructor. It returns once the first nodes have been launched,
+     * use whenFinished to know when the execution finishes.
      */
     public void run () {
-        stop = false;
-        prepareNodesForExecution();
+        snapshot = flow.getSnapshot();
+        List<Node> nodes = snapshot.getNodes(graph);
 
-        runNodes();
+        execute(nodes != null ? nodes : new ArrayList<>());
+    }
+
+    /**
+     * Execute only the given node and its transitive predecessors in the flow, in dependency order.
+     * The other nodes of the flow are not executed. As for run, it doesn't wait for the execution to finish.
+     *
+     * @param target : the last Node to execute
+     */
+    public void runUpTo (Node target) {
+        snapshot = flow.getSnapshot();
+
+        execute(ExecutionSchedule.upstreamNodes(snapshot, target));
     }
 
     /**
      * Stop the flow's execution
      */
     public void stop () {
-        stopNodes(nodes);
+        List<Node> nodes = executedNodes;
+        if (nodes != null) stopNodes(nodes);
     }
 
     /**
-     * Add a node to the list of nodes that will be started as soon as possible
+     * Method for the task to prevent that the execution of its node finished.
+     * It removes the task from the list of running nodes (1 node <-> 1 task) and, if the node succeeded,
+     * releases its next nodes (see ExecutionSchedule.finished). Finally, it launches the nodes that are ready.
+     * The tasks of a stopped execution are ignored.
      *
-     * @param n : the Node to add
+     * @param t : the task that finished.
+     * @param node : the Node the thread executed.
+     * @param succeeded : false if the execution of the node thrown an error.
+     * @param outputsChanged : false if the node sends exactly the same data to its next nodes than before its execution.
+     */
+    public void nodeFinished (NodeExecutionThread t, Node node, boolean succeeded, boolean outputsChanged) {
+        synchronized (this) {
+            if (!running.remove(t)) return;
+
+            schedule.finished(node, succeeded, outputsChanged);
+        }
+
+        runNodes();
+    }
+
+    /**
+     * Method for the task to prevent that the result of a previous execution has been reused for its node.
      */
-    synchronized public void addToLaunch (Node n) {
-        this.toLaunch.add(n);
+    public void cacheHit () {
+        cacheHits.incrementAndGet();
     }
 
     /**
-     * Method for the Thread to prevent that it finished.
-     * It will remove it from the list of running nodes (1 node <-> 1 thread).
-     *
-     * @param t : the Thread that finished.
+     * Method for the task to prevent that its node had to be executed because no previous execution had the
+     * same code and inputs.
      */
-    public void runningThreadFinished (Thread t) {
-        removeThread(t);
+    public void cacheMiss () {
+        cacheMisses.incrementAndGet();
     }
 
     /*==================================================================================================================
                                                 GETTERS AND SETTERS
      =================================================================================================================*/
 
+    /**
+     * @return the snapshot of the flow the current or last execution works on
+     */
+    FlowSnapshot getSnapshot () {
+        return snapshot;
+    }
+
     /**
      * @return a boolean telling whether the Execution of the Flow is running or not
      */
@@ -114,43 +165,131 @@ public class FlowExecutionHandler {
         return status.isRunning();
     }
 
+    /**
+     * @return a future completed when the current execution of the flow finishes, already completed if the flow
+     * is not running
+     */
+    public CompletableFuture<Void> whenFinished () {
+        return finished;
+    }
+
     /*==================================================================================================================
                                               PRIVATE CLASS METHODS
      =================================================================================================================*/
 
     /**
-     * Starts the flow to execute.
+     * Execute the given nodes of the flow.
      *
-     * It begins with retrieving the first nodes to execute.
-     * Then put them into the toLaunch set and start doing the master job, as described above.
+     * @param toExecute : the nodes to execute. The edges between them give the order of execution.
      */
-    private void runNodes () {
-        // Retrieve the first nodes to execute
-        ArrayList<Node> firstNodes = flow.findFirstNodesOfFlow(nodes);
+    private void execute (List<Node> toExecute) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+
+        synchronized (this) {
+            finished = done;
+            executedNodes = toExecute;
+            running.clear();
+            stop = false;
+            executing = true;
+            cacheHits.set(0);
+            cacheMisses.set(0);
+        }
+
+        try {
+            prepareNodesForExecution();
 
-        // Add each first node to the toLaunch list
-        for( Node n : firstNodes) {
-            toLaunch.add(n);
+            // Count the dependencies of each node and retrieve the first nodes to execute
+            synchronized (this) {
+                schedule = new ExecutionSchedule(snapshot, toExecute);
+            }
+
+            // Tell the status that we started
+            status.start();
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                executing = false;
+            }
+            finish(done);
+            throw e;
         }
 
-        // Tell the status that we started
-        status.start();
-
-        // Start a while loop that look at the toLaunch list and start running a Node as soon as possible.
-        while ((!toLaunch.isEmpty() || !running.isEmpty()) && !stop) {
-            for (Node n : toLaunch) {
-                // Verify that all the previous nodes in the flow have finished their execution
-                if (havePreviousNodesFinish(n)) {
-                    // If so, start running it
-                    System.out.println("\nNode " + n.getComponent() + " will be launched");
-                    runNode(n);
-                    toLaunch.remove(n);
+        runNodes();
+    }
+
+    /**
+     * Launch the nodes of the ready queue, and finish the execution if there is no node to wait for anymore.
+     *
+     * The nodes that are up to date are skipped, which can make other nodes ready : they are launched too.
+     */
+    private void runNodes () {
+        List<NodeExecutionThread> launched = new ArrayList<>();
+        CompletableFuture<Void> done = null;
+
+        synchronized (this) {
+            Node n = stop ? null : schedule.nextReady();
+            while (n != null) {
+                if (isUpToDate(n)) {
+                    skipNode(n);
+                } else {
+                    NodeExecutionThread t = new NodeExecutionThread(n, this, owningWorkspace);
+                    running.add(t);
+                    launched.add(t);
                 }
+                n = stop ? null : schedule.nextReady();
+            }
+
+            // When no node is ready nor running anymore, the execution is finished
+            if (executing && running.isEmpty()) {
+                executing = false;
+                done = finished;
             }
         }
 
-        // Here it is finished, we change the status
-        status.stop();
+        for (NodeExecutionThread t : launched) {
+            runNode(t);
+        }
+
+        if (done != null) finish(done);
+    }
+
+    /**
+     * Called once per execution, when it finished or has been stopped.
+     *
+     * @param done : the future of the execution, to complete
+     */
+    private void finish (CompletableFuture<Void> done) {
+        try {
+            // We change the status
+            status.stop();
+
+            // Let the UIs know how many node executions have been avoided thanks to the memoized results
+            owningWorkspace.clientCommunicationManager.sendExecutionStats(graph, cacheHits.get(), cacheMisses.get());
+        } finally {
+            done.complete(null);
+        }
+    }
+
+    /**
+     * Is the current result of the node still valid ?
+     * It is the case if none of its previous nodes changed its outputs during this execution and if the node
+     * has already been executed with its current code and inputs.
+     *
+     * @param node : the Node to check
+     * @return true if there is no need to submit the node
+     */
+    synchronized private boolean isUpToDate (Node node) {
+        return !schedule.isDirty(node) && node.isExecutable() && node.noKnownError() && !node.shouldBeReRun(snapshot.previousNodes(node));
+    }
+
+    /**
+     * Consider the node as executed without submitting it : its outputs didn't change, so its next nodes are
+     * released without being marked as dirty.
+     *
+     * @param node : the Node to skip
+     */
+    private void skipNode (Node node) {
+        cacheHit();
+        schedule.finished(node, true, false);
     }
 
     /**
@@ -158,20 +297,34 @@ public class FlowExecutionHandler {
      *
      * @param nodes : The List of nodes to stop
      */
-    private void stopNodes (ArrayList<Node> nodes) {
-        // First : set stop to true to stop the while in runNodes
-        this.stop = true;
-        // Second : interrupt the Thread and remove them from the instance.
-        for (Thread t : running) {
-            t.interrupt();
-            removeThread(t);
+    private void stopNodes (List<Node> nodes) {
+        List<NodeExecutionThread> cancelled;
+        CompletableFuture<Void> done = null;
+
+        // First : set stop to true and remove the tasks from the instance, so that no other node is launched
+        synchronized (this) {
+            this.stop = true;
+            if (schedule != null) schedule.clear();
+            cancelled = new ArrayList<>(running);
+            running.clear();
+
+            if (executing) {
+                executing = false;
+                done = finished;
+            }
+        }
+
+        // Second : cancel the tasks that have not been started yet
+        for (NodeExecutionThread t : cancelled) {
+            t.cancel();
         }
 
         // Third : make sure the nodes have been stopped
         for (Node n : nodes) {
-            toLaunch.remove(n);
             owningWorkspace.stopNode(n);
         }
+
+        if (done != null) finish(done);
     }
 
     /**
@@ -180,42 +333,28 @@ public class FlowExecutionHandler {
      * @param n {Node} the node that thrown an error
      */
     public void errorExecutingNode (Node n) {
-        if (n != null && nodes.indexOf(n) != -1) {
+        if (n != null && executedNodes != null && executedNodes.indexOf(n) != -1) {
             stop();
         }
     }
 
-    /**
-     * Remove a given thread from everywhere it is stored in the class.
-     *
-     * @param t : the Thread to remove
-     */
-    private void removeThread (Thread t) {
-        // Remove the thread in the runningMap
-        Set<Node> keys = runningMap.keySet();
-        for (Node n : keys) {
-            if (runningMap.get(n).equals(t)) { runningMap.remove(n, t); }
-        }
-
-        // Remove the thread in the running set
-        running.remove(t);
-    }
-
     /**
      * Prepare the nodes for being executed.
      */
     private void prepareNodesForExecution () {
-        for (Node n : nodes) {
+        for (Node n : executedNodes) {
             n.prepareForExecution();
         }
     }
 
     /**
      * Run a unique node.
-     * It starts a new Thread for the node and add it to the Running set.
-     * @param node : the Node to execute
+     * It submits the task of the node, already in the Running set, to the ExecutionService.
+     * @param t : the task executing the node
      */
-    private void runNode (Node node) {
+    private void runNode (NodeExecutionThread t) {
+        Node node = t.getNode();
+        System.out.println("\nNode " + node.getComponent() + " will be launched");
 
         // If the node is running, we kill it
         if (node.isRunning()){
@@ -225,41 +364,6 @@ public class FlowExecutionHandler {
         // Send a message to the UI to let it know that the node is being executed
         owningWorkspace.clientCommunicationManager.sendStartNode(node.getId());
 
-        // Create and run the thread
-        NodeExecutionThread t = new NodeExecutionThread(node, this, owningWorkspace);
-        running.add(t);
-        t.start();
-
-    }
-
-    /**
-     * Tells whether the dependency of a node finished running.
-     * This method is usually called in order to know if it is possible de run a node.
-     *
-     * @param n : the Node for which you want to know if dependencies finished running.
-     * @return True if all the dependencies finished
-     */
-    private boolean havePreviousNodesFinish(Node n) {
-        // Retrieve the previousNodes of the given node n.
-        ArrayList<Node> previousNodes = n.previousInFlow();
-        boolean res = true;
-
-        // Single case : if there is no previous node, we consider that previous ones have finished,
-        // because we can start the execution of this node.
-        if (previousNodes == null) return true;
-        else {
-            // Most common case
-            for (Node previous : previousNodes) {
-                // For each previous node, we look if the node has finished. To determine that, this previous node
-                // also take a look at its dependencies, that look at theirs and so one.
-                // Thanks to that we make sure that we return true only if all previous node finished their execution,
-                // not just the previous one. It reduces the probability of error.
-                // Then we do an arithmetic operation to store the result.
-                res = res && previous.hasFinished();
-            }
-
-            // End
-            return res;
-        }
+        ExecutionService.getInstance().executeNode(owningWorkspace.getUuid(), t);
     }
 } // End class
@@ -3,14 +3,19 @@ package fr.irisa.diverse.Core;
 import fr.irisa.diverse.Flow.Node;
 import fr.irisa.diverse.Jupyter.JupyterChannels.*;
 import fr.irisa.diverse.Jupyter.JupyterMessaging.Manager;
+import fr.irisa.diverse.Jupyter.JupyterMessaging.PendingRequests;
+import fr.irisa.diverse.Jupyter.JupyterMessaging.ShellMessaging;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The kernel is the element that runs the python code and decide when it is needed to inform every interface
@@ -19,18 +24,35 @@ import java.util.regex.Pattern;
  * 5 channels are used to communicate with the fr.irisa.diverse.Core.Kernel
  * (see fr.irisa.diverse.Jupyter.JupyterMessaging in Jupyter doc to know more about it).
  *
- * The kernel is embedded into a Docker container, which creates a connexion_file that this class will read
- * to know on which ports to connect the sockets.
+ * The kernel runs in a process launched by the KernelBackend of the workspace : a Docker container by default, or a
+ * local subprocess. The backend gives the connexion_file of the kernel, that this class reads to know on which ports
+ * to connect the sockets.
  *
- * IMPORTANT : 1 kernel per node, 1 node per kernel. It is a 1-1 relation.
+ * By default, there is 1 kernel per node and 1 node per kernel. When the workspace shares its kernel, every node
+ * runs on the same kernel, each one in its own namespace : its code is executed with its own dict of globals. The
+ * results of a node then stay in the kernel for the next nodes that run on it, instead of being sent back as pickles.
+ *
+ * As a kernel can run several nodes, the node of an execution is found from the msg_id of its execute_request,
+ * that every message related to the execution has in its parent header.
+ *
+ * The variables that the previous nodes sent as binary buffers are sent to the kernel as buffers too, in the
+ * messages of a comm opened with the INPUTS_COMM_TARGET target just before the execute_request. The kernel handles
+ * the messages of its shell in order, so they are received before the code reads them.
  *
  * Created by antoine on 28/04/17.
  */
 public class Kernel {
 
-    // Process and Docker container id
-    private Process container;
-    private String containerId = null;
+    // Configuration
+    public static final String RESULTS_COMM_TARGET = "padins.results";
+    public static final String INPUTS_COMM_TARGET = "padins.inputs";
+    public static final long START_TIMEOUT = TimeUnit.SECONDS.toMillis(Long.getLong("padins.kernels.startTimeoutSeconds", 30));
+    public static final int START_ATTEMPTS = Math.max(1, Integer.getInteger("padins.kernels.startAttempts", 3));
+
+    // Process running the kernel
+    private final String backendName; // Backend of the workspace when the start began
+    private KernelBackend backend;
+    private String containerId = null; // Id of the kernel given by the backend
 
     // Channels
     public ShellChannel shell = null;
@@ -53,59 +75,59 @@ public class Kernel {
     private String ip = null;
     private String signature_scheme = null;
     private String key = null;
-    private String pathToConnexionFilesFolder = null;
-    private String pathToWorkspaceStorage = null;
-    private String pathToUtils = null;
     private JSONParser parser = null;
 
     // Workspace related info
-    public String linkedNodeId;
     public Workspace owningWorkspace;
+    private final Map<String, String> executionsNodes; // msg_id of the last execute requests <-> id of their node
+    private final PendingRequests runningExecutions; // Execute requests not finished yet
+    private final Map<String, ExecutionResultDecoder> outputs; // msg_id of the running executions <-> their stdout
+    private final Map<String, String> resultsComms; // comm_id of the open results comms <-> msg_id of their execution
+    private final Map<String, String> namespaces; // Node id <-> execution key of the result in its namespace
+    private boolean inputsTargetRegistered = false;
+    private static final int MAX_TRACKED_EXECUTIONS = 256;
 
 
     /*==================================================================================================================
                                                     CONSTRUCTOR
      =================================================================================================================*/
 
-    public Kernel (String linkedNodeId, Workspace workspace) {
+    private Kernel (Workspace workspace) {
         // Instantiate objects that will be useful later
         this.parser = new JSONParser();
+        this.executionsNodes = Collections.synchronizedMap(new LinkedHashMap<String, String>() {
+            @Override
+            protected boolean removeEldestEntry (Map.Entry<String, String> eldest) {
+                return size() > MAX_TRACKED_EXECUTIONS;
+            }
+        });
+        this.runningExecutions = new PendingRequests();
+        this.outputs = new ConcurrentHashMap<>();
+        this.resultsComms = new ConcurrentHashMap<>();
+        this.namespaces = new ConcurrentHashMap<>();
 
-        // Set linkedNodeId & workspace
-        this.linkedNodeId = linkedNodeId;
+        // Set workspace
         this.owningWorkspace = workspace;
+        this.backendName = workspace.getKernelBackend();
+    }
 
-        // Set the path to the workspace
-        this.pathToWorkspaceStorage = Root.PATH_TO_PROJECT_STORAGE + "/workspaces/" + owningWorkspace.getUuid();
-        this.pathToUtils = Root.PATH_TO_PROJECT_STORAGE + "/workspaces/utils";
-
-        // Retrieve the absolute path to resources/connexion_files
-        pathToConnexionFilesFolder = Root.PATH_TO_PROJECT_STORAGE + "/connexion_files";
-
-        try {
-            // Start a new container from image antoinecheronirisa/lmt-python-core
-            startContainer();
-
-            // Retrieve the file containing the connection_info from the kernel. These information are used to connect
-            // to the proper zmq sockets
-            if(this.containerId != null) {
-                // Path to the connection_info file
-                String absolutePathToConnexionInfoFile = pathToConnexionFilesFolder + "/" + containerId + ".json";
-
-                createChannelsFromConnexionFile(absolutePathToConnexionInfoFile);
-
-                startChannels();
-                idle = true;
-                shell.sendKernelInfoRequest();
-
-                // Create a message manager that will handle reaction to incoming messages
-                messagesManager = new Manager(this);
-            }
-
-        } catch (FailedKernelStartException | FailedRetrievingContainerIPException | IOException | ParseException | InterruptedException e) {
-            e.printStackTrace();
-        }
+    /**
+     * Start a kernel for the given workspace, without blocking the calling thread.
+     *
+     * The kernel is launched by the backend of the workspace in the kernels pool of the ExecutionService, then the
+     * channels are connected once the ConnexionFilesWatcher tells that the connexion file has been written. If the
+     * kernel is not ready after START_TIMEOUT milliseconds, it is stopped and started again, up to START_ATTEMPTS
+     * times. They can be configured with the padins.kernels.startTimeoutSeconds and padins.kernels.startAttempts
+     * system properties. Every attempt uses the backend the workspace had when the start began.
+     *
+     * @param workspace : the workspace the kernel runs the nodes of
+     * @return a future completed with the started kernel, or exceptionally if every attempt failed
+     */
+    public static CompletableFuture<Kernel> start (Workspace workspace) {
+        CompletableFuture<Kernel> res = new CompletableFuture<>();
+        new Kernel(workspace).attemptStart(res, 1);
 
+        return res;
     }
 
     /* =================================================================================================================
@@ -113,12 +135,28 @@ public class Kernel {
        ===============================================================================================================*/
 
     /**
-     * Stop the kernel and its linked Docker container.
+     * Stop the kernel and its linked process.
      */
     public void stop () {
         stopChannels();
-        stopContainer();
-        deleteConnexionFile();
+        runningExecutions.cancelAll();
+        outputs.clear();
+        resultsComms.clear();
+        backend.stop();
+    }
+
+    /**
+     * Disconnect from the kernel without stopping its Docker container, if it has one. Used when stopping the
+     * server, to stop all the containers at once with ContainerRuntime.stopAll.
+     *
+     * @return the id of the container to stop, null if the kernel is already stopped
+     */
+    public String release () {
+        stopChannels();
+        runningExecutions.cancelAll();
+        outputs.clear();
+        resultsComms.clear();
+        return backend.release();
     }
 
     /**
@@ -141,83 +179,19 @@ public class Kernel {
     }
 
     /**
-     * Do what's needed when receiving the result of the execution of a code.
-     * It verify that we were waiting for this response and store the result into the node.
+     * Do what's needed when receiving the result of the execution of a code : store the result into the node.
      *
-     * @param result : the result received from the channel's stdout
-     */
-    public void handleExecutionResult (String[] result) {
-        // Build an object containing the results associated with their variable
-        JSONParser parser = new JSONParser();
-        JSONObject res = new JSONObject();
-        JSONObject pickled = new JSONObject();
-        if (result.length > 1) {
-            // First skip the line until we meet the beginning line that is delimited by the identifier :
-            // #BEGINNING OF DATA RETRIEVING
-            // To change it, go into ressources/workspaces/utils/sendTheseDataToNextNodes
-            int beginningLineIndex = 0;
-            while (beginningLineIndex < result.length && !result[beginningLineIndex].equals("#BEGINNING OF DATA RETRIEVING")) {
-                beginningLineIndex++;
-            }
-
-            if (beginningLineIndex < result.length) {
-                // Store each key, value pair after the delimiter
-                // A typical line is :
-                //  key theKey
-                //  pickle thePickledValue
-                //  json theJsonifiedValue
-                //  their might be several lines to display a value, so we have to loop over the lines.
-                int i = beginningLineIndex+1;
-                while(i<result.length) {
-                    // Retrieve the key
-                    int firstIndexOfKey = 4;
-                    while (result[i].charAt(firstIndexOfKey) == ' ') { firstIndexOfKey++; }
-                    String key = result[i].substring(firstIndexOfKey);
-                    i++;
-
-                    // Retrieve the pickled value
-                    int firstIndexOfPickledValue = 6;
-                    while (result[i].charAt(firstIndexOfPickledValue) == ' ') { firstIndexOfPickledValue++; }
-                    String pickle = result[i].substring(firstIndexOfPickledValue);
-                    i++;
-
-                    // Retrieve the jsonified value
-                    int firstIndexOfJSON = 5;
-                    while (result[i].charAt(firstIndexOfJSON) == ' ') { firstIndexOfJSON++; }
-                    // Search for next occurence of key
-                    int lastLineOfJSON = i;
-                    while (lastLineOfJSON+1 < result.length && result[lastLineOfJSON+1].length() >= 3 && !result[lastLineOfJSON+1].substring(0,3).equals("key")) { lastLineOfJSON++; }
-                    // Add each line of JSON data into a String.
-                    String JSON = result[i].substring(firstIndexOfJSON);
-                    i++;
-                    while (i < result.length && i <= lastLineOfJSON) {
-                        i++;
-                        JSON += result[i];
-                    }
-
-                    // Jsonify the read line.
-                    Object value = new Object();
-                    try {
-                        value = parser.parse(JSON);
-                    } catch (ParseException e) {
-                        e.printStackTrace();
-                    }
-
-                    // Store the JSON and the pickle in the res object
-                    res.put(key, value);
-                    pickled.put(key, pickle);
-            }
-            }
-        } else {
-            // TODO : send an error
-        }
-
+     * @param result : the decoded stdout of the execution
+     * @param nodeId : the id of the executed node
+     */
+    private void handleExecutionResult (ExecutionResultDecoder result, String nodeId) {
         // Tell the node to store the result
-        Node linkedNode = owningWorkspace.getFlow().getNode(linkedNodeId, owningWorkspace.getUuid());
-        linkedNode.setJsonResult(res);
-        linkedNode.setPickledResult(pickled);
-
-
+        // The pickled result is stored first : setting the json result tells that the node received its result
+        owningWorkspace.kernelUsed(nodeId);
+        Node linkedNode = owningWorkspace.getFlow().getNode(nodeId, owningWorkspace.getUuid());
+        linkedNode.setPickledResult(result.getPickled());
+        linkedNode.setResultFingerprints(result.getFingerprints());
+        linkedNode.setJsonResult(result.getJson());
     }
 
     /* =================================================================================================================
@@ -228,11 +202,14 @@ public class Kernel {
      * Require the kernel to execute a code on the Jupyter Kernel.
      *
      * @param code : the code to execute
+     * @param node : the node the code is from
+     * @param previousNodes : the previous nodes of the node, whose results are injected into the code
+     * @return a future completed with the content of the execute_reply once the execution is finished
      */
-    public void executeCode (String code, Node node) {
+    public CompletableFuture<JSONObject> executeCode (String code, Node node, List<Node> previousNodes) {
         // Add a few lines on top of the code to import the sendTheseDataToNextNodes function
-        String codeToExecute = "import sys\nimport os\nimport pickle\nimport json\nsys.path.append('/home/diverse/workspace')\n" +
-                "sys.path.append('/home/diverse/utils')\nfrom sendTheseDataToNextNodes import sendTheseDataToNextNodes\n\n";
+        String codeToExecute = "import sys\nimport os\nimport pickle\nimport json\nsys.path.append(" + pythonString(backend.getWorkspacePath()) + ")\n" +
+                "sys.path.append(" + pythonString(backend.getUtilsPath()) + ")\nfrom sendTheseDataToNextNodes import sendTheseDataToNextNodes\n\n";
 
         // Add all the imports the user wrote
         int lastImportIndex = code.lastIndexOf("import");
@@ -242,17 +219,41 @@ public class Kernel {
             codeToExecute += code.substring(0, indexForVarInjection) + "\n";
         }
 
-        // Add the variables retrieved from the previous nodes
-        JSONObject var = node.getPreviousNodesData();
+        // Add the variables of the previous nodes whose results are in the namespaces of this kernel
+        List<Node> remoteNodes = new ArrayList<>();
+        if (previousNodes != null) {
+            for (Node previous : previousNodes) {
+                if (holdsResultOf(previous)) {
+                    for (Object key : previous.getPickledResult().keySet()) {
+                        codeToExecute += key + " = __import__('copy').deepcopy(__padins_namespaces__["
+                                + pythonString(previous.getId()) + "][" + pythonString((String) key) + "])\n";
+                    }
+                } else {
+                    remoteNodes.add(previous);
+                }
+            }
+        }
+
+        // Add the variables retrieved from the other previous nodes
+        JSONObject var = node.getPreviousNodesData(remoteNodes);
         JSONObject jsonified = (JSONObject) var.get("jsonified");
         JSONObject pickled = (JSONObject) var.get("pickled");
 
-        // Add all pickled variables
+        // Add all pickled variables. The binary ones are sent in a comm and read from it by the code.
+        String inputsCommId = UUID.randomUUID().toString();
+        Map<String, BinaryValue> binaryInputs = new LinkedHashMap<>();
         Set pkeys = pickled.keySet();
         Iterator<String> pkeysIterator = pkeys.iterator();
         while(pkeysIterator.hasNext()) {
             String key = pkeysIterator.next();
-            codeToExecute += key + " = pickle.loads(" + pickled.get(key).toString() + ")\n";
+            Object value = pickled.get(key);
+            if (value instanceof BinaryValue) {
+                binaryInputs.put(key, (BinaryValue) value);
+                codeToExecute += key + " = __import__('sendTheseDataToNextNodes').takeInput(" + pythonString(inputsCommId)
+                        + ", " + pythonString(key) + ")\n";
+            } else {
+                codeToExecute += key + " = " + pythonValue(value.toString()) + "\n";
+            }
         }
 
         // Add all jsonified variables
@@ -266,101 +267,249 @@ public class Kernel {
         // Add the rest of the code the user typed
         codeToExecute += "\n" + code.substring(indexForVarInjection);
 
+        // On a shared kernel, run the code in the namespace of the node. Its previous result is replaced.
+        if (owningWorkspace.isKernelShared()) {
+            namespaces.remove(node.getId());
+            codeToExecute = inNamespace(node.getId(), codeToExecute);
+        }
+
         System.out.println("Executing code");
 
-        // Send the execution request message on the shell
-        messagesManager.sendMessageOnShell().sendExecuteRequestMessage(codeToExecute);
+        // Send the execution request message on the shell, after the binary inputs
+        synchronized (this) {
+            if (!binaryInputs.isEmpty()) sendInputs(inputsCommId, binaryInputs);
+            return messagesManager.sendMessageOnShell().sendExecuteRequestMessage(codeToExecute, node.getId());
+        }
+    }
+
+    /**
+     * Delete the namespace of a node from the kernel. Used when a node that shares the kernel is removed.
+     *
+     * @param nodeId : the id of the node
+     */
+    public void dropNamespace (String nodeId) {
+        namespaces.remove(nodeId);
+        if (isStarted()) {
+            messagesManager.sendMessageOnShell().sendExecuteRequestMessage(
+                    "globals().get('__padins_namespaces__', {}).pop(" + pythonString(nodeId) + ", None)", null);
+        }
     }
 
     /* =================================================================================================================
-                                                    PRIVATE FUNCTIONS
+                                                EXECUTIONS TRACKING
        ===============================================================================================================*/
 
     /**
-     * Start the container. Must be called only while creating a new instance of Kernel.
+     * Record that an execute request is sent. Called by ShellMessaging before sending it.
      *
-     * @throws FailedKernelStartException : exception telling that the kernel failed starting.
+     * @param msgId : the msg_id of the execute_request
+     * @param nodeId : the id of the executed node, null if the execution is not related to a node
+     * @return a future completed with the content of the execute_reply once the execution is finished
      */
-    private void startContainer() throws FailedKernelStartException {
+    public CompletableFuture<JSONObject> executionStarted (String msgId, String nodeId) {
+        if (nodeId != null) executionsNodes.put(msgId, nodeId);
 
-        File script = null;
+        return runningExecutions.register(msgId, nodeId);
+    }
 
-        try {
-            // Write the bash script that will start the container
-            script = File.createTempFile("script", null);
-            Writer streamWriter = new OutputStreamWriter(new FileOutputStream(script));
-            PrintWriter printWriter = new PrintWriter(streamWriter);
-            printWriter.println("#!/bin/bash");
-            printWriter.println("docker run -d -v " + pathToConnexionFilesFolder + ":/home/diverse/connexion_files -v " + pathToWorkspaceStorage + ":/home/diverse/workspace -v " + pathToUtils + ":/home/diverse/utils antoinecheronirisa/lmt-python-core");
-            printWriter.println("exit");
-            printWriter.close();
+    /**
+     * Record the reply to an execution. Called by ShellMessaging when receiving the execute_reply.
+     *
+     * @param msgId : the msg_id of the execute_request
+     * @param content : the content of the execute_reply
+     */
+    public void executionReplied (String msgId, JSONObject content) {
+        runningExecutions.replyReceived(msgId, content);
+    }
+
+    /**
+     * Record a chunk of the stdout of an execution. Called by IOPubMessaging for each stdout stream message.
+     * The result of the execution is decoded as the chunks arrive, and given to the node once it is finished.
+     *
+     * @param msgId : the msg_id of the execute_request
+     * @param text : the text of the stream message
+     */
+    public void executionOutput (String msgId, String text) {
+        if (getNodeIdForExecution(msgId) == null) return;
 
-            // Create the object that let us start run the command
-            ProcessBuilder pb = new ProcessBuilder("bash", script.toString());
+        outputs.computeIfAbsent(msgId, k -> new ExecutionResultDecoder()).feed(text);
+    }
 
-            // Start container
-            this.container = pb.start();
+    /**
+     * Record that an execution opened a comm to send its results as binary buffers, see sendTheseDataToNextNodes.
+     * Called by IOPubMessaging when receiving a comm_open message with the RESULTS_COMM_TARGET target.
+     *
+     * @param commId : the id of the comm
+     * @param msgId : the msg_id of the execute_request
+     */
+    public void resultsCommOpened (String commId, String msgId) {
+        if (commId != null && getNodeIdForExecution(msgId) != null) resultsComms.put(commId, msgId);
+    }
 
-            // Retrieve the outpustream to read the container id
+    /**
+     * Record a variable sent in a results comm. It is given to the node with the rest of the result once the
+     * execution is finished.
+     *
+     * @param commId : the id of the comm
+     * @param data : the typed header of the variable
+     * @param buffers : the buffers containing the value of the variable
+     * @return false if the comm is not a results comm
+     */
+    public boolean resultsCommMessage (String commId, JSONObject data, List<byte[]> buffers) {
+        String msgId = commId != null ? resultsComms.get(commId) : null;
+        if (msgId == null) return false;
 
-            BufferedReader in = new BufferedReader(new InputStreamReader(this.container.getInputStream()));
+        try {
+            outputs.computeIfAbsent(msgId, k -> new ExecutionResultDecoder()).addBinaryVariable(data, buffers);
+        } catch (IllegalArgumentException | ClassCastException e) {
+            e.printStackTrace();
+        }
+        return true;
+    }
 
-            // The outputstream is only one line long and contains the newly created container's id
-            this.containerId = in.readLine().substring(0,12);
+    /**
+     * Record that a results comm has been closed.
+     *
+     * @param commId : the id of the comm
+     */
+    public void resultsCommClosed (String commId) {
+        if (commId != null) resultsComms.remove(commId);
+    }
 
-            // Log the containerId of the newly started docker Jupyter
-            System.out.println("Kernel started with id " + containerId);
-            String line = null;
-            while((line=in.readLine()) != null) {
-                System.out.println(line);
-            }
-        } catch (IOException e) {
-            throw new FailedKernelStartException();
-        } finally {
-            // Everything went well
-            if (script != null) script.delete();
+    /**
+     * Record that the kernel went back to idle after handling a request : if it is an execution, every chunk of
+     * its stdout has been received, so its result is given to its node. The execution is finished once its reply
+     * has been received.
+     *
+     * @param msgId : the msg_id of the request
+     */
+    public void executionFinished (String msgId) {
+        ExecutionResultDecoder output = msgId != null ? outputs.remove(msgId) : null;
+        if (output != null) {
+            output.finish();
+            if (output.hasData()) handleExecutionResult(output, getNodeIdForExecution(msgId));
         }
 
+        runningExecutions.idleReceived(msgId);
     }
 
     /**
-     * Stop the container linked to this kernel.
-     * Usually called when stopping the whole server.
+     * Get the node of an execution.
+     *
+     * @param msgId : the msg_id of the execute_request, from the parent header of a message
+     * @return the id of the node, null if the message is not related to the execution of a node
+     */
+    public String getNodeIdForExecution (String msgId) {
+        return msgId != null ? executionsNodes.get(msgId) : null;
+    }
+
+    /**
+     * Tells whether the kernel is executing the code of a node.
+     *
+     * @param nodeId : the id of the node
+     * @return true if an execution of the node is running or waiting to run on the kernel
+     */
+    public boolean isExecuting (String nodeId) {
+        return runningExecutions.hasPending(nodeId);
+    }
+
+    /**
+     * Wait for the executions of a node that are running or waiting to run on the kernel.
+     *
+     * @param nodeId : the id of the node
+     * @return a future completed once they are all finished
+     */
+    public CompletableFuture<Void> whenExecuted (String nodeId) {
+        return runningExecutions.whenFinished(nodeId);
+    }
+
+    /**
+     * Record that the namespace of a node contains the result of the given execution.
+     * Only used on shared kernels.
+     *
+     * @param nodeId : the id of the node
+     * @param executionKey : the execution key of the result
+     */
+    public void resultKeptInNamespace (String nodeId, String executionKey) {
+        if (executionKey != null) namespaces.put(nodeId, executionKey);
+    }
+
+    /* =================================================================================================================
+                                                    PRIVATE FUNCTIONS
+       ===============================================================================================================*/
+
+    /**
+     * Try to start the kernel, with a new process. Retry if it fails, until START_ATTEMPTS attempts have been done.
+     *
+     * @param res : the future to complete once the kernel is started
+     * @param attempt : the number of the attempt, from 1
      */
-    private void stopContainer () {
-        // Run a script to stop the running container
-        File script;
+    private void attemptStart (CompletableFuture<Kernel> res, int attempt) {
+        Executor kernelsPool = ExecutionService.getInstance()::executeKernelTask;
+
+        // The backend chosen by the workspace
+        this.backend = KernelBackend.create(backendName, owningWorkspace);
+
+        CompletableFuture.runAsync(this::startBackend, kernelsPool)
+                .thenCompose(v -> backend.awaitConnectionInfo(START_TIMEOUT))
+                .thenAcceptAsync(this::connect, kernelsPool)
+                .whenComplete((v, e) -> {
+                    if (e == null) {
+                        res.complete(this);
+                        return;
+                    }
+
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    System.err.println("[ERROR] Failed starting kernel " + containerId + " (attempt " + attempt + "/"
+                            + START_ATTEMPTS + ") : " + cause.getMessage());
 
+                    // Clean the failed attempt before the next one, as it reuses the attributes
+                    ExecutionService.getInstance().executeKernelTask(() -> {
+                        stop();
+                        shell = null;
+                        containerId = null;
+
+                        if (attempt < START_ATTEMPTS) attemptStart(res, attempt + 1);
+                        else res.completeExceptionally(cause);
+                    });
+                });
+    }
+
+    /**
+     * Launch the process running the kernel.
+     *
+     * @throws CompletionException : wraps a FailedKernelStartException if the process can't be launched.
+     */
+    private void startBackend() {
         try {
-            // Write the bash script that will stop the running container
-            script = File.createTempFile("script-stop", null);
-            Writer streamWriter = new OutputStreamWriter(new FileOutputStream(script));
-            PrintWriter printWriter = new PrintWriter(streamWriter);
-            printWriter.println("#!/bin/bash");
-            printWriter.println("docker stop " + containerId);
-            printWriter.println("docker rm" + containerId);
-            printWriter.println("exit");
-            printWriter.close();
-
-            // Create the object that let us run the command
-            ProcessBuilder pb = new ProcessBuilder("bash", script.toString());
-
-            System.out.println("Stopping container " + containerId + "...");
-            // Run the command that stop the container
-            this.container = pb.start();
-
-            // When stopping a container, docker output the container id after stopping it.
-            // To make sure that the container stop before the program exit, we read the output stream in order
-            // to make this program wait until the container stops.
-            BufferedReader in = new BufferedReader(new InputStreamReader(this.container.getInputStream()));
-            in.readLine();
-            System.out.println("\033[32m" + "[INFO]" + "\033[0m" + " Container " + containerId + " successfully stopped");
+            backend.launch();
+            this.containerId = backend.getId();
         } catch (IOException e) {
             e.printStackTrace();
-        } finally {
-            // Everything went well
-            container.destroy();
+            throw new CompletionException(new FailedKernelStartException());
+        }
+    }
+
+    /**
+     * Connect the channels to the kernel, once its connexion file has been written.
+     *
+     * @param connexionInfo : the content of the connexion file
+     * @throws CompletionException : wraps a FailedRetrievingContainerIPException if the kernel can't be reached.
+     */
+    private void connect (JSONObject connexionInfo) {
+        try {
+            createChannels(connexionInfo);
+        } catch (FailedRetrievingContainerIPException e) {
+            throw new CompletionException(e);
         }
+
+        // Create a message manager that will handle reaction to incoming messages. It is shared by the channels,
+        // so it must be created before starting them.
+        messagesManager = new Manager(this);
+
+        startChannels();
+        idle = true;
+        shell.sendKernelInfoRequest();
     }
 
     /**
@@ -378,6 +527,9 @@ public class Kernel {
      * Stop and close the 5 ZMQ channels and their Thread.
      */
     private void stopChannels() {
+        // The channels are not created if the container failed starting
+        if (shell == null) return;
+
         // Fix a bug that prevent from stopping
         shell.doLog(false);
         iopub.doLog(false);
@@ -414,34 +566,16 @@ public class Kernel {
     }
 
     /**
-     * Create the ZMQ sockets and configure their properties and endpoints from a connexion_file.
-     * This connexion_file is generated by the code of the Jupyter kernel inside the Docker container.
-     *
-     * The name of the connexion_file is {{containerId}}.json
+     * Create the ZMQ sockets and configure their properties and endpoints from the connection info of the kernel,
+     * read from its connexion_file.
      *
-     * @param path : the absolute Path to the connexion_file
-     * @throws InterruptedException : Exception from Thread, can be thrown if interrupted while sleeping.
-     * @throws FailedRetrievingContainerIPException : Thrown if impossible to retrieve the container's IP
-     * @throws ParseException : Thrown if impossible to parse the File at the given path.
-     * @throws IOException : Look at Javadoc.
-     */
-    private void createChannelsFromConnexionFile (String path) throws InterruptedException, FailedRetrievingContainerIPException, ParseException, IOException {
-        // We wait until the file has been created
-        File f = new File(path);
-        int timeout = 10000;
-        int elapse = 0;
-        while (!f.exists() || elapse >= timeout) {
-            Thread.sleep(100);
-            elapse += 100;
-        }
-
-        // Parse the file to retrieve the interesting informations
-        Object file = parser.parse(new FileReader(path));
-        JSONObject connexionInfo = (JSONObject) file;
-
+     * @param connexionInfo : the content of the connexion_file
+     * @throws FailedRetrievingContainerIPException : Thrown if impossible to retrieve the kernel's IP
+     */
+    private void createChannels (JSONObject connexionInfo) throws FailedRetrievingContainerIPException {
         // Read and save all the network and messaging information from the file
         this.transport = (String) connexionInfo.get("transport");
-        this.ip = retrieveContainerIp();
+        this.ip = retrieveIp();
         this.signature_scheme = (String) connexionInfo.get("signature_scheme");
         this.key = (String) connexionInfo.get("key");
 
@@ -472,6 +606,21 @@ public class Kernel {
         return this.containerId;
     }
 
+    /**
+     * @return the name of the backend that launches the kernel, see KernelBackend
+     */
+    public String getBackendName () {
+        return backendName;
+    }
+
+    /**
+     * Tells whether the container has been started and the channels connected to it.
+     * @return true if the kernel can execute code
+     */
+    public boolean isStarted () {
+        return containerId != null && messagesManager != null;
+    }
+
     /**
      * The session is a String only used to communicate on the Jupyter messaging protocol
      * @return : the String session
@@ -564,72 +713,95 @@ public class Kernel {
        ===============================================================================================================*/
 
     /**
-     * Regex to know if the given text is an IP Address or not.
-     * @param text (String) the text that you want to determine if it is an IP Address
-     * @return True if the given text is an IP Address
+     * Retrieve the IP of the kernel from its backend.
+     * @return (String) the IP address of the kernel
+     * @throws FailedRetrievingContainerIPException : exception telling that it was unable to retrieve the IP.
      */
-    private boolean isIpAddress(String text) {
-        // Define the REGEX for an ip address
-        String IPADDRESS_PATTERN =
-                "^([01]?\\d\\d?|2[0-4]\\d|25[0-5])\\." +
-                        "([01]?\\d\\d?|2[0-4]\\d|25[0-5])\\." +
-                        "([01]?\\d\\d?|2[0-4]\\d|25[0-5])\\." +
-                        "([01]?\\d\\d?|2[0-4]\\d|25[0-5])$";
-
-        // Create a pattern object used to run the regex
-        Pattern pattern = Pattern.compile(IPADDRESS_PATTERN);
-
-        // Create an object that verify whether the given "text" match the regex previously given
-        Matcher matcher = pattern.matcher(text);
-
-        // Run and return the test
-        return matcher.matches();
+    private String retrieveIp() throws FailedRetrievingContainerIPException {
+        try {
+            return backend.getIpAddress();
+        } catch (IOException e) {
+            throw new FailedRetrievingContainerIPException(this.containerId);
+        }
     }
 
     /**
-     * Retrieve the IP of the Docker container linked to this Kernel.
-     * Use bash commands to do that.
-     * @return (String) the IP address of the container
-     * @throws FailedRetrievingContainerIPException : exception telling that it was unable to retrieve the IP.
+     * Tells whether the current result of a node is in its namespace on this kernel, so it can be used by the next
+     * nodes without being sent again.
+     *
+     * @param node : the node
+     * @return true if the namespace of the node contains its current result
      */
-    private String retrieveContainerIp() throws FailedRetrievingContainerIPException {
-        // Path to the script used to get a running container's ip address
-        String pathToScript = Root.PATH_TO_PROJECT_STORAGE + "/retrieve-container-ip.sh";
-
-        try {
-            ProcessBuilder pb = new ProcessBuilder( pathToScript, containerId);
-
-            // Runs the command to get its result (the ip address)
-            Process proc = pb.start();
+    private boolean holdsResultOf (Node node) {
+        String key = namespaces.get(node.getId());
+        return key != null && node.isExecutable() && key.equals(node.getExecutionKey()) && node.getPickledResult() != null;
+    }
 
-            // Retrieve the inputstreams to read the result
-            BufferedReader in = new BufferedReader(new InputStreamReader(proc.getInputStream()));
-            String line;
+    /**
+     * Send variables to the kernel as binary buffers, one per message of a new comm. The first time, the target of
+     * the comm is registered in the kernel, see sendTheseDataToNextNodes.receiveInputs. The variables are kept by
+     * the kernel until the code reads them with sendTheseDataToNextNodes.takeInput.
+     * Must be called right before sending the execute_request that reads them, while holding the lock of the kernel.
+     *
+     * @param commId : the id of the comm to open
+     * @param inputs : the name of each variable and its value
+     */
+    private void sendInputs (String commId, Map<String, BinaryValue> inputs) {
+        ShellMessaging shellMessaging = messagesManager.sendMessageOnShell();
 
-            // Go through the input stream (that correspond to the standard output from the executed script)
-            while((line = in.readLine()) != null) {
-                if (isIpAddress(line)) return line;
-            }
+        if (!inputsTargetRegistered) {
+            inputsTargetRegistered = true;
+            shellMessaging.sendExecuteRequestMessage("import sys\nsys.path.append(" + pythonString(backend.getUtilsPath())
+                    + ")\nfrom sendTheseDataToNextNodes import receiveInputs\nreceiveInputs()", null);
+        }
 
-        } catch (Exception e) {
-            throw new FailedRetrievingContainerIPException(this.containerId);
+        shellMessaging.sendCommOpenMessage(commId, INPUTS_COMM_TARGET, new JSONObject());
+        for (Map.Entry<String, BinaryValue> input : inputs.entrySet()) {
+            JSONObject header = new JSONObject();
+            header.putAll(input.getValue().getHeader());
+            header.put("key", input.getKey());
+            shellMessaging.sendCommMessage(commId, header, Collections.singletonList(input.getValue().getBuffer()));
         }
+        shellMessaging.sendCommCloseMessage(commId);
+    }
+
+    /**
+     * Wrap the code so that it runs in the namespace of the given node. Each execution starts with an empty namespace,
+     * so nothing remains from the previous ones. The code is base64 encoded, so it doesn't need to be escaped.
+     *
+     * @param nodeId : the id of the node
+     * @param code : the code to run
+     * @return the code to send to the kernel
+     */
+    private String inNamespace (String nodeId, String code) {
+        String encoded = Base64.getEncoder().encodeToString(code.getBytes(StandardCharsets.UTF_8));
+
+        return "import base64\n" +
+                "__padins_namespaces__ = globals().setdefault('__padins_namespaces__', {})\n" +
+                "__padins_namespace__ = __padins_namespaces__[" + pythonString(nodeId) + "] = " +
+                "{'__name__': '__main__', '__padins_namespaces__': __padins_namespaces__}\n" +
+                "exec(compile(base64.b64decode('" + encoded + "').decode('utf-8'), " + pythonString(nodeId) +
+                ", 'exec'), __padins_namespace__)\n";
+    }
 
-        // If not found we return the localhost
-        return "127.0.0.1";
+    /**
+     * @param value : a String
+     * @return the python literal of the String
+     */
+    private String pythonString (String value) {
+        return "'" + value.replace("\\", "\\\\").replace("'", "\\'").replace("\n", "\\n") + "'";
     }
 
     /**
-     * Delete the connexion file.
-     * This method is used when stopping the kernel, to make sur that, in case the container did not, we delete
-     * the connexion file.
+     * @param pickled : the pickled value of a variable printed by a previous node, see ExecutionResultDecoder
+     * @return the python expression giving back the variable
      */
-    private void deleteConnexionFile () {
-        String absolutePathToConnexionInfoFile = pathToConnexionFilesFolder + "/" + containerId + ".json";
+    private String pythonValue (String pickled) {
+        // The literal of a pickle printed on the stdout
+        if (pickled.startsWith("b'") || pickled.startsWith("b\"")) return "pickle.loads(" + pickled + ")";
 
-        // We wait until the file has been created
-        File f = new File(absolutePathToConnexionInfoFile);
-        if (f.exists()) f.delete();
+        // Already an expression
+        return pickled;
     }
 
     /* =================================================================================================================
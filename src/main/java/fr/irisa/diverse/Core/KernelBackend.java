@@ -0,0 +1,104 @@
+package fr.irisa.diverse.Core;
+
+import org.json.simple.JSONObject;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The KernelBackend launches and tears down the process running a Jupyter kernel for a Kernel.
+ *
+ * Two backends are available :
+ * - docker : the kernel runs in a Docker container, see DockerKernelBackend. It is the default one.
+ * - local : the kernel is an ipykernel started as a subprocess of the server, see LocalKernelBackend. It starts in
+ *   a fraction of a second but has no isolation, so it is meant for single-user and CI deployments.
+ *
+ * The backend is chosen for each workspace. The default one can be configured with the padins.kernels.backend
+ * system property.
+ *
+ * Each instance of KernelBackend manages one kernel.
+ */
+public interface KernelBackend {
+
+    // Names of the backends
+    String DOCKER = "docker";
+    String LOCAL = "local";
+    String DEFAULT = System.getProperty("padins.kernels.backend", DOCKER);
+
+    /**
+     * Launch the kernel. Returns once the process running it is started, the kernel may not listen yet.
+     *
+     * @throws IOException : thrown if the kernel can't be launched
+     */
+    void launch () throws IOException;
+
+    /**
+     * Wait, without blocking, for the connection info of the launched kernel : transport, ports, key and
+     * signature scheme.
+     *
+     * @param timeout : the maximum time to wait, in milliseconds
+     * @return a future completed with the content of the connexion file of the kernel, or exceptionally if it can't
+     * be read before the timeout
+     */
+    CompletableFuture<JSONObject> awaitConnectionInfo (long timeout);
+
+    /**
+     * @return the IP address to connect to the kernel
+     * @throws IOException : thrown if the address can't be retrieved
+     */
+    String getIpAddress () throws IOException;
+
+    /**
+     * @return the id of the launched kernel, used in the logs and to name its connexion file. Null if not launched.
+     */
+    String getId ();
+
+    /**
+     * @return the path of the folder of the workspace, as seen by the kernel
+     */
+    String getWorkspacePath ();
+
+    /**
+     * @return the path of the folder of the python utils, as seen by the kernel
+     */
+    String getUtilsPath ();
+
+    /**
+     * Tear down the kernel, except the Docker container that is returned to be stopped with the containers of the
+     * other kernels, see ContainerRuntime.stopAll. Used when stopping the server.
+     *
+     * @return the id of the container to stop, null if the kernel has been fully torn down
+     */
+    String release ();
+
+    /**
+     * Tear down the kernel.
+     */
+    void stop ();
+
+    /**
+     * Create a backend.
+     *
+     * @param name : the name of the backend, DOCKER or LOCAL
+     * @param workspace : the workspace the kernel runs the nodes of
+     * @return a new backend, not launched
+     */
+    static KernelBackend create (String name, Workspace workspace) {
+        switch (name) {
+            case LOCAL:
+                return new LocalKernelBackend(workspace);
+            case DOCKER:
+                return new DockerKernelBackend(workspace);
+            default:
+                throw new IllegalArgumentException("Unknown kernel backend " + name);
+        }
+    }
+
+    /**
+     * @param name : the name of a backend
+     * @return true if a backend has this name
+     */
+    static boolean exists (String name) {
+        return DOCKER.equals(name) || LOCAL.equals(name);
+    }
+}
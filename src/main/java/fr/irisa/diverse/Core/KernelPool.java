@@ -0,0 +1,191 @@
+package fr.irisa.diverse.Core;
+
+import org.json.simple.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * The KernelPool keeps started and connected kernels ready to be used by the nodes of a workspace.
+ *
+ * Starting a kernel takes several seconds : the Docker container has to start, then to write its connexion file.
+ * The pool starts them in advance, in the kernels pool of the ExecutionService, so a node that needs a kernel
+ * checks one out in a few milliseconds. Each time a kernel is checked out, the pool is replenished asynchronously.
+ *
+ * The containers mount the folder of the workspace, so each workspace has its own pool. It keeps at least MIN_SIZE
+ * kernels ready. Each time a node doesn't find a ready kernel, the pool grows by one kernel, up to MAX_SIZE. When the
+ * workspace stops being used, the pool is drained and shrinks back to MIN_SIZE. The sizes can be configured with
+ * the padins.kernels.pool.min and padins.kernels.pool.max system properties.
+ *
+ * The pool is disabled when the nodes of the workspace share one kernel : it then keeps no kernel at all.
+ */
+@SuppressWarnings("unchecked")
+public class KernelPool {
+
+    // Configuration
+    public static final int MIN_SIZE = Integer.getInteger("padins.kernels.pool.min", 1);
+    public static final int MAX_SIZE = Math.max(MIN_SIZE, Integer.getInteger("padins.kernels.pool.max", 4));
+
+    // Attributes
+    private Workspace workspace;
+    private final Deque<Kernel> ready;
+    private int starting; // Number of kernels being started
+    private int targetSize;
+    private boolean enabled;
+    private boolean closed;
+    // Metrics
+    private long hits;
+    private long misses;
+    private long replenished;
+    private long totalReplenishTime; // In milliseconds
+    private long lastReplenishTime; // In milliseconds
+
+    // Constructor
+    public KernelPool (Workspace workspace) {
+        this.workspace = workspace;
+        this.ready = new ArrayDeque<>();
+        this.starting = 0;
+        this.targetSize = MIN_SIZE;
+        this.enabled = true;
+        this.closed = false;
+    }
+
+    /*==================================================================================================================
+                                              PUBLIC CLASS METHODS
+     =================================================================================================================*/
+
+    /**
+     * Take a ready kernel from the pool. The pool is then replenished in background.
+     *
+     * @return a started kernel, null if none is ready
+     */
+    synchronized public Kernel checkout () {
+        if (closed || !enabled) return null;
+
+        Kernel res = ready.poll();
+        if (res != null) {
+            hits++;
+        } else {
+            misses++;
+            // The pool is too small for the current use of the workspace
+            targetSize = Math.min(MAX_SIZE, targetSize + 1);
+        }
+
+        replenish();
+        return res;
+    }
+
+    /**
+     * Start kernels in background until the pool contains its target number of kernels.
+     */
+    synchronized public void replenish () {
+        while (!closed && ready.size() + starting < targetSize) {
+            starting++;
+            long start = System.currentTimeMillis();
+            Kernel.start(workspace).whenComplete((kernel, e) -> kernelStarted(kernel, start));
+        }
+    }
+
+    /**
+     * Stop the ready kernels and shrink the pool back to MIN_SIZE. It will be replenished at the next checkout.
+     * Used when the workspace is not used anymore.
+     *
+     * @return the futures of the stops of the kernels
+     */
+    synchronized public List<Future<?>> drain () {
+        List<Future<?>> res = new ArrayList<>();
+        for (Kernel k : ready) {
+            res.add(ExecutionService.getInstance().executeKernelTask(k::stop));
+        }
+        ready.clear();
+        targetSize = enabled ? MIN_SIZE : 0;
+
+        return res;
+    }
+
+    /**
+     * Enable or disable the pool. A disabled pool is drained and doesn't start kernels anymore, the kernels being
+     * started are stopped once started. Used when the nodes of the workspace share one kernel.
+     *
+     * @param enabled : false to disable the pool
+     */
+    synchronized public void setEnabled (boolean enabled) {
+        if (this.enabled == enabled) return;
+
+        this.enabled = enabled;
+        drain();
+    }
+
+    /**
+     * Stop replenishing the pool and give back its ready kernels, for the caller to stop them. The kernels being
+     * started are stopped as soon as they are started. Used when stopping the server.
+     *
+     * @return the ready kernels
+     */
+    synchronized public List<Kernel> close () {
+        closed = true;
+        List<Kernel> res = new ArrayList<>(ready);
+        ready.clear();
+
+        return res;
+    }
+
+    /**
+     * @return true if the pool contains no kernel, ready or being started
+     */
+    synchronized public boolean isEmpty () {
+        return ready.isEmpty() && starting == 0;
+    }
+
+    /**
+     * Get the metrics of the pool : number of ready kernels and of kernels being started, target size, number of
+     * checkouts that found a ready kernel (hits) or not (misses) and time to start a kernel, in milliseconds.
+     *
+     * @return a JSONObject containing the metrics
+     */
+    synchronized public JSONObject getMetrics () {
+        JSONObject res = new JSONObject();
+        res.put("ready", ready.size());
+        res.put("starting", starting);
+        res.put("targetSize", targetSize);
+        res.put("hits", hits);
+        res.put("misses", misses);
+        res.put("replenished", replenished);
+        res.put("lastReplenishTime", lastReplenishTime);
+        res.put("averageReplenishTime", replenished > 0 ? totalReplenishTime / replenished : 0);
+
+        return res;
+    }
+
+    /*==================================================================================================================
+                                              PRIVATE CLASS METHODS
+     =================================================================================================================*/
+
+    /**
+     * Add a kernel that has just been started to the ready kernels, or stop it if the pool doesn't need it anymore.
+     *
+     * @param kernel : the started kernel, null if it failed starting
+     * @param start : the time the start began, in milliseconds
+     */
+    private void kernelStarted (Kernel kernel, long start) {
+        boolean keep;
+        synchronized (this) {
+            starting--;
+            // The backend of the workspace may have changed while the kernel was starting
+            keep = kernel != null && !closed && enabled && ready.size() < MAX_SIZE
+                    && kernel.getBackendName().equals(workspace.getKernelBackend());
+            if (keep) {
+                ready.add(kernel);
+                long duration = System.currentTimeMillis() - start;
+                replenished++;
+                totalReplenishTime += duration;
+                lastReplenishTime = duration;
+            }
+        }
+
+        if (!keep && kernel != null) ExecutionService.getInstance().executeKernelTask(kernel::stop);
+    }
+}
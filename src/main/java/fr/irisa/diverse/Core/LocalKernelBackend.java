@@ -0,0 +1,170 @@
+package fr.irisa.diverse.Core;
+
+import org.json.simple.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * KernelBackend running the kernel as an ipykernel subprocess of the server, on the local machine.
+ *
+ * Contrary to the containers, the subprocess doesn't create its connexion file : the backend picks free ports,
+ * writes the file in the connexion_files folder and gives it to ipykernel, that listens on these ports.
+ * The kernel runs in the folder of the workspace and its output is written in {{id}}.log, next to its connexion file.
+ *
+ * The python interpreter, that must have ipykernel installed, can be configured with the
+ * padins.kernels.local.python system property. It is python3 by default.
+ */
+@SuppressWarnings("unchecked")
+public class LocalKernelBackend implements KernelBackend {
+
+    // Configuration
+    public static final String PYTHON = System.getProperty("padins.kernels.local.python", "python3");
+    private static final String IP = "127.0.0.1";
+
+    // Attributes
+    private String id = null;
+    private Process process = null;
+    private JSONObject connectionInfo = null;
+    private String pathToConnexionFilesFolder;
+    private String pathToWorkspaceStorage;
+    private String pathToUtils;
+
+    // Constructor
+    public LocalKernelBackend (Workspace workspace) {
+        this.pathToWorkspaceStorage = Root.PATH_TO_PROJECT_STORAGE + "/workspaces/" + workspace.getUuid();
+        this.pathToUtils = Root.PATH_TO_PROJECT_STORAGE + "/workspaces/utils";
+        this.pathToConnexionFilesFolder = Root.PATH_TO_PROJECT_STORAGE + "/connexion_files";
+    }
+
+    /*==================================================================================================================
+                                              PUBLIC CLASS METHODS
+     =================================================================================================================*/
+
+    @Override
+    public void launch () throws IOException {
+        this.id = "local-" + UUID.randomUUID().toString().substring(0, 8);
+
+        // Write the connexion file, the kernel will listen on its ports
+        this.connectionInfo = createConnectionInfo();
+        File connexionFile = new File(getPath(".json"));
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(connexionFile), StandardCharsets.UTF_8)) {
+            writer.write(connectionInfo.toJSONString());
+        }
+
+        ProcessBuilder pb = new ProcessBuilder(PYTHON, "-m", "ipykernel_launcher", "-f", connexionFile.getAbsolutePath());
+        pb.directory(new File(pathToWorkspaceStorage));
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(new File(getPath(".log")));
+        this.process = pb.start();
+
+        System.out.println("Kernel started with id " + id);
+    }
+
+    @Override
+    public CompletableFuture<JSONObject> awaitConnectionInfo (long timeout) {
+        // The connexion file is written before launching the kernel
+        CompletableFuture<JSONObject> res = new CompletableFuture<>();
+        if (process.isAlive()) {
+            res.complete(connectionInfo);
+        } else {
+            res.completeExceptionally(new IOException("The kernel " + id + " exited with code " + process.exitValue()
+                    + ", see " + getPath(".log")));
+        }
+
+        return res;
+    }
+
+    @Override
+    public String getIpAddress () {
+        return IP;
+    }
+
+    @Override
+    public String getId () {
+        return id;
+    }
+
+    @Override
+    public String getWorkspacePath () {
+        return pathToWorkspaceStorage;
+    }
+
+    @Override
+    public String getUtilsPath () {
+        return pathToUtils;
+    }
+
+    @Override
+    public String release () {
+        stop();
+        return null;
+    }
+
+    @Override
+    public void stop () {
+        if (process == null) return;
+
+        // Ask the kernel to exit, then kill it if it doesn't
+        process.destroy();
+        try {
+            if (!process.waitFor(5, TimeUnit.SECONDS)) process.destroyForcibly();
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+
+        new File(getPath(".json")).delete();
+        new File(getPath(".log")).delete();
+        System.out.println("\033[32m" + "[INFO]" + "\033[0m" + " Kernel " + id + " successfully stopped");
+    }
+
+    /*==================================================================================================================
+                                              PRIVATE CLASS METHODS
+     =================================================================================================================*/
+
+    /**
+     * Create the connection info of the kernel, with 5 free ports and a new key.
+     *
+     * @return the content of the connexion file
+     * @throws IOException : thrown if no free port can be found
+     */
+    private JSONObject createConnectionInfo () throws IOException {
+        JSONObject res = new JSONObject();
+        res.put("transport", "tcp");
+        res.put("ip", IP);
+        res.put("shell_port", freePort());
+        res.put("iopub_port", freePort());
+        res.put("stdin_port", freePort());
+        res.put("control_port", freePort());
+        res.put("hb_port", freePort());
+        res.put("signature_scheme", "hmac-sha256");
+        res.put("key", UUID.randomUUID().toString());
+        res.put("kernel_name", "python3");
+
+        return res;
+    }
+
+    /**
+     * @return a port that is free on the local interface
+     * @throws IOException : thrown if no free port can be found
+     */
+    private long freePort () throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getByName(IP))) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private String getPath (String extension) {
+        return pathToConnexionFilesFolder + "/" + id + extension;
+    }
+}
@@ -1,13 +1,10 @@
 package fr.irisa.diverse.Core;
 
+import fr.irisa.diverse.Docker.ContainerRuntime;
 import fr.irisa.diverse.Webserver.Webserver;
 
-import java.util.Collection;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -60,35 +57,23 @@ public class Main {
 
                 System.out.println("Shutting down all the kernels...");
 
-                // Retrieve the iterator for the workspaces
-                Map<String, Workspace> workspacesMap = root.getWorkspaces();
-                Collection<Workspace> workspaces = workspacesMap.values();
-                Iterator<Workspace> iterator = workspaces.iterator();
-
-                // Save, and stop the kernels for each workspace
-                // Use an executor service in order to send the stop signal to the kernels in as few time as possible
-                // and wait for every one of them to be stopped before finishing this program.
-                ExecutorService es = Executors.newCachedThreadPool();
-
-                while (iterator.hasNext()) {
-                    Workspace w = iterator.next();
-
-                    Runnable task = () -> {
-                        // w.save(); NOT IN DEVELOPMENT
-                        try {
-                            w.stopKernels();
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                    };
-
-                   es.execute(task);
+                // Disconnect from the kernels of every workspace, then stop all their containers at once.
+                // The containers are stopped in parallel, and we wait for every one of them to be stopped before
+                // finishing this program.
+                List<String> containers = new ArrayList<>();
+                for (Workspace w : root.getWorkspaces().values()) {
+                    // w.save(); NOT IN DEVELOPMENT
+                    containers.addAll(w.releaseKernels());
                 }
 
-                try {
-                    es.shutdown();
-                    es.awaitTermination(3, TimeUnit.MINUTES);
+                if (ContainerRuntime.getInstance().stopAll(containers, TimeUnit.MINUTES.toMillis(3))) {
                     System.out.println("Kernels shut down.");
+                } else {
+                    System.err.println("[ERROR] Some containers have not been stopped");
+                }
+
+                try {
+                    ExecutionService.getInstance().shutdown(10);
                 } catch (InterruptedException e) {
                     e.printStackTrace();
                 }
@@ -1,86 +1,186 @@
 package fr.irisa.diverse.Core;
 
 import fr.irisa.diverse.Flow.Node;
-import fr.irisa.diverse.Utils.Utils;
-
-import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 /**
- * Thread that manage the execution of a node via the Jupyter kernel.
+ * Task that manage the execution of a node via the Jupyter kernel.
+ * It is started by the nodes pool of the ExecutionService, never in a dedicated Thread, and doesn't keep its thread
+ * while the kernel executes the node : the result is handled by a new step submitted to the pool once the kernel
+ * replied.
  *
  * Created by antoine on 02/06/2017.
  */
-public class NodeExecutionThread extends Thread implements Comparable<NodeExecutionThread> {
+public class NodeExecutionThread implements Supplier<CompletableFuture<Void>>, Comparable<NodeExecutionThread> {
 
     // Attributes
     private Node node;
     private FlowExecutionHandler executionHandler;
     private Workspace workspace;
+    private CompletableFuture<Void> done;
 
     // Constructor
     public NodeExecutionThread (Node n, FlowExecutionHandler executionHandler, Workspace workspace) {
         this.node = n;
         this.executionHandler = executionHandler;
         this.workspace = workspace;
+        this.done = new CompletableFuture<>();
     }
 
     /**
-     * The run method is the main method of a Thread.
+     * The get method is the main method of the task.
      * It verify that the node should be re-runned, if so launch it. If not, directly go to next step.
-     * The next step is adding the following nodes in the toLaunch set
-     * and removing this thread from the list of running thread in the FlowExecutionHandler and
+     * A node has to be re-run only if it has never been executed with the same code and inputs. Otherwise, the
+     * result of the previous execution is reused, from the node itself or from the ResultCache of the workspace.
+     * The next step is telling the FlowExecutionHandler that this node finished, so that it can launch the next nodes
+     * and remove this task from the list of running tasks.
+     *
+     * @return a future completed once the node finished and the FlowExecutionHandler has been told so
      */
     @Override
-    public void run() {
-        if (node.noKnownError()) {
+    public CompletableFuture<Void> get() {
+        // The task has been cancelled before being started
+        if (done.isDone()) return done;
+
+        // Hash of the data sent to the next nodes before the execution, to know if the execution changed it
+        String previousResultHash = node.getResultHash();
+
+        if (!node.noKnownError()) {
+            // If the previous execution thrown an error that has not been corrected, we stop the execution
             try {
-                // First : we verify that there really is a need to run the node. Maybe it didn't change and neither its previous nodes
-                if (node.shouldBeReRun()) {
-                    // Empty the previous traceback
-                    node.emptyTraceback();
-
-                    long beginsRunning = new Date().getTime();
-
-                    // Now that we are sure that every previous node has finish running, we can actually run the given node
-                    workspace.executeNode(node);
-
-                    // Now we wait for the Kernel to finish executing the code of this node.
-                    // It it throw an error, we stop waiting.
-                    while (workspace.isNodeRunning(node.getId()) || (!node.receivedResultAfterTime(beginsRunning) && !node.lastRunReturnedError())) {
-                        Thread.sleep(100);
-                    }
-                }
-            } catch (InterruptedException e) {
-                // This exception is catch only if the execution throw an error.
-                // So, we stop the node execution
-                workspace.stopNode(node);
+                workspace.errorExecutingNode(node.getId());
             } finally {
-                if (!node.lastRunReturnedError()) {
-                    // After it finishes and we're sure the node receives the result,
-                    // we add the next nodes to the Set of node to launch
-                    // and remove this Thread from the running ones.
-                    ArrayList<Node> nextInFlow = node.nextInFlow();
-                    if (nextInFlow != null) {
-                        for (Node n : node.nextInFlow()) {
-                            executionHandler.addToLaunch(n);
-                        }
-                    }
-                }
+                finished(previousResultHash);
+            }
+            return done;
+        }
 
+        CompletableFuture<Void> execution;
+        try {
+            // First : we verify that there really is a need to run the node. Maybe it didn't change and neither its previous nodes
+            execution = node.isExecutable() ? executeIfNeeded() : CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            execution = new CompletableFuture<>();
+            execution.completeExceptionally(e);
+        }
 
+        execution.whenComplete((res, e) -> {
+            try {
+                if (e != null) e.printStackTrace();
                 // Send a message to the UIs to let the connected users know that the nodes finished running.
                 workspace.clientCommunicationManager.sendFinishNode(node.getId());
-
-                // Tell to the executionHandler that this node finished its execution.
-                executionHandler.runningThreadFinished(Thread.currentThread());
+            } finally {
+                finished(previousResultHash);
             }
+        });
 
-        } else {
-            // If the previous execution thrown an error that has not been corrected, we stop the execution
-            workspace.errorExecutingNode(node.getId());
+        return done;
+    }
+
+    /**
+     * Cancel the task : if it has not been started yet, it won't be. The node itself is stopped by the
+     * FlowExecutionHandler.
+     */
+    public void cancel () {
+        done.cancel(false);
+    }
+
+    /**
+     * @return the node executed by the task
+     */
+    public Node getNode () {
+        return node;
+    }
+
+    /**
+     * Execute the node, unless the result of a previous execution with the same code and inputs can be reused.
+     *
+     * @return a future completed once the node has its result
+     */
+    private CompletableFuture<Void> executeIfNeeded () {
+        // The previous nodes are read from the snapshot of the flow the execution works on
+        List<Node> previousNodes = executionHandler.getSnapshot().previousNodes(node);
+        String executionKey = node.computeExecutionKey(previousNodes);
+
+        if (reuseResult(executionKey)) return CompletableFuture.completedFuture(null);
+        else return executeNode(executionKey, previousNodes);
+    }
+
+    /**
+     * Try to reuse the result of a previous execution with the same key instead of executing the node.
+     *
+     * @param executionKey : the key of the execution, see Node.computeExecutionKey
+     * @return true if the node already has, or has been given, the result of an execution with the given key
+     */
+    private boolean reuseResult (String executionKey) {
+        // The current result of the node has been produced with the same code and inputs
+        if (executionKey.equals(node.getExecutionKey())) {
+            executionHandler.cacheHit();
+            return true;
         }
 
+        // Another execution with the same code and inputs has been done before
+        ResultCache.CachedResult cached = workspace.getResultCache().get(executionKey);
+        if (cached != null) {
+            node.setPickledResult(cached.getPickled());
+            node.setJsonResult(cached.getJson());
+            node.setExecutionKey(executionKey);
+            executionHandler.cacheHit();
+            return true;
+        }
+
+        executionHandler.cacheMiss();
+        return false;
+    }
+
+    /**
+     * Execute the node on its kernel and, once the kernel replied, store its result into the ResultCache of the
+     * workspace. The result is handled in the nodes pool, not on the thread that received the reply of the kernel.
+     *
+     * @param executionKey : the key of the execution, see Node.computeExecutionKey
+     * @param previousNodes : the previous nodes of the node, that give it its inputs
+     * @return a future completed once the result has been handled
+     */
+    private CompletableFuture<Void> executeNode (String executionKey, List<Node> previousNodes) {
+        // Empty the previous traceback
+        node.emptyTraceback();
+
+        long beginsRunning = new Date().getTime();
+
+        // Now that we are sure that every previous node has finish running, we can actually run the given node.
+        // Its result and errors have been handled by the time the Kernel finishes executing its code.
+        return workspace.executeNode(node, previousNodes).handleAsync((reply, e) -> {
+            // The kernel couldn't be started or has been stopped
+            if (e != null) node.errorOccurred();
+
+            // Memoize the result to reuse it the next time the node has to be executed with the same key
+            if (!node.lastRunReturnedError() && node.receivedResultAfterTime(beginsRunning)) {
+                node.setExecutionKey(executionKey);
+                workspace.getResultCache().put(executionKey, node.getPickledResult(), node.getJsonResult());
+                workspace.resultKeptInKernel(node);
+            }
+
+            return null;
+        }, ExecutionService.getInstance()::executeNodeStep);
+    }
+
+    /**
+     * Tell to the executionHandler that this node finished its execution.
+     * If it succeeded, the next nodes in the flow will be launched as soon as all their dependencies finished.
+     * If its outputs didn't change, the next nodes that are up to date won't be executed again.
+     *
+     * @param previousResultHash : the hash of the data sent to the next nodes before the execution
+     */
+    private void finished (String previousResultHash) {
+        try {
+            boolean outputsChanged = !previousResultHash.equals(node.getResultHash());
+            executionHandler.nodeFinished(this, node, node.noKnownError() && !node.lastRunReturnedError(), outputsChanged);
+        } finally {
+            done.complete(null);
+        }
     }
 
     /**
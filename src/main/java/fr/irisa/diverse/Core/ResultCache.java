@@ -0,0 +1,125 @@
+package fr.irisa.diverse.Core;
+
+import org.json.simple.JSONObject;
+
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The ResultCache memoizes the results of the executions of the nodes of a workspace.
+ *
+ * Each result is stored with the execution key of the node that produced it. The execution key is a hash of the
+ * code of the node and of the results of its previous nodes in the flow (see Node.computeExecutionKey).
+ * So, when a node has to be executed with a key that is already in the cache, we can reuse the stored result instead
+ * of running the code again.
+ *
+ * The cache keeps at most MAX_ENTRIES results in memory and removes the least recently used ones first.
+ * Every result is also written in a ResultStore, on disk, so it can be retrieved after an eviction or a restart
+ * of the backend.
+ */
+public class ResultCache {
+
+    // Attributes
+    public static final int MAX_ENTRIES = Integer.getInteger("padins.cache.maxEntries", 256);
+    private Map<String, CachedResult> results;
+    private ResultStore store;
+    private long hits;
+    private long misses;
+
+    // Constructor
+    public ResultCache (Path storeFolder) {
+        this.store = new ResultStore(storeFolder);
+        // An access-ordered LinkedHashMap gives us the LRU eviction
+        this.results = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+        this.hits = 0;
+        this.misses = 0;
+    }
+
+    /*==================================================================================================================
+                                              PUBLIC CLASS METHODS
+     =================================================================================================================*/
+
+    /**
+     * Retrieve the result stored for the given execution key, in memory first then on disk. Counts a hit or a miss.
+     *
+     * @param key : the execution key
+     * @return the stored result, null if there is none
+     */
+    synchronized public CachedResult get (String key) {
+        if (key == null) {
+            misses++;
+            return null;
+        }
+
+        CachedResult res = results.get(key);
+        if (res == null) {
+            res = store.get(key);
+            if (res != null) results.put(key, res);
+        }
+
+        if (res != null) hits++;
+        else misses++;
+
+        return res;
+    }
+
+    /**
+     * Store the result of an execution.
+     *
+     * @param key : the execution key of the execution that produced the result
+     * @param pickled : the key: pickle pairs of the result
+     * @param json : the key: json pairs of the result
+     */
+    synchronized public void put (String key, JSONObject pickled, JSONObject json) {
+        if (key == null) return;
+
+        results.put(key, new CachedResult(pickled, json));
+        store.put(key, pickled, json);
+    }
+
+    /**
+     * @return the number of times a result has been found in the cache
+     */
+    synchronized public long getHits () {
+        return hits;
+    }
+
+    /**
+     * @return the number of times no result has been found in the cache
+     */
+    synchronized public long getMisses () {
+        return misses;
+    }
+
+    /* =================================================================================================================
+                                                    INNER CLASSES
+       ===============================================================================================================*/
+
+    /**
+     * A result stored in the cache : the pickled and the jsonified values of the variables sent to the next nodes.
+     * The pickled value of a variable sent as a binary buffer is a BinaryValue.
+     */
+    public static class CachedResult {
+        private final JSONObject pickled;
+        private final JSONObject json;
+
+        CachedResult (JSONObject pickled, JSONObject json) {
+            this.pickled = pickled;
+            this.json = json;
+        }
+
+        public JSONObject getPickled () {
+            return pickled;
+        }
+
+        public JSONObject getJson () {
+            return json;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package fr.irisa.diverse.Core;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * The ResultStore is the on-disk part of the ResultCache. It stores the results of the executions of the nodes of
+ * a workspace in its folder, so they survive backend restarts.
+ *
+ * The store is content-addressed : each result is stored in a file named {{executionKey}}.json that contains the
+ * pickled and the jsonified values of the result. As the execution key is a hash of the code and inputs of the node,
+ * a stored result never has to be updated.
+ *
+ * The file starts with a line containing the JSON of the result. The variables sent as binary buffers are followed
+ * by their raw buffers, after this line : in the JSON, their pickled value is replaced by their header and the
+ * position of their buffer, {"binary": header, "offset": 0, "length": 24}.
+ *
+ * The total size of the store is capped to MAX_SIZE bytes. When it is exceeded, the least recently used results are
+ * deleted first. The last use of a result is the last modification time of its file, so the order survives restarts.
+ */
+@SuppressWarnings("unchecked")
+public class ResultStore {
+
+    // Attributes
+    public static final long MAX_SIZE = Long.getLong("padins.store.maxBytes", 1024L * 1024L * 1024L);
+    private static final String EXTENSION = ".json";
+    private Path folder;
+    private LinkedHashMap<String, Long> entries; // Execution key <-> size of the file, in access order
+    private long size;
+
+    // Constructor
+    public ResultStore (Path folder) {
+        this.folder = folder;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.size = 0;
+
+        try {
+            Files.createDirectories(folder);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        loadIndex();
+    }
+
+    /*==================================================================================================================
+                                              PUBLIC CLASS METHODS
+     =================================================================================================================*/
+
+    /**
+     * Read the result stored for the given execution key.
+     *
+     * @param key : the execution key
+     * @return the stored result, null if there is none or if it can't be read
+     */
+    synchronized public ResultCache.CachedResult get (String key) {
+        if (!entries.containsKey(key)) return null;
+
+        Path file = pathOf(key);
+        try {
+            byte[] content = Files.readAllBytes(file);
+
+            // The JSON line, then the buffers
+            int end = 0;
+            while (end < content.length && content[end] != '\n') end++;
+            JSONObject stored = (JSONObject) new JSONParser().parse(new String(content, 0, end, StandardCharsets.UTF_8));
+
+            JSONObject pickled = (JSONObject) stored.get("pickled");
+            for (Object variable : pickled.keySet()) {
+                Object value = pickled.get(variable);
+                if (value instanceof JSONObject) pickled.put(variable, readBinary((JSONObject) value, content, end + 1));
+            }
+
+            // Mark the result as recently used, in memory and on disk
+            entries.get(key);
+            file.toFile().setLastModified(System.currentTimeMillis());
+
+            return new ResultCache.CachedResult(pickled, (JSONObject) stored.get("json"));
+        } catch (IOException | ParseException | ClassCastException e) {
+            // The file is corrupted or has been removed : forget it
+            e.printStackTrace();
+            remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Store the result of an execution. The file is first written under a temporary name then renamed, so a crash
+     * never leaves a partially written result.
+     *
+     * @param key : the execution key
+     * @param pickled : the key: pickle pairs of the result
+     * @param json : the key: json pairs of the result
+     */
+    synchronized public void put (String key, JSONObject pickled, JSONObject json) {
+        if (entries.containsKey(key)) return;
+
+        // Replace the binary values by the position of their buffer
+        JSONObject storedPickled = new JSONObject();
+        List<byte[]> buffers = new ArrayList<>();
+        long offset = 0;
+        for (Object variable : pickled.keySet()) {
+            Object value = pickled.get(variable);
+            if (value instanceof BinaryValue) {
+                byte[] buffer = ((BinaryValue) value).getBuffer();
+                JSONObject position = new JSONObject();
+                position.put("binary", ((BinaryValue) value).getHeader());
+                position.put("offset", offset);
+                position.put("length", (long) buffer.length);
+                storedPickled.put(variable, position);
+                buffers.add(buffer);
+                offset += buffer.length;
+            } else {
+                storedPickled.put(variable, value);
+            }
+        }
+
+        JSONObject stored = new JSONObject();
+        stored.put("pickled", storedPickled);
+        stored.put("json", json);
+
+        Path file = pathOf(key);
+        Path tmp = folder.resolve(key + ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                out.write(stored.toJSONString().getBytes(StandardCharsets.UTF_8));
+                out.write('\n');
+                for (byte[] buffer : buffers) out.write(buffer);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            long fileSize = Files.size(file);
+            entries.put(key, fileSize);
+            size += fileSize;
+
+            evict();
+        } catch (IOException e) {
+            e.printStackTrace();
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException e1) {
+                e1.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return the total size of the stored results, in bytes
+     */
+    synchronized public long getSize () {
+        return size;
+    }
+
+    /*==================================================================================================================
+                                              PRIVATE CLASS METHODS
+     =================================================================================================================*/
+
+    /**
+     * Build the index of the stored results from the content of the folder, ordered from the least to the most
+     * recently used one.
+     */
+    private void loadIndex () {
+        File[] files = folder.toFile().listFiles();
+        if (files == null) return;
+
+        List<File> results = new ArrayList<>();
+        for (File f : files) {
+            if (f.getName().endsWith(EXTENSION)) results.add(f);
+            // Remove the files of a write that didn't finish
+            else if (f.getName().endsWith(".tmp")) f.delete();
+        }
+        results.sort(Comparator.comparingLong(File::lastModified));
+
+        for (File f : results) {
+            String name = f.getName();
+            entries.put(name.substring(0, name.length() - EXTENSION.length()), f.length());
+            size += f.length();
+        }
+
+        evict();
+    }
+
+    /**
+     * Read a variable stored as a binary buffer.
+     *
+     * @param position : the header of the variable and the position of its buffer
+     * @param content : the content of the file
+     * @param buffersStart : the index of the first buffer in the content
+     * @return the value of the variable
+     * @throws IOException : thrown if the buffer is not entirely in the file
+     */
+    private static BinaryValue readBinary (JSONObject position, byte[] content, int buffersStart) throws IOException {
+        long start = buffersStart + ((Number) position.get("offset")).longValue();
+        long end = start + ((Number) position.get("length")).longValue();
+        if (start < buffersStart || end < start || end > content.length) throw new IOException("Truncated result");
+
+        return new BinaryValue((JSONObject) position.get("binary"), Arrays.copyOfRange(content, (int) start, (int) end));
+    }
+
+    /**
+     * Delete the least recently used results until the size of the store is under MAX_SIZE.
+     */
+    private void evict () {
+        Iterator<String> iterator = entries.keySet().iterator();
+        while (size > MAX_SIZE && iterator.hasNext()) {
+            String key = iterator.next();
+            size -= entries.get(key);
+            iterator.remove();
+
+            try {
+                Files.deleteIfExists(pathOf(key));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Forget a result and delete its file.
+     *
+     * @param key : the execution key of the result
+     */
+    private void remove (String key) {
+        Long fileSize = entries.remove(key);
+        if (fileSize != null) size -= fileSize;
+
+        try {
+            Files.deleteIfExists(pathOf(key));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @param key : an execution key
+     * @return the path to the file storing the result of the given key
+     */
+    private Path pathOf (String key) {
+        return folder.resolve(key + EXTENSION);
+    }
+}
@@ -2,17 +2,28 @@ package fr.irisa.diverse.Core;
 
 import fr.irisa.diverse.Utils.Unzipper;
 import fr.irisa.diverse.Utils.Utils;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * This is the Root singleton of the project that loads the workspaces on startup and is used across the project
  * to manage the workspaces.
  *
+ * On startup, the workspaces are only indexed by uuid and name, from a small manifest file stored in the workspaces
+ * folder. Their flows are loaded at their first access. The workspaces missing from the manifest are indexed on
+ * a pool of LOADING_PARALLELISM threads. The workspaces listed in the padins.workspaces.preload system property
+ * (comma separated uuids, or * for all of them) are then fully loaded in the background, on the same pool.
+ *
  * Created by antoine on 25/05/2017.
  */
 public class Root {
@@ -20,6 +31,10 @@ public class Root {
     private Map<String, Workspace> workspaces = null;
     public static final String DATA_STRUCTURE_VERSION = "0-1-0";
     public static final String PATH_TO_PROJECT_STORAGE = "/usr/include/padins/" + DATA_STRUCTURE_VERSION;
+    public static final int LOADING_PARALLELISM = Integer.getInteger("padins.workspaces.loadParallelism",
+            Runtime.getRuntime().availableProcessors());
+    private static final String PATH_TO_WORKSPACES_STORAGE = PATH_TO_PROJECT_STORAGE + "/workspaces";
+    private static final String MANIFEST_FILE_NAME = ".manifest.json";
 
     // Singleton object
     private static Root ourInstance = new Root();
@@ -31,13 +46,18 @@ public class Root {
 
     // Constructor
     private Root() {
+        long start = System.currentTimeMillis();
+
         // Instantiate the workspaces Map
-        workspaces = new Hashtable<>();
+        workspaces = new ConcurrentHashMap<>();
 
         // Verify that the folder where we store data in exists
         verifyStorageFolderExists();
 
         loadStoredWorkspaces();
+
+        System.out.println("\033[32m" + "[INFO] " + "\033[0m" + "Indexed " + workspaces.size() + " workspaces in "
+                + (System.currentTimeMillis() - start) + "ms");
     }
 
     /*==================================================================================================================
@@ -56,6 +76,25 @@ public class Root {
 
         // Store the workspace, associated with its uuid in a Map
         workspaces.put(newWorkspace.uuid, newWorkspace);
+        saveManifest();
+    }
+
+    /**
+     * Change the name of a workspace.
+     *
+     * @param uuid : the id of the workspace
+     * @param name : the new name
+     * @return True if the workspace has been renamed
+     */
+    public boolean renameWorkspace (String uuid, String name) {
+        Workspace w = getWorkspace(uuid);
+        if (w == null) return false;
+
+        w.setName(name);
+        saveManifest();
+        // The name is also stored in flow.json
+        w.save();
+        return true;
     }
 
     /**
@@ -69,6 +108,7 @@ public class Root {
     public boolean deleteWorkspace (String uuid, String name) {
         if (workspaces.containsKey(uuid) && workspaces.get(uuid).getName().equals(name)) {
             workspaces.remove(uuid);
+            saveManifest();
             // TODO : remove the folder
             return true;
         } else {
@@ -83,7 +123,7 @@ public class Root {
      * @return True if the workspace exists
      */
     public boolean hasWorkspace (String workspace) {
-        return workspaces.containsKey(workspace);
+        return workspace != null && workspaces.containsKey(workspace);
     }
 
     /**
@@ -93,7 +133,7 @@ public class Root {
      * @return The workspace instance
      */
     public Workspace getWorkspace (String id) {
-        if (hasWorkspace(id)) {
+        if (id != null && hasWorkspace(id)) {
             return workspaces.get(id);
         } else {
             return null;
@@ -121,14 +161,18 @@ public class Root {
      =================================================================================================================*/
 
     /**
-     * Import  a workspace with the given uuid
+     * Import  a workspace with the given uuid. Its flow is not loaded.
      * @param uuid the unique id of the workspace to import.
+     * @param name the name of the workspace, null if unknown
      */
-    private void importWorkspace (String uuid) {
+    private void importWorkspace (String uuid, String name) {
         // Verify that the workspace doesn't already exist
         if (workspaces.get(uuid) == null) {
+            // If the name is not in the manifest, retrieve it from the flow
+            if (name == null) name = readNameFromFlow(uuid);
+
             // Create a new workspace with the given name
-            Workspace newWorkspace = new Workspace(null, uuid);
+            Workspace newWorkspace = new Workspace(name, uuid);
 
             // Store the workspace, associated with its uuid in a Map
             workspaces.put(newWorkspace.uuid, newWorkspace);
@@ -194,15 +238,14 @@ public class Root {
     }
 
     /**
-     * Load all the workspaces stored on the HD and store them in the
+     * Index all the workspaces stored on the HD and store them in the
      * workspaces attribute of the class.
      */
     private void loadStoredWorkspaces () {
-        if (workspaces == null) { workspaces = new HashMap<>(); }
+        if (workspaces == null) { workspaces = new ConcurrentHashMap<>(); }
 
-        final String pathToWorkspacesStorage = Root.PATH_TO_PROJECT_STORAGE + "/workspaces";
         // First : load the list of folder in the $HOME/.padins/{version}/workspaces folder
-        File dir = new File(pathToWorkspacesStorage);
+        File dir = new File(PATH_TO_WORKSPACES_STORAGE);
         File[] files = dir.listFiles();
 
         if (files != null) {
@@ -214,12 +257,121 @@ public class Root {
 
             workspacesNames.remove("utils");
 
-            // Create a workspace for each directory found
+            // Create a workspace for each directory found, on a pool of threads
+            Map<String, String> manifest = readManifest();
+            ExecutorService loader = createLoader();
+            List<Future<?>> tasks = new ArrayList<>();
             for (String uuid : workspacesNames) {
-                importWorkspace(uuid);
+                tasks.add(loader.submit(() -> importWorkspace(uuid, manifest.get(uuid))));
             }
+
+            for (Future<?> task : tasks) {
+                try {
+                    task.get();
+                } catch (InterruptedException | ExecutionException e) {
+                    e.printStackTrace();
+                }
+            }
+
+            // Keep the manifest in sync with the folders
+            if (!manifest.keySet().equals(workspaces.keySet())) saveManifest();
+
+            preloadWorkspaces(loader);
+            loader.shutdown();
         }
     }
 
+    /**
+     * Load, in the background, the flows of the workspaces listed in the padins.workspaces.preload system property.
+     *
+     * @param loader the pool of threads to load the flows on
+     */
+    private void preloadWorkspaces (ExecutorService loader) {
+        String preload = System.getProperty("padins.workspaces.preload", "").trim();
+        if (preload.isEmpty()) return;
 
+        Collection<String> uuids = preload.equals("*") ? workspaces.keySet() : Arrays.asList(preload.split(","));
+        for (String uuid : uuids) {
+            Workspace w = workspaces.get(uuid.trim());
+            if (w != null) loader.submit(w::getFlow);
+        }
+    }
+
+    /**
+     * Create the pool of threads used to load the workspaces.
+     *
+     * @return the pool
+     */
+    private ExecutorService createLoader () {
+        return Executors.newFixedThreadPool(LOADING_PARALLELISM, (Runnable r) -> {
+            Thread t = new Thread(r, "padins-workspaces-loader");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Read the manifest of the workspaces.
+     *
+     * @return the map of uuid <-> name of the workspaces, empty if there is no manifest
+     */
+    private Map<String, String> readManifest () {
+        Map<String, String> res = new HashMap<>();
+        Path manifest = Paths.get(PATH_TO_WORKSPACES_STORAGE, MANIFEST_FILE_NAME);
+        if (Files.notExists(manifest)) return res;
+
+        try (Reader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+            JSONObject content = (JSONObject) new JSONParser().parse(reader);
+            for (Object key : content.keySet()) {
+                res.put((String) key, (String) content.get(key));
+            }
+        } catch (IOException | ParseException | ClassCastException e) {
+            // The manifest will be rebuilt from the flows
+            e.printStackTrace();
+        }
+
+        return res;
+    }
+
+    /**
+     * Write the manifest of the workspaces : the map of uuid <-> name. It is written in a temporary file then
+     * renamed, so a crash never leaves a partially written manifest.
+     */
+    @SuppressWarnings("unchecked")
+    synchronized private void saveManifest () {
+        JSONObject content = new JSONObject();
+        for (Workspace w : workspaces.values()) {
+            content.put(w.getUuid(), w.getName());
+        }
+
+        Path manifest = Paths.get(PATH_TO_WORKSPACES_STORAGE, MANIFEST_FILE_NAME);
+        Path tmp = Paths.get(PATH_TO_WORKSPACES_STORAGE, MANIFEST_FILE_NAME + ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                content.writeJSONString(writer);
+            }
+            Files.move(tmp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Read the name of a workspace from its flow.json file.
+     *
+     * @param uuid the unique id of the workspace
+     * @return the name of the workspace, an empty String if not found
+     */
+    private String readNameFromFlow (String uuid) {
+        Path flow = Paths.get(PATH_TO_WORKSPACES_STORAGE, uuid, "flow.json");
+        if (flow.toFile().length() == 0) return "";
+
+        try (Reader reader = Files.newBufferedReader(flow, StandardCharsets.UTF_8)) {
+            Object name = ((JSONObject) new JSONParser().parse(reader)).get("name");
+            return name != null ? (String) name : "";
+        } catch (IOException | ParseException | ClassCastException e) {
+            e.printStackTrace();
+            return "";
+        }
+    }
 }
@@ -2,6 +2,7 @@ package fr.irisa.diverse.Core;
 
 import fr.irisa.diverse.MessageHandlers.FBPNetworkProtocol.FBPNetworkProtocolManager;
 import fr.irisa.diverse.Flow.Flow;
+import fr.irisa.diverse.Flow.FlowJournal;
 import fr.irisa.diverse.Flow.Node;
 
 import fr.irisa.diverse.Webserver.Servlets.WebsocketOthers.ServerSocket;
@@ -11,16 +12,13 @@ import org.json.simple.parser.ParseException;
 
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
 
 /** The workspace is the central element of this project.
  *
@@ -28,52 +26,78 @@ import java.util.concurrent.TimeUnit;
  * It can have several kernels and connected users.
  * One flow is represented by one JSON, containing all the vue structure.
  *
+ * The flow is loaded from the disk at its first access only, so the workspaces that are not used never parse
+ * their flow.
+ *
+ * The kernels are started on demand : when a node is executed for the first time, or when the user opens the
+ * editor of a node. The workspace keeps the last time each kernel has been used and stops the ones that have been
+ * idle for more than KERNEL_IDLE_TTL milliseconds. It can be configured with the padins.kernels.idleTtlSeconds
+ * system property. The kernels are taken, when possible, from a KernelPool that starts them in advance.
+ *
+ * By default, each node has its own kernel. A workspace can instead share one kernel between all its nodes : each
+ * node then runs in its own namespace of the kernel, and its results stay in the kernel for the next nodes. It saves
+ * the memory of one container per node and the transfer of the results, but the nodes run one at a time. The
+ * default mode can be configured with the padins.kernels.shared system property, and changed for each workspace.
+ *
+ * The kernels are launched by the KernelBackend chosen for the workspace : in Docker containers or as local
+ * subprocesses.
+ *
  * Created by antoine on 25/05/2017.
  */
 public class Workspace {
 
+    // Configuration
+    public static final long KERNEL_IDLE_TTL = TimeUnit.SECONDS.toMillis(Long.getLong("padins.kernels.idleTtlSeconds", 600));
+    public static final boolean SHARED_KERNEL = Boolean.getBoolean("padins.kernels.shared");
+    private static final String SHARED_KERNEL_KEY = "__shared__"; // Key of the kernel shared by all the nodes
+
     // Attributes
     public String uuid = null;
     private String name = "";
-    private Map<String, Kernel> kernels;
-    private Flow flow = null;
+    private Map<String, Kernel> kernels; // Node id, or SHARED_KERNEL_KEY, <-> kernel
+    private Map<String, CompletableFuture<Kernel>> startingKernels; // Node id, or SHARED_KERNEL_KEY, <-> kernel being started
+    private Map<String, Long> kernelsLastUse; // Node id, or SHARED_KERNEL_KEY, <-> last time its kernel has been used
+    private volatile boolean kernelShared = SHARED_KERNEL;
+    private volatile String kernelBackend = KernelBackend.DEFAULT;
+    private Set<CompletableFuture<Kernel>> releasedStarts = null; // Starts waited for by releaseKernels, null until then
+    private final Object kernelsLock = new Object();
+    private ScheduledFuture<?> kernelsEviction = null;
+    private volatile long lastKernelUse = 0;
+    private volatile KernelPool kernelPool = null; // Created with the flow, see hydrate
+    private volatile Flow flow = null;
+    private FlowJournal journal = null;
+    private WorkspacePersister persister = null;
     private ArrayList<ServerSocket> connectedClients = null;
     public FBPNetworkProtocolManager clientCommunicationManager = null;
     private Map<String, FlowExecutionHandler> executionHandlers = null;
+    private volatile ResultCache resultCache = null; // Created with the flow, see hydrate
     private String library = "hydro-geology";
     public final String RUNTIME_TYPE = "Computational Science";
     private final String pathToWorkspacesStorage = Root.PATH_TO_PROJECT_STORAGE + "/workspaces/";
     private Path pathToWorkspaceFolder;
     private final String FLOW_FILE_NAME = "flow.json";
+    private final String RESULTS_FOLDER_NAME = ".results";
+    private final String JOURNAL_FILE_NAME = ".flow.journal";
 
     // Constructor
     public Workspace (String name, String id) {
         // Initialize attributes
         this.uuid = id == null ? UUID.randomUUID().toString() : id;
         this.name = (name != null) ? name : "";
-        this.kernels = new Hashtable<>();
+        this.kernels = new ConcurrentHashMap<>();
+        this.startingKernels = new HashMap<>();
+        this.kernelsLastUse = new ConcurrentHashMap<>();
         this.connectedClients = new ArrayList<>();
         this.executionHandlers = new Hashtable<>();
 
         // Create a folder for this workspace if not already existing
         this.pathToWorkspaceFolder = Paths.get(URI.create("file:///" + pathToWorkspacesStorage + uuid));
 
+        // A new workspace is saved right away, an existing one is loaded at the first access to its flow
         if (createFolder(this.pathToWorkspaceFolder)) {
-            // If the workspace's folder didn't exist we have created it.
-            // So no flow.json existed, we create a new flow and a new UUID
-            this.flow = new Flow(this);
-            this.save();
-        } else {
-            // Otherwise we import the existing flow
-            JSONObject flowJSON = importFlowJSON(this.pathToWorkspaceFolder);
-            if (flowJSON != null) {
-                this.flow = new Flow(flowJSON, this);
-                this.name = (String) flowJSON.get("name");
-            } else {
-                this.flow = new Flow(this);
-            }
-        } // End of creating flow var
-
+            hydrate();
+            persister.saveNow();
+        }
 
         this.clientCommunicationManager = new FBPNetworkProtocolManager(this);
 
@@ -99,80 +123,236 @@ public class Workspace {
         this.connectedClients.remove(client);
     }
 
-    /** Start a new kernel asynchronously.
-     * Should be used each time a new Simulation or Processing block is created
+    /** Start the kernel of a node asynchronously, if it is not already started or starting.
+     * Used when a node is executed or when the user opens the editor of a node.
+     * When the kernel is shared, it is the kernel of all the nodes.
      *
-     * @return : the uuid of the kernel
+     * @param nodeId : the id of the node
+     * @return : a future completed with the kernel once it is started
      */
-    public void startNewKernel (String nodeId) {
-        Runnable task = () -> {
-                Kernel k = new Kernel(nodeId, this);
+    public CompletableFuture<Kernel> startKernel (String nodeId) {
+        synchronized (kernelsLock) {
+            if (releasedStarts != null) {
+                CompletableFuture<Kernel> res = new CompletableFuture<>();
+                res.completeExceptionally(new IllegalStateException("The kernels of workspace " + uuid + " have been released"));
+                return res;
+            }
+
+            kernelUsed(nodeId);
+            String key = kernelKey(nodeId);
+
+            Kernel kernel = kernels.get(key);
+            if (kernel != null) return CompletableFuture.completedFuture(kernel);
+
+            CompletableFuture<Kernel> starting = startingKernels.get(key);
+            if (starting != null) return whenStarted(nodeId, starting);
+
+            // Look for idle kernels as soon as the workspace has some
+            if (kernelsEviction == null) {
+                long period = Math.max(1000, KERNEL_IDLE_TTL / 4);
+                kernelsEviction = ExecutionService.getInstance().schedulePeriodicTask(this::evictIdleKernels, period);
+            }
 
-                kernels.put(nodeId, k);
-        };
+            // Use a kernel started in advance if there is one. The pool is disabled when the kernel is shared
+            Kernel pooled = kernelShared ? null : getKernelPool().checkout();
+            if (pooled != null) {
+                kernels.put(key, pooled);
+                return CompletableFuture.completedFuture(pooled);
+            }
 
-        Thread thread = new Thread(task);
-        thread.start();
+            CompletableFuture<Kernel> res = new CompletableFuture<>();
+            startingKernels.put(key, res);
+            Kernel.start(this).whenComplete((k, e) -> {
+                boolean current;
+                boolean released;
+                synchronized (kernelsLock) {
+                    // The start is outdated if the mode or the backend of the kernels changed in the meantime
+                    current = startingKernels.remove(key, res);
+                    if (current && k != null) kernels.put(key, k);
+                    released = releasedStarts != null && releasedStarts.contains(res);
+                }
+
+                if (current) {
+                    if (k != null) res.complete(k);
+                    else res.completeExceptionally(e);
+                } else if (released) {
+                    // Given to releaseKernels, that waits for the kernels being started
+                    res.complete(k);
+                } else {
+                    if (k != null) ExecutionService.getInstance().executeKernelTask(k::stop);
+                    res.complete(null);
+                }
+            });
 
+            return whenStarted(nodeId, res);
+        }
     }
 
     /** Stop a running kernel asynchronously.
-     * Commonly used when a node is removed
+     * Commonly used when a node is removed. When the kernel is shared, only the namespace of the node is deleted.
      *
      * @param nodeId : the nodeId linked to the kernel
      */
     public void stopKernel (String nodeId) {
-        Runnable task = () -> {
-            Kernel kernel = kernels.get(nodeId);
-            if(kernel != null) kernel.stop();
-        };
+        synchronized (kernelsLock) {
+            // A kernel being started is stopped once started
+            CompletableFuture<Kernel> starting = startingKernels.get(kernelKey(nodeId));
+            if (starting != null) {
+                starting.thenRun(() -> stopKernel(nodeId));
+                return;
+            }
+
+            if (kernelShared) {
+                Kernel shared = kernels.get(SHARED_KERNEL_KEY);
+                if (shared != null) ExecutionService.getInstance().executeKernelTask(() -> shared.dropNamespace(nodeId));
+                return;
+            }
+
+            Kernel kernel = kernels.remove(nodeId);
+            kernelsLastUse.remove(nodeId);
+            if (kernel != null) ExecutionService.getInstance().executeKernelTask(kernel::stop);
+        }
+    }
+
+    /**
+     * Record that the kernel of a node has just been used, so it is not stopped for being idle.
+     *
+     * @param nodeId : the id of the node
+     */
+    public void kernelUsed (String nodeId) {
+        lastKernelUse = System.currentTimeMillis();
+        kernelsLastUse.put(kernelKey(nodeId), lastKernelUse);
+    }
+
+    /**
+     * Record that the current result of a node is in its namespace of the shared kernel, so the next nodes read it
+     * from there. Called once the node has been executed successfully.
+     *
+     * @param node : the executed node
+     */
+    public void resultKeptInKernel (Node node) {
+        if (!kernelShared) return;
+
+        Kernel k = kernels.get(SHARED_KERNEL_KEY);
+        if (k != null) k.resultKeptInNamespace(node.getId(), node.getExecutionKey());
+    }
 
-        Thread thread = new Thread(task);
-        thread.start();
+    /**
+     * Stop the kernels that are idle and that have not been used for more than KERNEL_IDLE_TTL milliseconds.
+     * They will be started again the next time their node is executed.
+     */
+    public void evictIdleKernels () {
+        long now = System.currentTimeMillis();
+
+        synchronized (kernelsLock) {
+            Iterator<Map.Entry<String, Kernel>> iterator = kernels.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Kernel> entry = iterator.next();
+                Long lastUse = kernelsLastUse.get(entry.getKey());
+                Kernel kernel = entry.getValue();
+
+                if (kernel.isIdle() && (lastUse == null || now - lastUse > KERNEL_IDLE_TTL)) {
+                    iterator.remove();
+                    kernelsLastUse.remove(entry.getKey());
+                    System.out.println("\033[32m" + "[INFO] " + "\033[0m" + "Stopping idle kernel " + entry.getKey());
+                    ExecutionService.getInstance().executeKernelTask(kernel::stop);
+                }
+            }
+
+            // The kernels started in advance are not needed anymore if the workspace is not used
+            if (kernels.isEmpty() && startingKernels.isEmpty() && now - lastKernelUse > KERNEL_IDLE_TTL
+                    && kernelPool != null && !kernelPool.isEmpty()) {
+                kernelPool.drain();
+            }
+        }
     }
 
     /**
-     * Stop all the kernels.
-     * Use only when all users have stopped the connexion or when you stop the server.
+     * @return the metrics of the pool of kernels started in advance
      */
-    public boolean stopKernels () throws InterruptedException {
-        // Retrieve all the kernels started on the workspace
-        Set keys = kernels.keySet();
-        Iterator iterator = keys.iterator();
+    public JSONObject getKernelPoolMetrics () {
+        return kernelPool != null ? kernelPool.getMetrics() : new JSONObject();
+    }
 
-        // Create an executor service to launch the stop of every kernels in the same time and wait for every one
-        // of them to be stopped.
-        ExecutorService es = Executors.newCachedThreadPool();
+    /**
+     * Disconnect from all the kernels, including the ones of the pool, without stopping their containers.
+     * Use only when you stop the server : the containers of all the workspaces are then stopped at once with
+     * ContainerRuntime.stopAll. The kernels being started are waited for, at most Kernel.START_TIMEOUT milliseconds,
+     * and released too. No kernel can be started afterwards.
+     *
+     * @return the ids of the containers to stop
+     */
+    public List<String> releaseKernels () {
+        List<Kernel> released;
+        List<CompletableFuture<Kernel>> starting;
+        synchronized (kernelsLock) {
+            releasedStarts = new HashSet<>(startingKernels.values());
+            released = kernelPool != null ? new ArrayList<>(kernelPool.close()) : new ArrayList<>();
+            released.addAll(kernels.values());
+            starting = new ArrayList<>(releasedStarts);
+            kernels.clear();
+            kernelsLastUse.clear();
+            startingKernels.clear();
+        }
 
-        while(iterator.hasNext()){
-            // Create the stop task for each kernel
-            Kernel k = kernels.get(iterator.next());
-            Runnable task = () -> {
-                k.stop();
-            };
+        long deadline = System.currentTimeMillis() + Kernel.START_TIMEOUT;
+        for (CompletableFuture<Kernel> start : starting) {
+            try {
+                Kernel k = start.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                if (k != null) released.add(k);
+            } catch (ExecutionException e) {
+                // The kernel failed starting, there is nothing to release
+            } catch (TimeoutException e) {
+                // Too long to wait for : the kernel is stopped on its own once started
+                start.thenAccept(k -> { if (k != null) k.stop(); });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
 
-            // Execute the stop task via the executor service
-            es.execute(task);
+        List<String> res = new ArrayList<>();
+        for (Kernel k : released) {
+            String containerId = k.release();
+            if (containerId != null) res.add(containerId);
         }
 
-        es.shutdown();
-        return es.awaitTermination(3, TimeUnit.MINUTES);
+        return res;
     }
 
     /**
-     * Start the execution of a given graph.
+     * Start the execution of a given graph. It doesn't wait for the execution to finish, see whenGraphFinished.
      *
      * @param graph : the id of the graph. Can be the full flow or a group.
      * @throws NotExistingGraphException
      */
     public void startGraph (String graph) throws NotExistingGraphException {
         // Check if an execution handler is associated to this graph
-        executionHandlers.computeIfAbsent(graph, k -> new FlowExecutionHandler(graph, this, this.flow));
+        executionHandlers.computeIfAbsent(graph, k -> new FlowExecutionHandler(graph, this, getFlow()));
         FlowExecutionHandler executionHandler = executionHandlers.get(graph);
 
         executionHandler.run();
     }
 
+    /**
+     * Start the execution of a given node and of all the nodes it depends on in the given graph.
+     * The other nodes of the graph are not executed. It doesn't wait for the execution to finish.
+     *
+     * @param graph : the id of the graph. Can be the full flow or a group.
+     * @param nodeId : the id of the last node to execute.
+     * @throws NotExistingGraphException : thrown if the node is not in the graph.
+     */
+    public void startGraphUpTo (String graph, String nodeId) throws NotExistingGraphException {
+        Node target = getFlow().getNode(nodeId, graph);
+        if (target == null) throw new NotExistingGraphException(graph);
+
+        // Check if an execution handler is associated to this graph
+        executionHandlers.computeIfAbsent(graph, k -> new FlowExecutionHandler(graph, this, getFlow()));
+        FlowExecutionHandler executionHandler = executionHandlers.get(graph);
+
+        executionHandler.runUpTo(target);
+    }
+
     /**
      * Stop a running graph
      *
@@ -200,27 +380,43 @@ public class Workspace {
     }
 
     /**
-     * Launch the execution of a given node.
+     * Wait for the execution of a graph to finish.
+     *
+     * @param graph : the id of the graph. Can be the full flow or a group.
+     * @return a future completed when the current execution of the graph finishes, already completed if the graph
+     * is not running
+     */
+    public CompletableFuture<Void> whenGraphFinished (String graph) {
+        FlowExecutionHandler executionHandler = executionHandlers.get(graph);
+
+        if (executionHandler == null) return CompletableFuture.completedFuture(null);
+        else return executionHandler.whenFinished();
+    }
+
+    /**
+     * Launch the execution of a given node, on the kernel of the node that is started if needed. If the node is
+     * running, the execution is launched once it finishes.
      *
      * @param node : the node to execute.
+     * @param previousNodes : the previous nodes of the node, that give it its inputs.
+     * @return a future completed with the content of the execute_reply once the kernel finished the execution,
+     * or exceptionally if the kernel can't be started
      */
-    public void executeNode (Node node) {
-        if (node.isExecutable()) {
-            // If the node is running, we wait for it to stop
-            while(isNodeRunning(node.getId())){
-                try {
-                    Thread.sleep(200);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
+    public CompletableFuture<JSONObject> executeNode (Node node, List<Node> previousNodes) {
+        if (!node.isExecutable()) return CompletableFuture.completedFuture(null);
 
-            // Then we launch the execution
-            String code = node.getCode();
+        String code = node.getCode();
+        Executor kernelsPool = ExecutionService.getInstance()::executeKernelTask;
 
-            Kernel k = kernels.get(node.getId());
-            k.executeCode(code, node);
-        }
+        CompletableFuture<Kernel> kernel = startKernel(node.getId());
+        kernel.exceptionally(e -> {
+            e.printStackTrace();
+            errorFromKernel("Unable to start the kernel of node " + node.getId());
+            return null;
+        });
+
+        return kernel.thenCompose(k -> k.whenExecuted(node.getId())
+                .thenComposeAsync(v -> k.executeCode(code, node, previousNodes), kernelsPool));
     }
 
     /**
@@ -229,7 +425,7 @@ public class Workspace {
      * @param nodeId the id of the node.
      */
     public void errorExecutingNode (String nodeId) {
-        Node node = flow.getNode(nodeId, flow.getId());
+        Node node = getFlow().getNode(nodeId, uuid);
         node.errorOccurred();
 
         Set<String> keys = executionHandlers.keySet();
@@ -248,8 +444,8 @@ public class Workspace {
     public void stopNode (Node node) {
         // We do it only if the node is running. Otherwise, it is not necessary.
         if (isNodeRunning(node.getId())) {
-            Kernel k = kernels.get(node.getId());
-            k.stopExecution();
+            Kernel k = kernels.get(kernelKey(node.getId()));
+            if (k != null) k.stopExecution();
         }
     }
 
@@ -261,15 +457,15 @@ public class Workspace {
      */
     public boolean isNodeRunning (String nodeId) {
         // First retrieve the node
-        Node n = flow.getNode(nodeId, uuid);
+        Node n = getFlow().getNode(nodeId, uuid);
 
         // If the node is not executable, obviously it is not running
         if (!n.isExecutable()) return false;
             // Elsewhere we check if running. Checking whether the node is running is finally checking if its associated
-            // kernel is busy.
+            // kernel is executing its code.
         else {
-            Kernel k = kernels.get(nodeId);
-            return k.isBusy();
+            Kernel k = kernels.get(kernelKey(nodeId));
+            return k != null && k.isExecuting(nodeId);
         }
     }
 
@@ -284,21 +480,13 @@ public class Workspace {
     }
 
     /**
-     * Save the workspace, storing the full flow as a json file in the workspace folder on the HD.
+     * Save the workspace, storing the full flow as a json file in the workspace folder on the HD, and compacting the
+     * journal. The save is done asynchronously and coalesced with the other saves asked in the next few milliseconds.
      * Each workspace has its own folder on the HD.
      */
     public void save () {
-        // Make sure the workspace folder exist
-        createFolder(this.pathToWorkspaceFolder);
-
-        // Write the serialized Flow object
-        System.out.println("Saving");
-        try (FileWriter file = new FileWriter(this.pathToWorkspaceFolder.toString() + "/" + FLOW_FILE_NAME)) {
-            file.write(flow.serialize());
-            System.out.println("Successfully Copied Flow " + flow.getId() + " to File :)");
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        // Nothing to save if the flow has never been loaded
+        if (flow != null) persister.requestSave();
     }
 
     /**
@@ -359,10 +547,20 @@ public class Workspace {
      * Get the flow designed by the user. The flow is the bunch of components (nodes), linked with edges that
      * described the process the user wants to study/simulate.
      *
+     * The flow is loaded from the disk at the first call.
+     *
      * @return the Flow instance
      */
     public Flow getFlow() {
-        return flow;
+        Flow res = flow;
+        return res != null ? res : hydrate();
+    }
+
+    /**
+     * @return true if the flow has been loaded
+     */
+    public boolean isHydrated () {
+        return flow != null;
     }
 
     /**
@@ -371,7 +569,89 @@ public class Workspace {
      * @return {Kernel} the kernel linked to the given node.
      */
     public Kernel getKernel (String nodeId) {
-        return kernels.get(nodeId);
+        return kernels.get(kernelKey(nodeId));
+    }
+
+    /**
+     * @return true if all the nodes of the workspace run on the same kernel
+     */
+    public boolean isKernelShared () {
+        return kernelShared;
+    }
+
+    /**
+     * Choose whether all the nodes of the workspace run on the same kernel. The running kernels are stopped when
+     * the mode changes, the nodes then start the kernels of the new mode at their next execution. The kernels being
+     * started are stopped once started, and the nodes waiting for them get a kernel of the new mode instead.
+     *
+     * @param shared : true to share one kernel between all the nodes
+     */
+    public void setKernelShared (boolean shared) {
+        // Load the mode saved in flow.json first, so it doesn't override this one later
+        KernelPool pool = getKernelPool();
+
+        synchronized (kernelsLock) {
+            if (kernelShared == shared) return;
+
+            kernelShared = shared;
+            stopRunningKernels();
+            pool.setEnabled(!shared);
+        }
+
+        save();
+    }
+
+    /**
+     * Get the backend that launches the kernels of the workspace.
+     *
+     * @return the name of the backend, see KernelBackend
+     */
+    public String getKernelBackend () {
+        return kernelBackend;
+    }
+
+    /**
+     * Choose the backend that launches the kernels of the workspace. The running kernels, and the ones of the pool,
+     * are stopped when the backend changes.
+     *
+     * @param backend : the name of the backend, see KernelBackend
+     * @throws IllegalArgumentException : thrown if no backend has this name
+     */
+    public void setKernelBackend (String backend) {
+        if (!KernelBackend.exists(backend)) throw new IllegalArgumentException("Unknown kernel backend " + backend);
+
+        // Load the backend saved in flow.json first, so it doesn't override this one later
+        KernelPool pool = getKernelPool();
+
+        synchronized (kernelsLock) {
+            if (kernelBackend.equals(backend)) return;
+
+            kernelBackend = backend;
+            stopRunningKernels();
+            pool.drain();
+        }
+
+        save();
+    }
+
+    /**
+     * Get the cache storing the results of the previous executions of the nodes.
+     *
+     * @return the ResultCache of the workspace
+     */
+    public ResultCache getResultCache () {
+        ResultCache res = resultCache;
+        if (res != null) return res;
+
+        hydrate();
+        return resultCache;
+    }
+
+    /**
+     * @return the metrics of the saves of the workspace
+     */
+    public JSONObject getPersistenceMetrics () {
+        return flow != null ? persister.getMetrics() : new JSONObject();
     }
 
     /**
@@ -383,23 +663,96 @@ public class Workspace {
         return pathToWorkspaceFolder;
     }
 
+    /*==================================================================================================================
+                                              PRIVATE CLASS METHODS
+     =================================================================================================================*/
+
     /**
-     * Get the node associated to a kernel
-     * @param k the kernel
-     * @return the id of the node
+     * Stop the running kernels asynchronously. Must be called with kernelsLock held.
+     * The kernels being started are stopped as soon as they are started, see startKernel.
      */
-    public String getNodeIdForKernel (Kernel k) {
-        Set<String> keys = kernels.keySet();
-        for (String key: keys) {
-            if (kernels.get(key).getContainerId().equals(k.getContainerId())) { return key; }
+    private void stopRunningKernels () {
+        for (Kernel k : kernels.values()) {
+            ExecutionService.getInstance().executeKernelTask(k::stop);
         }
+        kernels.clear();
+        kernelsLastUse.clear();
+        startingKernels.clear();
+    }
 
-        return "";
+    /**
+     * Wait for the start of a kernel. When the start is outdated, the kernel of the node is started again for the
+     * current mode and backend.
+     *
+     * @param nodeId : the id of the node waiting for its kernel
+     * @param starting : the future of the start, completed with null if it is outdated
+     * @return a future completed with the kernel of the node once it is started
+     */
+    private CompletableFuture<Kernel> whenStarted (String nodeId, CompletableFuture<Kernel> starting) {
+        return starting.thenCompose(k -> k != null ? CompletableFuture.completedFuture(k) : startKernel(nodeId));
     }
 
-    /*==================================================================================================================
-                                              PRIVATE CLASS METHODS
-     =================================================================================================================*/
+    /**
+     * @return the pool of kernels started in advance, created with the flow
+     */
+    private KernelPool getKernelPool () {
+        KernelPool res = kernelPool;
+        if (res != null) return res;
+
+        hydrate();
+        return kernelPool;
+    }
+
+    /**
+     * @param nodeId : the id of a node
+     * @return the key of the kernel of the node in the kernels maps
+     */
+    private String kernelKey (String nodeId) {
+        return kernelShared ? SHARED_KERNEL_KEY : nodeId;
+    }
+
+    /**
+     * Load the flow from flow.json, replay the edits done since flow.json has been written, then record the next ones.
+     * Done once, at the first access to the flow.
+     *
+     * @return the loaded flow
+     */
+    synchronized private Flow hydrate () {
+        if (flow != null) return flow;
+
+        long start = System.currentTimeMillis();
+
+        Flow res;
+        JSONObject flowJSON = importFlowJSON(this.pathToWorkspaceFolder);
+        if (flowJSON != null) {
+            res = new Flow(flowJSON, this);
+            if (name.isEmpty() && flowJSON.get("name") != null) this.name = (String) flowJSON.get("name");
+            if (flowJSON.get("sharedKernel") != null) this.kernelShared = (Boolean) flowJSON.get("sharedKernel");
+            if (KernelBackend.exists((String) flowJSON.get("kernelBackend"))) this.kernelBackend = (String) flowJSON.get("kernelBackend");
+        } else {
+            res = new Flow(this);
+        }
+
+        // The results of the previous executions are stored in a hidden folder of the workspace. Like the pool of
+        // kernels, the cache is only needed once the workspace is used, so it is created with the flow
+        this.resultCache = new ResultCache(this.pathToWorkspaceFolder.resolve(RESULTS_FOLDER_NAME));
+        this.kernelPool = new KernelPool(this);
+        kernelPool.setEnabled(!kernelShared);
+
+        this.journal = new FlowJournal(this.pathToWorkspaceFolder.resolve(JOURNAL_FILE_NAME));
+        int replayed = journal.replay(res, res.getJournalSequence());
+        res.setJournal(journal);
+        this.persister = new WorkspacePersister(res, journal, this.pathToWorkspaceFolder.resolve(FLOW_FILE_NAME));
+
+        // Publish the flow only once it is complete
+        this.flow = res;
+
+        if (journal.size() >= FlowJournal.COMPACTION_THRESHOLD) save();
+        System.out.println("\033[32m" + "[INFO] " + "\033[0m" + "Loaded workspace " + uuid + " in "
+                + (System.currentTimeMillis() - start) + "ms (" + replayed + " edits replayed)");
+
+        return res;
+    }
 
     /**
      * Import a flow as a JSONObject from the given folder. The flow file must be named flow.json
@@ -414,6 +767,9 @@ public class Workspace {
         // The JSONObject instance that will be returned
         JSONObject flow;
 
+        // The flow.json file of a new workspace is empty
+        if (pathToFolder.resolve(FLOW_FILE_NAME).toFile().length() == 0) return null;
+
         try{
             // Read and parse the json file
             flow = (JSONObject) parser.parse(new FileReader(pathToFolder.toString() + "/" + FLOW_FILE_NAME));
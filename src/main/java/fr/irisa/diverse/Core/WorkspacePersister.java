@@ -0,0 +1,186 @@
+package fr.irisa.diverse.Core;
+
+import fr.irisa.diverse.Flow.Flow;
+import fr.irisa.diverse.Flow.FlowJournal;
+import org.json.simple.JSONObject;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The WorkspacePersister saves the flow of a workspace on the disk, in the background.
+ *
+ * The save requests are debounced : a save is done DEBOUNCE_DELAY milliseconds after the first request, and every
+ * request received in the meantime is served by this save. So a burst of edits leads to one write only, and the
+ * threads asking for a save, like the ones handling the websockets, never wait for the disk.
+ *
+ * A save is crash-safe : the flow is written in a temporary file, forced on the disk, then renamed as flow.json.
+ * So flow.json always contains either the previous or the new version of the flow. The edits of the journal
+ * contained in the new version are then removed from the journal.
+ *
+ * The persister counts the saves, their latency and the number of bytes written.
+ * The debounce delay can be configured with the padins.persistence.debounceMs system property.
+ */
+@SuppressWarnings("unchecked")
+public class WorkspacePersister {
+
+    // Configuration
+    public static final long DEBOUNCE_DELAY = Long.getLong("padins.persistence.debounceMs", 500);
+
+    // Attributes
+    private Flow flow;
+    private FlowJournal journal;
+    private Path file;
+    private final AtomicBoolean scheduled;
+    // Metrics
+    private final AtomicLong requests;
+    private final AtomicLong saves;
+    private final AtomicLong failures;
+    private final AtomicLong bytesWritten;
+    private final AtomicLong totalLatency; // In nanoseconds
+    private final AtomicLong maxLatency; // In nanoseconds
+    private volatile long lastLatency; // In nanoseconds
+
+    // Constructor
+    public WorkspacePersister (Flow flow, FlowJournal journal, Path file) {
+        this.flow = flow;
+        this.journal = journal;
+        this.file = file;
+        this.scheduled = new AtomicBoolean(false);
+
+        this.requests = new AtomicLong(0);
+        this.saves = new AtomicLong(0);
+        this.failures = new AtomicLong(0);
+        this.bytesWritten = new AtomicLong(0);
+        this.totalLatency = new AtomicLong(0);
+        this.maxLatency = new AtomicLong(0);
+        this.lastLatency = 0;
+    }
+
+    /*==================================================================================================================
+                                              PUBLIC CLASS METHODS
+     =================================================================================================================*/
+
+    /**
+     * Ask for the flow to be saved. Returns immediately, the save is done in the background and coalesced with the
+     * other requests received during the debounce delay.
+     */
+    public void requestSave () {
+        requests.incrementAndGet();
+        if (!scheduled.compareAndSet(false, true)) return;
+
+        ExecutionService.getInstance().schedulePersistenceTask(() -> {
+            // The requests received from now on need another save, as this one may not contain their edits
+            scheduled.set(false);
+            saveNow();
+        }, DEBOUNCE_DELAY);
+    }
+
+    /**
+     * Save the flow in the calling thread.
+     *
+     * @return true if the flow has been saved
+     */
+    synchronized public boolean saveNow () {
+        long start = System.nanoTime();
+
+        journal.sync();
+
+        // Serialize the flow and retrieve the last edit it contains at once.
+        // The flow is only locked during the serialization, the edits done while writing stay in the journal.
+        byte[] content;
+        long sequence;
+        synchronized (flow) {
+            content = flow.serialize().getBytes(StandardCharsets.UTF_8);
+            sequence = journal.getSequence();
+        }
+
+        try {
+            write(content);
+        } catch (IOException e) {
+            e.printStackTrace();
+            failures.incrementAndGet();
+            return false;
+        }
+
+        journal.discard(sequence);
+
+        // Update the metrics
+        long latency = System.nanoTime() - start;
+        saves.incrementAndGet();
+        bytesWritten.addAndGet(content.length);
+        totalLatency.addAndGet(latency);
+        maxLatency.accumulateAndGet(latency, Math::max);
+        lastLatency = latency;
+
+        System.out.println("Saved flow " + flow.getId() + " : " + content.length + " bytes in "
+                + TimeUnit.NANOSECONDS.toMillis(latency) + "ms");
+
+        return true;
+    }
+
+    /**
+     * Get the metrics of the persister : the number of save requests, saves and failed saves, the number of bytes
+     * written and the latency of the saves, in milliseconds.
+     *
+     * @return a JSONObject containing the metrics
+     */
+    public JSONObject getMetrics () {
+        long nbOfSaves = saves.get();
+
+        JSONObject res = new JSONObject();
+        res.put("requests", requests.get());
+        res.put("saves", nbOfSaves);
+        res.put("failures", failures.get());
+        res.put("bytesWritten", bytesWritten.get());
+        res.put("lastLatency", toMillis(lastLatency));
+        res.put("averageLatency", nbOfSaves > 0 ? toMillis(totalLatency.get() / nbOfSaves) : 0.0);
+        res.put("maxLatency", toMillis(maxLatency.get()));
+
+        return res;
+    }
+
+    /*==================================================================================================================
+                                              PRIVATE CLASS METHODS
+     =================================================================================================================*/
+
+    /**
+     * Write the content in a temporary file, force it on the disk, then atomically replace the file with it.
+     *
+     * @param content : the content of the file
+     * @throws IOException : thrown if the file can't be written.
+     */
+    private void write (byte[] content) throws IOException {
+        Path folder = file.getParent();
+        Files.createDirectories(folder);
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(tmp.toFile())) {
+                out.write(content);
+                out.getFD().sync();
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+
+        // Force the rename on the disk. Not supported on every OS, the rename is still atomic without it.
+        try (FileChannel dir = FileChannel.open(folder, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    private double toMillis (long nanos) {
+        return nanos / 1e6;
+    }
+}
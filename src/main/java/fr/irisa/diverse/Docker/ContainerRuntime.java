@@ -0,0 +1,83 @@
+package fr.irisa.diverse.Docker;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * The ContainerRuntime starts and stops the Docker containers running the kernels.
+ *
+ * Two implementations are available :
+ * - DockerEngineRuntime : talks to the Docker daemon directly, with its HTTP API. It is the default one.
+ * - DockerCliRuntime : runs the docker command line. Used when the daemon socket can't be reached by the JVM.
+ *
+ * The runtime is chosen with the padins.docker.runtime system property : engine or cli. The daemon is found with the
+ * padins.docker.host system property, or the DOCKER_HOST environment variable, unix:///var/run/docker.sock by default.
+ *
+ * The containers are started with auto-remove : stopping a container also removes it.
+ */
+public interface ContainerRuntime {
+
+    /**
+     * Create and start a container, in background.
+     *
+     * @param image : the image of the container
+     * @param volumes : the folders of the host <-> the folders of the container they are mounted on
+     * @return the id of the started container
+     * @throws IOException : thrown if the container can't be started
+     */
+    String run (String image, Map<String, String> volumes) throws IOException;
+
+    /**
+     * Retrieve the IP address of a running container.
+     *
+     * @param containerId : the id of the container
+     * @return the IP address of the container, null if it has none
+     * @throws IOException : thrown if the container can't be inspected
+     */
+    String getIpAddress (String containerId) throws IOException;
+
+    /**
+     * Stop a container, and so remove it. Does nothing if the container doesn't exist anymore.
+     *
+     * @param containerId : the id of the container
+     * @throws IOException : thrown if the container can't be stopped
+     */
+    void stop (String containerId) throws IOException;
+
+    /**
+     * Stop several containers at once. Used to stop all the kernels when the server stops.
+     *
+     * @param containerIds : the ids of the containers
+     * @param timeout : the maximum time to wait for the containers to be stopped, in milliseconds
+     * @return true if all the containers have been stopped before the timeout
+     */
+    boolean stopAll (Collection<String> containerIds, long timeout);
+
+    /**
+     * @return the runtime configured for this server
+     */
+    static ContainerRuntime getInstance () {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Lazily creates the configured runtime.
+     */
+    class Holder {
+        private static final ContainerRuntime INSTANCE = create();
+
+        private static ContainerRuntime create () {
+            String host = System.getProperty("padins.docker.host", System.getenv("DOCKER_HOST"));
+            DockerHttpClient client = new DockerHttpClient(host != null && !host.isEmpty() ? host : DockerHttpClient.DEFAULT_HOST);
+            String runtime = System.getProperty("padins.docker.runtime", "engine");
+
+            if (runtime.equals("cli")) return new DockerCliRuntime();
+            if (client.isAvailable()) return new DockerEngineRuntime(client);
+
+            System.out.println("\033[32m" + "[INFO] " + "\033[0m" + "Docker daemon not reachable at " + client.getHost()
+                    + ", using the docker command line");
+            return new DockerCliRuntime();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package fr.irisa.diverse.Docker;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * ContainerRuntime that runs the docker command line. Each call starts one docker process, with no shell script.
+ *
+ * Only used when the Docker daemon can't be reached directly, see DockerEngineRuntime.
+ */
+public class DockerCliRuntime implements ContainerRuntime {
+
+    // Configuration
+    private static final Pattern CONTAINER_ID = Pattern.compile("[0-9a-f]{12,64}");
+
+    /*==================================================================================================================
+                                              PUBLIC CLASS METHODS
+     =================================================================================================================*/
+
+    @Override
+    public String run (String image, Map<String, String> volumes) throws IOException {
+        List<String> command = new ArrayList<>(Arrays.asList("docker", "run", "-d", "--rm"));
+        for (Map.Entry<String, String> volume : volumes.entrySet()) {
+            command.add("-v");
+            command.add(volume.getKey() + ":" + volume.getValue());
+        }
+        command.add(image);
+
+        // The id of the newly created container is the last line of the output. The progress of the pull of the
+        // image, if it is not on the host yet, is printed on the error output
+        String[] lines = execute(command).split("\n");
+        String id = lines[lines.length - 1].trim();
+        if (!CONTAINER_ID.matcher(id).matches()) throw new IOException("Unable to start a container from " + image + " : " + id);
+
+        return id;
+    }
+
+    @Override
+    public String getIpAddress (String containerId) throws IOException {
+        String ip = execute(Arrays.asList("docker", "inspect", "-f",
+                "{{range .NetworkSettings.Networks}}{{.IPAddress}} {{end}}", containerId)).trim();
+
+        return ip.isEmpty() ? null : ip.split(" ")[0];
+    }
+
+    @Override
+    public void stop (String containerId) throws IOException {
+        execute(Arrays.asList("docker", "stop", "-t", String.valueOf(DockerEngineRuntime.STOP_TIMEOUT), containerId));
+    }
+
+    @Override
+    public boolean stopAll (Collection<String> containerIds, long timeout) {
+        if (containerIds.isEmpty()) return true;
+
+        // docker stop takes several containers and stops them in parallel
+        List<String> command = new ArrayList<>(Arrays.asList("docker", "stop", "-t", String.valueOf(DockerEngineRuntime.STOP_TIMEOUT)));
+        command.addAll(containerIds);
+
+        try {
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            if (!process.waitFor(timeout, TimeUnit.MILLISECONDS)) {
+                process.destroy();
+                return false;
+            }
+            return process.exitValue() == 0;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /*==================================================================================================================
+                                              PRIVATE CLASS METHODS
+     =================================================================================================================*/
+
+    /**
+     * Run a command and wait for it to finish.
+     * The error output is written into a temporary file, so it is neither mixed with the standard output nor
+     * blocking the process when it is long.
+     *
+     * @param command : the command and its arguments
+     * @return the standard output, trimmed
+     * @throws IOException : thrown if the command can't be run or fails
+     */
+    private String execute (List<String> command) throws IOException {
+        Path errors = Files.createTempFile("padins-docker", ".err");
+        try {
+            Process process = new ProcessBuilder(command).redirectError(errors.toFile()).start();
+
+            StringBuilder output = new StringBuilder();
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    output.append(line).append('\n');
+                }
+            }
+
+            try {
+                if (process.waitFor() != 0) {
+                    String error = new String(Files.readAllBytes(errors), StandardCharsets.UTF_8).trim();
+                    throw new IOException(String.join(" ", command) + " failed : " + error);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                process.destroy();
+                throw new IOException("Interrupted while running " + String.join(" ", command));
+            }
+
+            return output.toString().trim();
+        } finally {
+            Files.deleteIfExists(errors);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package fr.irisa.diverse.Docker;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * ContainerRuntime that talks to the Docker daemon through its HTTP API, without starting any process.
+ *
+ * Starting a container is 2 requests : create then start. If the image is not on the host, it is pulled before
+ * creating the container again, like docker run does. Its IP address is read by inspecting it. Stopping it is
+ * 1 request, as the containers are created with auto-remove. When stopping several containers, the requests are sent
+ * in parallel, each one on its own connection.
+ *
+ * The time given to a container to stop before being killed can be configured with the
+ * padins.docker.stopTimeoutSeconds system property.
+ */
+@SuppressWarnings("unchecked")
+public class DockerEngineRuntime implements ContainerRuntime {
+
+    // Configuration
+    public static final int STOP_TIMEOUT = Integer.getInteger("padins.docker.stopTimeoutSeconds", 5);
+    private static final String API_VERSION = "/v1.25"; // First version supporting auto-remove
+
+    // Attributes
+    private DockerHttpClient client;
+
+    // Constructor
+    public DockerEngineRuntime (DockerHttpClient client) {
+        this.client = client;
+    }
+
+    /*==================================================================================================================
+                                              PUBLIC CLASS METHODS
+     =================================================================================================================*/
+
+    @Override
+    public String run (String image, Map<String, String> volumes) throws IOException {
+        JSONArray binds = new JSONArray();
+        for (Map.Entry<String, String> volume : volumes.entrySet()) {
+            binds.add(volume.getKey() + ":" + volume.getValue());
+        }
+
+        JSONObject hostConfig = new JSONObject();
+        hostConfig.put("Binds", binds);
+        hostConfig.put("AutoRemove", true);
+
+        JSONObject config = new JSONObject();
+        config.put("Image", image);
+        config.put("HostConfig", hostConfig);
+
+        DockerHttpClient.Response created = client.request("POST", API_VERSION + "/containers/create", config);
+        if (created.getStatus() == 404) {
+            // The image is not on this host yet : pull it, as docker run does, then create the container again
+            pull(image);
+            created = client.request("POST", API_VERSION + "/containers/create", config);
+        }
+        check(created, "create a container from " + image);
+        String id = (String) created.getJson().get("Id");
+
+        check(client.request("POST", API_VERSION + "/containers/" + id + "/start", null), "start container " + id);
+
+        return id;
+    }
+
+    @Override
+    public String getIpAddress (String containerId) throws IOException {
+        DockerHttpClient.Response inspected = client.request("GET", API_VERSION + "/containers/" + encode(containerId) + "/json", null);
+        check(inspected, "inspect container " + containerId);
+
+        JSONObject settings = (JSONObject) inspected.getJson().get("NetworkSettings");
+        if (settings == null) return null;
+
+        String ip = (String) settings.get("IPAddress");
+        if (ip != null && !ip.isEmpty()) return ip;
+
+        // The containers not attached to the default bridge network only have the address of each network
+        JSONObject networks = (JSONObject) settings.get("Networks");
+        if (networks != null) {
+            for (Object network : networks.values()) {
+                ip = (String) ((JSONObject) network).get("IPAddress");
+                if (ip != null && !ip.isEmpty()) return ip;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public void stop (String containerId) throws IOException {
+        DockerHttpClient.Response stopped = client.request("POST",
+                API_VERSION + "/containers/" + encode(containerId) + "/stop?t=" + STOP_TIMEOUT, null);
+
+        // 304 : already stopped, 404 : already removed
+        if (stopped.getStatus() != 304 && stopped.getStatus() != 404) check(stopped, "stop container " + containerId);
+    }
+
+    @Override
+    public boolean stopAll (Collection<String> containerIds, long timeout) {
+        if (containerIds.isEmpty()) return true;
+
+        // A short-lived pool, as this is used when the server stops
+        ExecutorService stoppers = Executors.newFixedThreadPool(Math.min(containerIds.size(), 16));
+        try {
+            List<Future<?>> stops = new ArrayList<>();
+            for (String id : containerIds) {
+                stops.add(stoppers.submit(() -> {
+                    stop(id);
+                    return null;
+                }));
+            }
+
+            boolean res = true;
+            long deadline = System.currentTimeMillis() + timeout;
+            for (Future<?> stop : stops) {
+                try {
+                    stop.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                    res = false;
+                } catch (TimeoutException e) {
+                    return false;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+
+            return res;
+        } finally {
+            stoppers.shutdownNow();
+        }
+    }
+
+    /*==================================================================================================================
+                                              PRIVATE CLASS METHODS
+     =================================================================================================================*/
+
+    /**
+     * Pull an image from its registry. The daemon streams the progress of the pull, and the response ends once the
+     * pull is finished. A failure after the beginning of the stream is reported in the stream itself.
+     *
+     * @param image : the image to pull, with its tag if any
+     * @throws IOException : thrown if the image can't be pulled
+     */
+    private void pull (String image) throws IOException {
+        System.out.println("\033[32m" + "[INFO] " + "\033[0m" + "Pulling image " + image);
+
+        DockerHttpClient.Response pulled = client.request("POST", API_VERSION + "/images/create?fromImage=" + encode(image), null);
+        check(pulled, "pull image " + image);
+        if (pulled.getBody().contains("\"errorDetail\"")) {
+            throw new IOException("Unable to pull image " + image + " : " + pulled.getBody());
+        }
+    }
+
+    /**
+     * Verify that a request succeeded.
+     *
+     * @param response : the response of the daemon
+     * @param action : the description of the request, for the error message
+     * @throws IOException : thrown if the request failed
+     */
+    private void check (DockerHttpClient.Response response, String action) throws IOException {
+        if (!response.isSuccessful()) {
+            throw new IOException("Unable to " + action + " : " + response.getStatus() + " " + response.getBody());
+        }
+    }
+
+    private String encode (String value) throws IOException {
+        return URLEncoder.encode(value, "UTF-8");
+    }
+}
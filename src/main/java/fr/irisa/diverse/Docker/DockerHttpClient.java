@@ -0,0 +1,416 @@
+package fr.irisa.diverse.Docker;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.*;
+import java.net.ProtocolFamily;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.URI;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * A minimal HTTP/1.1 client for the Docker Engine API.
+ *
+ * The Docker daemon listens on a Unix socket, /var/run/docker.sock by default, or on a TCP port. The host is given as
+ * an URI, like the DOCKER_HOST environment variable : unix:///var/run/docker.sock or tcp://127.0.0.1:2375. So the
+ * client can also be pointed to a fake server listening on a local port.
+ *
+ * Each request is sent on its own connection, closed once the response has been read. The Unix sockets are only
+ * supported by the JVMs 16 and later, that are used through reflection so the project still builds for Java 8.
+ */
+public class DockerHttpClient {
+
+    // Configuration
+    public static final String DEFAULT_HOST = "unix:///var/run/docker.sock";
+    private static final int TIMEOUT = 60000; // Maximum time to wait for the daemon, in milliseconds
+
+    // Attributes
+    private URI host;
+
+    // Constructor
+    public DockerHttpClient (String host) {
+        this.host = URI.create(host);
+    }
+
+    /*==================================================================================================================
+                                              PUBLIC CLASS METHODS
+     =================================================================================================================*/
+
+    /**
+     * Send a request to the Docker daemon and wait for its response.
+     *
+     * @param method : the HTTP method
+     * @param path : the path of the endpoint, with its query string
+     * @param body : the JSON body of the request, null if none
+     * @return the response of the daemon
+     * @throws IOException : thrown if the daemon can't be reached or sends an invalid response
+     */
+    public Response request (String method, String path, JSONObject body) throws IOException {
+        byte[] content = body != null ? body.toJSONString().getBytes(StandardCharsets.UTF_8) : new byte[0];
+
+        StringBuilder head = new StringBuilder();
+        head.append(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+        head.append("Host: docker\r\n");
+        head.append("Connection: close\r\n");
+        if (body != null) head.append("Content-Type: application/json\r\n");
+        head.append("Content-Length: ").append(content.length).append("\r\n\r\n");
+
+        try (Connection connection = connect()) {
+            OutputStream out = connection.out;
+            out.write(head.toString().getBytes(StandardCharsets.US_ASCII));
+            out.write(content);
+            out.flush();
+
+            return readResponse(connection.in);
+        }
+    }
+
+    /**
+     * Tells whether the client can reach the daemon : the socket file exists for a Unix socket, and the JVM supports
+     * Unix sockets. A TCP host is always considered reachable.
+     *
+     * @return true if requests can be sent to the host
+     */
+    public boolean isAvailable () {
+        if (!"unix".equals(host.getScheme())) return true;
+
+        try {
+            Class.forName("java.net.UnixDomainSocketAddress");
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+        return Files.exists(Paths.get(host.getPath()));
+    }
+
+    /**
+     * @return the URI of the daemon
+     */
+    public String getHost () {
+        return host.toString();
+    }
+
+    /*==================================================================================================================
+                                              PRIVATE CLASS METHODS
+     =================================================================================================================*/
+
+    /**
+     * Open a connection to the daemon.
+     *
+     * @return the connection
+     * @throws IOException : thrown if the connection can't be opened
+     */
+    private Connection connect () throws IOException {
+        switch (host.getScheme()) {
+            case "unix":
+                // The channels of Unix sockets have no read timeout : they are used in non-blocking mode with a
+                // selector, that bounds the time spent waiting for the daemon like the timeout of the TCP sockets
+                SocketChannel channel = openUnixChannel(host.getPath());
+                Selector selector;
+                try {
+                    channel.configureBlocking(false);
+                    selector = Selector.open();
+                } catch (IOException e) {
+                    channel.close();
+                    throw e;
+                }
+                Closeable closeBoth = () -> {
+                    try {
+                        selector.close();
+                    } finally {
+                        channel.close();
+                    }
+                };
+                return new Connection(closeBoth, new ChannelInputStream(channel, selector), new ChannelOutputStream(channel, selector));
+            case "tcp":
+            case "http":
+                Socket socket = new Socket(host.getHost(), host.getPort() > 0 ? host.getPort() : 2375);
+                socket.setSoTimeout(TIMEOUT);
+                return new Connection(socket, socket.getInputStream(), socket.getOutputStream());
+            default:
+                throw new IOException("Unsupported Docker host " + host);
+        }
+    }
+
+    /**
+     * Open a SocketChannel connected to a Unix socket. Uses the API added in Java 16 through reflection.
+     *
+     * @param path : the path to the socket file
+     * @return the connected channel
+     * @throws IOException : thrown if the JVM doesn't support Unix sockets or if the connection failed
+     */
+    private SocketChannel openUnixChannel (String path) throws IOException {
+        SocketAddress address;
+        SocketChannel channel;
+        try {
+            Class<?> addressClass = Class.forName("java.net.UnixDomainSocketAddress");
+            address = (SocketAddress) addressClass.getMethod("of", String.class).invoke(null, path);
+            ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+            channel = (SocketChannel) SocketChannel.class.getMethod("open", ProtocolFamily.class).invoke(null, unix);
+        } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            throw new IOException("Unix sockets are not supported by this JVM", e);
+        }
+
+        try {
+            channel.connect(address);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * Read an HTTP response : the status line, the headers and the body, sent with a Content-Length, in chunks or
+     * until the connection is closed.
+     *
+     * @param stream : the input stream of the connection
+     * @return the response
+     * @throws IOException : thrown if the response is invalid
+     */
+    private Response readResponse (InputStream stream) throws IOException {
+        InputStream in = new BufferedInputStream(stream);
+
+        String statusLine = readLine(in);
+        String[] status = statusLine != null ? statusLine.split(" ", 3) : new String[0];
+        if (status.length < 2 || !status[0].startsWith("HTTP/")) {
+            throw new IOException("Invalid response from the Docker daemon : " + statusLine);
+        }
+        int code = (int) parseNumber(status[1], 10, statusLine);
+
+        long contentLength = -1;
+        boolean chunked = false;
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon < 0) continue;
+
+            String name = line.substring(0, colon).trim();
+            String value = line.substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("Content-Length")) contentLength = parseNumber(value, 10, line);
+            else if (name.equalsIgnoreCase("Transfer-Encoding")) chunked = value.equalsIgnoreCase("chunked");
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if (code == 204 || code == 304) {
+            // No body
+        } else if (chunked) {
+            long size;
+            while ((size = readChunkSize(in)) > 0) {
+                copy(in, body, size);
+                readLine(in);
+            }
+        } else if (contentLength >= 0) {
+            copy(in, body, contentLength);
+        } else {
+            copy(in, body, Long.MAX_VALUE);
+        }
+
+        return new Response(code, new String(body.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Read a line ended by CRLF.
+     *
+     * @param in : the input stream
+     * @return the line, without its end, null if the stream is closed
+     * @throws IOException : thrown if the stream can't be read
+     */
+    private String readLine (InputStream in) throws IOException {
+        StringBuilder res = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') break;
+            if (c != '\r') res.append((char) c);
+        }
+
+        return c == -1 && res.length() == 0 ? null : res.toString();
+    }
+
+    /**
+     * Read the line that starts a chunk of a chunked body.
+     *
+     * @param in : the input stream
+     * @return the size of the chunk, 0 for the last one
+     * @throws IOException : thrown if the stream ends or if the line is invalid
+     */
+    private long readChunkSize (InputStream in) throws IOException {
+        String line = readLine(in);
+        if (line == null) throw new EOFException("Truncated response from the Docker daemon");
+
+        return parseNumber(line.split(";")[0].trim(), 16, line);
+    }
+
+    /**
+     * Parse a number of the status line or of the headers.
+     *
+     * @param value : the number to parse
+     * @param radix : the radix of the number
+     * @param line : the line the number is from, for the error message
+     * @return the number
+     * @throws IOException : thrown if the value is not a positive number
+     */
+    private long parseNumber (String value, int radix, String line) throws IOException {
+        try {
+            long res = Long.parseLong(value, radix);
+            if (res >= 0) return res;
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IOException("Invalid response from the Docker daemon : " + line);
+    }
+
+    /**
+     * Copy at most length bytes from the input stream to the output stream.
+     */
+    private void copy (InputStream in, OutputStream out, long length) throws IOException {
+        byte[] buffer = new byte[8192];
+        long remaining = length;
+        int read;
+        while (remaining > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+
+        if (remaining > 0 && length != Long.MAX_VALUE) throw new EOFException("Truncated response from the Docker daemon");
+    }
+
+    /* =================================================================================================================
+                                                    INNER CLASSES
+       ===============================================================================================================*/
+
+    /**
+     * A response of the Docker daemon.
+     */
+    public static class Response {
+        private final int status;
+        private final String body;
+
+        Response (int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        public int getStatus () { return status; }
+
+        public String getBody () { return body; }
+
+        public boolean isSuccessful () { return status >= 200 && status < 300; }
+
+        /**
+         * @return the body parsed as a JSON object
+         * @throws IOException : thrown if the body is not a JSON object
+         */
+        public JSONObject getJson () throws IOException {
+            try {
+                return (JSONObject) new JSONParser().parse(body);
+            } catch (ParseException | ClassCastException e) {
+                throw new IOException("Invalid JSON from the Docker daemon : " + body);
+            }
+        }
+    }
+
+    /**
+     * Reads a non-blocking channel, waiting at most TIMEOUT milliseconds for each read.
+     */
+    private static class ChannelInputStream extends InputStream {
+        private final SocketChannel channel;
+        private final Selector selector;
+
+        ChannelInputStream (SocketChannel channel, Selector selector) {
+            this.channel = channel;
+            this.selector = selector;
+        }
+
+        @Override
+        public int read () throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read (byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            int read;
+            while ((read = channel.read(buffer)) == 0) await(channel, selector, SelectionKey.OP_READ);
+
+            return read;
+        }
+    }
+
+    /**
+     * Writes into a non-blocking channel, waiting at most TIMEOUT milliseconds for the channel to accept data.
+     */
+    private static class ChannelOutputStream extends OutputStream {
+        private final SocketChannel channel;
+        private final Selector selector;
+
+        ChannelOutputStream (SocketChannel channel, Selector selector) {
+            this.channel = channel;
+            this.selector = selector;
+        }
+
+        @Override
+        public void write (int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write (byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                if (channel.write(buffer) == 0) await(channel, selector, SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    /**
+     * Wait for a non-blocking channel to be ready.
+     *
+     * @param channel : the channel
+     * @param selector : the selector of the channel
+     * @param operation : the operation to wait for, see SelectionKey
+     * @throws SocketTimeoutException : thrown if the channel is not ready after TIMEOUT milliseconds
+     */
+    private static void await (SocketChannel channel, Selector selector, int operation) throws IOException {
+        SelectionKey key = channel.keyFor(selector);
+        if (key == null) channel.register(selector, operation);
+        else key.interestOps(operation);
+
+        int selected = selector.select(TIMEOUT);
+        selector.selectedKeys().clear();
+        if (selected == 0) throw new SocketTimeoutException("No answer from the Docker daemon after " + TIMEOUT + " ms");
+    }
+
+    /**
+     * An open connection to the daemon.
+     */
+    private static class Connection implements Closeable {
+        private final Closeable socket;
+        private final InputStream in;
+        private final OutputStream out;
+
+        Connection (Closeable socket, InputStream in, OutputStream out) {
+            this.socket = socket;
+            this.in = in;
+            this.out = out;
+        }
+
+        @Override
+        public void close () throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -30,10 +30,11 @@ public class ComponentsUtils {
     /**
      * Give all the inports given the name of a component
      * @param component : the component for whom you want its inports
-     * @return : An arraylist containing all inports
+     * @return : An arraylist containing all inports, empty if the component is not in the library
      */
     public static Ports getInPortsForComponent(String library, String component, String node) {
-        Ports inports = getComponent(library, component).getInports();
+        Component c = getComponent(library, component);
+        Ports inports = c != null ? c.getInports() : new Ports();
         inports.setNode(node);
         return inports;
     }
@@ -41,10 +42,11 @@ public class ComponentsUtils {
     /**
      * Give all the outports given the name of a component
      * @param component : the component for whom you want its inports
-     * @return : An arraylist containing all inports
+     * @return : An arraylist containing all outports, empty if the component is not in the library
      */
     public static Ports getOutPortsForComponent(String library, String component, String node) {
-        Ports outports = getComponent(library, component).getOutports();
+        Component c = getComponent(library, component);
+        Ports outports = c != null ? c.getOutports() : new Ports();
         outports.setNode(node);
         return outports;
     }
@@ -98,7 +100,7 @@ public class ComponentsUtils {
     public static Component getComponent(String library, String name) {
         // If the last request library is not the same as the one requested this time, we load the
         // data from the corresponding JSON file which can be found in ressources/WebUIComponents
-        if (!library.equals(lastRequestedLibrary)) components = getComponentsFromLib(library);
+        if (components == null || !library.equals(lastRequestedLibrary)) components = getComponentsFromLib(library);
 
         // Go through the components to find and return the requested one
         for (Component component : components) {
@@ -1,5 +1,6 @@
 package fr.irisa.diverse.Flow;
 
+import org.json.simple.JSONAware;
 import org.json.simple.JSONObject;
 
 import java.util.UUID;
@@ -11,14 +12,15 @@ import java.util.UUID;
  *
  * Created by antoine on 29/05/17.
  */
-public class Edge {
+public class Edge implements JSONAware {
 
     // Attributes
     private JSONObject edge = null;
+    private String serialized = null; // The cached JSON String of the edge, null when the edge changed
     private Flow owningFlow = null;
     private String id = "";
-    private JSONObject src = null;
-    private JSONObject tgt = null;
+    private EdgeEndpoint src = null;
+    private EdgeEndpoint tgt = null;
     private JSONObject metadata = null;
     private String graph = "";
 
@@ -26,7 +28,7 @@ public class Edge {
                                                    CONSTRUCTORS
        ===============================================================================================================*/
 
-    public Edge(JSONObject src, JSONObject tgt, JSONObject metadata, String graph, Flow owningFlow) {
+    public Edge(EdgeEndpoint src, EdgeEndpoint tgt, JSONObject metadata, String graph, Flow owningFlow) {
         this.owningFlow = owningFlow;
         this.edge = new JSONObject();
         this.id = UUID.randomUUID().toString();
@@ -36,7 +38,7 @@ public class Edge {
         this.graph = graph;
     }
 
-    public Edge(JSONObject src, JSONObject tgt, JSONObject metadata, String graph, String id, Flow owningFlow) {
+    public Edge(EdgeEndpoint src, EdgeEndpoint tgt, JSONObject metadata, String graph, String id, Flow owningFlow) {
         this(src, tgt, metadata, graph, owningFlow);
 
         this.id = id;
@@ -64,11 +66,9 @@ public class Edge {
      * - The node id
      * - The port of the node the edge is connected to
      *
-     * @return the src el as JSONObject
+     * @return the src el as EdgeEndpoint
      */
-    public JSONObject getSrc () {
-        if (src == null) src = new JSONObject();
-
+    public EdgeEndpoint getSrc () {
         return src;
     }
 
@@ -81,13 +81,21 @@ public class Edge {
      *
      * @param src the FBP compliant src element
      */
-    public void setSrc (JSONObject src) {
+    public void setSrc (EdgeEndpoint src) {
         this.src = src;
+        invalidateJson();
     }
 
-    public JSONObject getTgt () {
-        if (tgt == null) tgt = new JSONObject();
-
+    /**
+     * Give the target element of the edge.
+     *
+     * As described in the FBP Network Protocol, the target element is composed of :
+     * - The node id
+     * - The port of the node the edge is connected to
+     *
+     * @return the tgt el as EdgeEndpoint
+     */
+    public EdgeEndpoint getTgt () {
         return tgt;
     }
 
@@ -100,8 +108,9 @@ public class Edge {
      *
      * @param tgt the FBP compliant tgt element
      */
-    public void setTgt (JSONObject tgt) {
+    public void setTgt (EdgeEndpoint tgt) {
         this.tgt = tgt;
+        invalidateJson();
     }
 
     /**
@@ -122,6 +131,7 @@ public class Edge {
      */
     public void setMetadata(JSONObject metadata) {
         this.metadata = metadata;
+        invalidateJson();
     }
 
     /**
@@ -148,7 +158,7 @@ public class Edge {
      * @return a JSONObject containing the edge's data
      */
     public JSONObject getJson() {
-        build();
+        toJSONString();
         return edge;
     }
 
@@ -158,15 +168,35 @@ public class Edge {
 
     @Override
     public String toString () {
-        build();
-        // Return it as a String
-        return edge.toJSONString();
+        return toJSONString();
+    }
+
+    /**
+     * Serialize the edge as a JSON String. The result is cached until the edge changes.
+     *
+     * @return the JSON String of the edge
+     */
+    @Override
+    synchronized public String toJSONString () {
+        if (serialized == null) {
+            build();
+            serialized = edge.toJSONString();
+        }
+
+        return serialized;
     }
 
     /* =================================================================================================================
                                                     PRIVATE FUNCTIONS
        ===============================================================================================================*/
 
+    /**
+     * Drop the cached JSON of the edge. Must be called each time the content of the JSON changes.
+     */
+    synchronized private void invalidateJson () {
+        serialized = null;
+    }
+
     /**
      * Build the JSONObject of the edge.
      *
@@ -182,9 +212,19 @@ public class Edge {
     private void build () {
         // Build the edge JSON
         edge.put("id", getId());
-        edge.put("src", getSrc().toJSONString());
-        edge.put("tgt", getTgt().toJSONString());
+        edge.put("src", endpointToJSONString(getSrc()));
+        edge.put("tgt", endpointToJSONString(getTgt()));
         edge.put("metadata", getMetadata().toJSONString());
         edge.put("graph", getGraph());
     }
+
+    /**
+     * Give the JSON String of an endpoint of the edge, as stored in the flow.json file.
+     *
+     * @param endpoint the src or tgt element
+     * @return the JSON String, "{}" if the endpoint is not set
+     */
+    private String endpointToJSONString (EdgeEndpoint endpoint) {
+        return endpoint != null ? endpoint.toString() : "{}";
+    }
 }
@@ -0,0 +1,117 @@
+package fr.irisa.diverse.Flow;
+
+import org.json.simple.JSONObject;
+
+import java.util.Objects;
+
+/**
+ * An EdgeEndpoint is one end of an edge : the src or the tgt element described in the FBP Network Protocol.
+ * It is composed of :
+ * - The node id
+ * - The port of the node the edge is connected to
+ * - Optionally, the index of the connection on the port
+ *
+ * An EdgeEndpoint is immutable, so it can be shared and used as a key. It is converted from and to JSON only when
+ * communicating with the UIs or when saving the flow.
+ */
+public final class EdgeEndpoint {
+
+    // Attributes
+    private final String node;
+    private final String port;
+    private final Integer index;
+    private final int hash;
+
+    /* =================================================================================================================
+                                                CONSTRUCTORS
+       ===============================================================================================================*/
+
+    public EdgeEndpoint (String node, String port, Integer index) {
+        this.node = node;
+        this.port = port;
+        this.index = index;
+        this.hash = Objects.hash(node, port, index);
+    }
+
+    public EdgeEndpoint (String node, String port) {
+        this(node, port, null);
+    }
+
+    /**
+     * Create an EdgeEndpoint from a FBP compliant src or tgt element.
+     *
+     * @param json {JSONObject} formatted as : {node: string(id), port: string, index: number}
+     * @return {EdgeEndpoint} the endpoint, null if json is null
+     */
+    public static EdgeEndpoint fromJson (JSONObject json) {
+        if (json == null) return null;
+
+        Object index = json.get("index");
+        return new EdgeEndpoint((String) json.get("node"), (String) json.get("port"),
+                index instanceof Number ? ((Number) index).intValue() : null);
+    }
+
+    /* =================================================================================================================
+                                             GETTERS AND SETTERS FUNCTIONS
+       ===============================================================================================================*/
+
+    /**
+     * @return {String} the id of the node
+     */
+    public String getNode () {
+        return node;
+    }
+
+    /**
+     * @return {String} the name of the port
+     */
+    public String getPort () {
+        return port;
+    }
+
+    /**
+     * @return {Integer} the index of the connection on the port, null if not specified
+     */
+    public Integer getIndex () {
+        return index;
+    }
+
+    /* =================================================================================================================
+                                                    PUBLIC FUNCTIONS
+       ===============================================================================================================*/
+
+    /**
+     * Build the FBP compliant JSON representation of the endpoint.
+     *
+     * @return {JSONObject} formatted as : {node: string(id), port: string, index: number}
+     */
+    @SuppressWarnings("unchecked")
+    public JSONObject toJson () {
+        JSONObject res = new JSONObject();
+        res.put("node", node);
+        res.put("port", port);
+        if (index != null) res.put("index", index);
+
+        return res;
+    }
+
+    @Override
+    public boolean equals (Object o) {
+        if (this == o) return true;
+        if (!(o instanceof EdgeEndpoint)) return false;
+
+        EdgeEndpoint other = (EdgeEndpoint) o;
+        return hash == other.hash && Objects.equals(node, other.node) && Objects.equals(port, other.port)
+                && Objects.equals(index, other.index);
+    }
+
+    @Override
+    public int hashCode () {
+        return hash;
+    }
+
+    @Override
+    public String toString () {
+        return toJson().toJSONString();
+    }
+}
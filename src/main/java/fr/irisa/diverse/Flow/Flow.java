@@ -2,13 +2,17 @@ package fr.irisa.diverse.Flow;
 
 import fr.irisa.diverse.Core.Workspace;
 import fr.irisa.diverse.MessageHandlers.FBPNetworkProtocol.Utils.Status;
-import fr.irisa.diverse.Utils.*;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * The Flow is the main data structure of the project.
@@ -24,6 +28,15 @@ import java.util.ArrayList;
  * We represent and store the flow as a JSON file.
  * The web interface uses it, and only it, to create the view.
  *
+ * The nodes, edges and groups are kept in lists, to keep their order, and indexed in hash maps : nodes by id,
+ * edges by id and by src/tgt, groups by id and by name. The incoming and outgoing edges of each node are also
+ * maintained, so the edges connected to a node are found without going through all the edges.
+ *
+ * The Flow is edited by the UIs while it may be executed. The edits are serialized by the lock of the Flow, and after
+ * each edit of the structure of the graph, a new immutable FlowSnapshot is published. The executions and the other
+ * threads read the snapshot, without any lock, so they never block or are blocked by the edits. The lookups of edges
+ * and groups, that are not in the snapshot, take the lock of the Flow.
+ *
  * Created by antoine on 26/05/2017.
  */
 public class Flow implements FlowInterface {
@@ -39,6 +52,20 @@ public class Flow implements FlowInterface {
     private ArrayList<Node> nodes = null;
     private ArrayList<Group> groups = null;
     private Status status = null;
+    // Indexes
+    private Map<String, Node> nodesById = null;
+    private Map<String, Edge> edgesById = null;
+    private Map<EdgeEndpoint, Map<EdgeEndpoint, Edge>> edgesByEndpoints = null; // Src <-> (Tgt <-> Edge)
+    private Map<String, Group> groupsById = null;
+    private Map<String, Group> groupsByName = null;
+    private Map<String, ArrayList<Edge>> incomingEdges = null; // Node id <-> edges whose tgt is the node
+    private Map<String, ArrayList<Edge>> outgoingEdges = null; // Node id <-> edges whose src is the node
+    // Immutable view of the graph, replaced after each edit
+    private volatile FlowSnapshot snapshot = null;
+    private boolean loading = false;
+    // Log of the edits, and sequence number of the last edit saved in the source file
+    private FlowJournal journal = null;
+    private long journalSequence = 0;
 
     /* =================================================================================================================
                                                 CONSTRUCTORS
@@ -52,6 +79,7 @@ public class Flow implements FlowInterface {
         this.edges = new ArrayList<>();
         this.nodes = new ArrayList<>();
         this.groups = new ArrayList<>();
+        initIndexes();
 
         componentsLibrary = owningWorkspace.getLibrary();
 
@@ -64,6 +92,7 @@ public class Flow implements FlowInterface {
      * @param source : the parsed file
      */
     public Flow (JSONObject source, Workspace workspace) {
+        this.loading = true;
         this.flow = source;
         this.status = new Status();
         this.owningWorkspace = workspace;
@@ -71,9 +100,11 @@ public class Flow implements FlowInterface {
         this.id = source.get("id") != null ? (String) source.get("id") : "";
         this.componentsLibrary = source.get("library") != null ? (String) source.get("library") : "";
         this.description = source.get("description") != null ? (String) source.get("description") : "";
+        this.journalSequence = source.get("journal") != null ? ((Number) source.get("journal")).longValue() : 0;
         this.edges = new ArrayList<>();
         this.nodes = new ArrayList<>();
         this.groups = new ArrayList<>();
+        initIndexes();
 
         JSONParser parser = new JSONParser();
 
@@ -83,9 +114,11 @@ public class Flow implements FlowInterface {
             ArrayList<JSONObject> nodes = (ArrayList) source.get("nodes");
             for (int i=0; i < nodes.size(); i++) {
                 JSONObject a = nodes.get(i);
+                // A component removed from the library is loaded as not executable, as the GraphMessageHandler does
+                Component c = ComponentsUtils.getComponent(componentsLibrary, (String) a.get("component"));
                 // Add each node
                 addNode((String) a.get("id"), (String) a.get("component"), (JSONObject) a.get("metadata"), (String) a.get("graph"),
-                        ComponentsUtils.getComponent(componentsLibrary, (String) a.get("component")).isExecutable());
+                        c != null && c.isExecutable());
             }
         }
 
@@ -96,12 +129,12 @@ public class Flow implements FlowInterface {
             for (int i=0; i < edges.size(); i++) {
                 JSONObject a = edges.get(i);
 
-                JSONObject src = new JSONObject();
-                JSONObject tgt = new JSONObject();
+                EdgeEndpoint src = null;
+                EdgeEndpoint tgt = null;
                 JSONObject metadata = new JSONObject();
                 try {
-                    src = (JSONObject) parser.parse((String) a.get("src"));
-                    tgt = (JSONObject) parser.parse((String) a.get("tgt"));
+                    src = EdgeEndpoint.fromJson((JSONObject) parser.parse((String) a.get("src")));
+                    tgt = EdgeEndpoint.fromJson((JSONObject) parser.parse((String) a.get("tgt")));
                     metadata = (JSONObject) parser.parse((String) a.get("metadata"));
                 } catch (ParseException e) {
                     e.printStackTrace();
@@ -123,6 +156,10 @@ public class Flow implements FlowInterface {
             }
         }
 
+        // Publish the snapshot only once everything is loaded
+        this.loading = false;
+        publishSnapshot();
+
     }
 
     /* =================================================================================================================
@@ -130,7 +167,10 @@ public class Flow implements FlowInterface {
        ===============================================================================================================*/
 
     /**
-     * Serialize the Flow as a JSON and return it
+     * Serialize the Flow as a JSON and return it.
+     *
+     * The nodes, edges and groups cache their own JSON String until they change, so the flow is serialized by
+     * stitching those fragments together : only the elements that changed since the last serialization are rebuilt.
      *
      * @return a JSON representation of the flow
      */
@@ -150,15 +190,25 @@ public class Flow implements FlowInterface {
      *     'description': string,
      *     'edges': Edge[],
      *     'nodes': Node[],
-     *     'groups': Group[]
+     *     'groups': Group[],
+     *     'journal': number,
+     *     'sharedKernel': boolean,
+     *     'kernelBackend': string
      * }
      *
+     * The arrays contain the Edge, Node and Group instances themselves : they are JSONAware, so each one is written
+     * with its cached JSON String. Journal is the sequence number of the last edit of the journal contained in the
+     * flow. SharedKernel tells whether the nodes of the workspace share one kernel, and KernelBackend what launches
+     * the kernels.
      */
-    private void buildObject() {
+    synchronized private void buildObject() {
         // Preliminary step : build JSONArray for edges, nodes and groups
-        JSONArray edges = JSON.jsonArrayFromArrayList(this.edges);
-        JSONArray nodes = JSON.jsonArrayFromArrayList(this.nodes);
-        JSONArray groups = JSON.jsonArrayFromArrayList(this.groups);
+        JSONArray edges = new JSONArray();
+        edges.addAll(this.edges);
+        JSONArray nodes = new JSONArray();
+        nodes.addAll(this.nodes);
+        JSONArray groups = new JSONArray();
+        groups.addAll(this.groups);
         // Build the JSON file of the flow
         flow.put("id", id);
         flow.put("name", owningWorkspace.getName());
@@ -167,6 +217,9 @@ public class Flow implements FlowInterface {
         flow.put("edges", edges);
         flow.put("nodes", nodes);
         flow.put("groups", groups);
+        flow.put("journal", journal != null ? journal.getSequence() : journalSequence);
+        flow.put("sharedKernel", owningWorkspace.isKernelShared());
+        flow.put("kernelBackend", owningWorkspace.getKernelBackend());
     }
 
     /**
@@ -179,11 +232,22 @@ public class Flow implements FlowInterface {
      * @param executable Whether the node is executable or not
      * @return True if added
      */
-    public boolean addNode(String id, String component, JSONObject metadata, String graph, boolean executable) {
+    synchronized public boolean addNode(String id, String component, JSONObject metadata, String graph, boolean executable) {
         if (graphExist(graph) && !nodeExist(id)){
             Node n = new Node(id, component, metadata, graph, executable, this);
-
-            return nodes.add(n);
+            nodesById.put(id, n);
+            nodes.add(n);
+
+            JSONObject payload = new JSONObject();
+            payload.put("id", id);
+            payload.put("component", component);
+            payload.put("metadata", metadata);
+            payload.put("graph", graph);
+            payload.put("executable", executable);
+            record("addnode", payload);
+
+            publishSnapshot();
+            return true;
         }
 
         return false;
@@ -196,11 +260,36 @@ public class Flow implements FlowInterface {
      * @param graph The graph from which to remove the node
      * @return True if removed
      */
-    public boolean removeNode(String id, String graph) {
+    synchronized public boolean removeNode(String id, String graph) {
         // Verify that the requested graph is the workspace
         if(graphExist(graph) && nodeExist(id)) {
-            // If so, retrieve the index of the node and remove it
-            nodes.remove(indexOfNode(id));
+            // If so, retrieve the node and remove it
+            nodes.remove(nodesById.remove(id));
+
+            // The edges connected to the node are removed with it, from every index. Replaying the removenode
+            // edit of the journal removes them again the same way
+            Set<Edge> connected = new LinkedHashSet<>();
+            if (incomingEdges.containsKey(id)) connected.addAll(incomingEdges.get(id));
+            if (outgoingEdges.containsKey(id)) connected.addAll(outgoingEdges.get(id));
+            for (Edge e : connected) {
+                edges.remove(e);
+                unindexEdge(e);
+
+                // The other end of the edge doesn't use its port for this edge anymore
+                Node src = nodesById.get(e.getSrc().getNode());
+                if (src != null) src.unassignPortToEdge(e.getSrc(), e.getId());
+                Node tgt = nodesById.get(e.getTgt().getNode());
+                if (tgt != null) tgt.unassignPortToEdge(e.getTgt(), e.getId());
+            }
+            incomingEdges.remove(id);
+            outgoingEdges.remove(id);
+
+            JSONObject payload = new JSONObject();
+            payload.put("id", id);
+            payload.put("graph", graph);
+            record("removenode", payload);
+
+            publishSnapshot();
             return true;
         } else {
              return false;
@@ -215,12 +304,27 @@ public class Flow implements FlowInterface {
      * @param graph : the graph where the node is
      * @return True if successfully done
      */
-    public boolean renameNode(String from, String to, String graph) {
+    synchronized public boolean renameNode(String from, String to, String graph) {
         // Verify that the requested graph is the workspace
         if(graphExist(graph) && nodeExist(from)) {
             // If so, retrieve the node and modify its id
-            Node n = nodes.get(indexOfNode(from));
+            Node n = nodesById.remove(from);
             n.setId(to);
+            nodesById.put(to, n);
+            // The connected edges follow the node
+            List<Edge> connected = new ArrayList<>();
+            if (incomingEdges.containsKey(from)) connected.addAll(incomingEdges.get(from));
+            if (outgoingEdges.containsKey(from)) connected.addAll(outgoingEdges.get(from));
+            for (Edge e : connected) {
+                unindexEdge(e);
+                if (from.equals(e.getSrc().getNode())) e.setSrc(new EdgeEndpoint(to, e.getSrc().getPort(), e.getSrc().getIndex()));
+                if (from.equals(e.getTgt().getNode())) e.setTgt(new EdgeEndpoint(to, e.getTgt().getPort(), e.getTgt().getIndex()));
+                indexEdge(e);
+            }
+
+            record("renamenode", renamePayload(from, to, graph));
+
+            publishSnapshot();
             return true;
         } else {
             return false;
@@ -235,12 +339,18 @@ public class Flow implements FlowInterface {
      * @param graph the graph where the node is
      * @return True if successfully done
      */
-    public boolean changeNode(String id, JSONObject metadata, String graph) {
+    synchronized public boolean changeNode(String id, JSONObject metadata, String graph) {
         // Verify that the requested graph is the workspace
         if(graphExist(graph) && nodeExist(id)) {
             // If so, retrieve the node and modify its id
-            Node n = nodes.get(indexOfNode(id));
+            Node n = nodesById.get(id);
             n.setMetadata(metadata);
+
+            JSONObject payload = new JSONObject();
+            payload.put("id", id);
+            payload.put("metadata", metadata);
+            payload.put("graph", graph);
+            record("changenode", payload);
             return true;
         } else {
             return false;
@@ -257,19 +367,24 @@ public class Flow implements FlowInterface {
      * @param graph the graph where the edge is
      * @return True if added
      */
-    public boolean addEdge (String id, JSONObject src, JSONObject tgt, JSONObject metadata, String graph) {
-        String srcNodeId = (String) src.get("node");
-        String tgtNodeId = (String) tgt.get("node");
-
-        if(nodeExist(srcNodeId) && nodeExist(tgtNodeId) && graphExist(graph) && !edgeExist(src, tgt)) {
+    synchronized public boolean addEdge (String id, EdgeEndpoint src, EdgeEndpoint tgt, JSONObject metadata, String graph) {
+        if(src != null && tgt != null && nodeExist(src.getNode()) && nodeExist(tgt.getNode()) && graphExist(graph)
+                && !edgeExist(src, tgt)) {
             Edge newEdge = new Edge(src, tgt, metadata, graph, id, this);
             edges.add(newEdge);
+            indexEdge(newEdge);
 
-            Node srcNode = nodes.get(indexOfNode(srcNodeId));
-            srcNode.assignPortToEdge((String) src.get("port"), newEdge.getId());
+            Node srcNode = nodesById.get(src.getNode());
+            srcNode.assignPortToEdge(src, newEdge.getId());
 
-            Node tgtNode = nodes.get(indexOfNode(tgtNodeId));
-            tgtNode.assignPortToEdge((String) tgt.get("port"), newEdge.getId());
+            Node tgtNode = nodesById.get(tgt.getNode());
+            tgtNode.assignPortToEdge(tgt, newEdge.getId());
+
+            JSONObject payload = edgePayload(newEdge.getId(), src, tgt, graph);
+            payload.put("metadata", metadata);
+            record("addedge", payload);
+
+            publishSnapshot();
 
             return true;
         } else {
@@ -286,23 +401,27 @@ public class Flow implements FlowInterface {
      * @param tgt the tgt node of the edge
      * @return True if removed
      */
-    public boolean removeEdge(String id, String graph, JSONObject src, JSONObject tgt) {
+    synchronized public boolean removeEdge(String id, String graph, EdgeEndpoint src, EdgeEndpoint tgt) {
         // Verify that the requested graph is the workspace
         if(graphExist(graph) && edgeExist(src, tgt)) {
-            String edgeId = edges.get(indexOfEdge(src, tgt)).getId();
-            // If so, retrieve the index of the edge and remove it
-            edges.remove(indexOfEdge(src, tgt));
+            // If so, retrieve the edge and remove it
+            Edge edge = findEdge(src, tgt);
+            String edgeId = edge.getId();
+            edges.remove(edge);
+            unindexEdge(edge);
             // Then remove the edge from the nodes ports
-            String srcNodeId = (String) src.get("node");
-            String tgtNodeId = (String) tgt.get("node");
-            if(nodeExist(srcNodeId)) {
-                Node srcNode = nodes.get(indexOfNode(srcNodeId));
-                srcNode.unassignPortToEdge((String) src.get("port"), edgeId);
+            if(nodeExist(src.getNode())) {
+                Node srcNode = nodesById.get(src.getNode());
+                srcNode.unassignPortToEdge(src, edgeId);
             }
-            if (nodeExist(tgtNodeId)) {
-                Node tgtNode = nodes.get(indexOfNode(tgtNodeId));
-                tgtNode.assignPortToEdge((String) tgt.get("port"), edgeId);
+            if (nodeExist(tgt.getNode())) {
+                Node tgtNode = nodesById.get(tgt.getNode());
+                tgtNode.unassignPortToEdge(tgt, edgeId);
             }
+
+            record("removeedge", edgePayload(id, src, tgt, graph));
+
+            publishSnapshot();
             return true;
         } else {
             return false;
@@ -319,14 +438,22 @@ public class Flow implements FlowInterface {
      * @param tgt the tgt object of the edge
      * @return True if changed
      */
-    public boolean changeEdge(String id, String graph, JSONObject metadata, JSONObject src, JSONObject tgt) {
+    synchronized public boolean changeEdge(String id, String graph, JSONObject metadata, EdgeEndpoint src, EdgeEndpoint tgt) {
         // Verify that the requested graph is the workspace
-        if(graphExist(graph) && edgeExist(id)) {
+        if(graphExist(graph) && edgeExist(id) && src != null && tgt != null) {
             // If so, retrieve the edge and modify its metadata
-            Edge e = edges.get(indexOfEdge(id));
+            Edge e = edgesById.get(id);
+            unindexEdge(e);
             e.setSrc(src);
             e.setTgt(tgt);
             e.setMetadata(metadata);
+            indexEdge(e);
+
+            JSONObject payload = edgePayload(id, src, tgt, graph);
+            payload.put("metadata", metadata);
+            record("changeedge", payload);
+
+            publishSnapshot();
             return true;
         } else {
             return false;
@@ -382,11 +509,22 @@ public class Flow implements FlowInterface {
      * @param graph the graph where the group is (can be another group)
      * @return
      */
-    public boolean addGroup(String name, JSONArray nodes, JSONObject metadata, String graph) {
+    synchronized public boolean addGroup(String name, JSONArray nodes, JSONObject metadata, String graph) {
         if(graphExist(graph) && !groupExist(name)){
             Group g = new Group(name, nodes, metadata, graph, this);
 
             groups.add(g);
+            groupsById.put(g.getId(), g);
+            groupsByName.put(name, g);
+
+            JSONObject payload = new JSONObject();
+            payload.put("name", name);
+            payload.put("nodes", nodes);
+            payload.put("metadata", metadata);
+            payload.put("graph", graph);
+            record("addgroup", payload);
+
+            publishSnapshot();
             return true;
         } else {
             return false;
@@ -400,9 +538,18 @@ public class Flow implements FlowInterface {
      * @param graph the graph where the group is
      * @return
      */
-    public boolean removeGroup(String name, String graph) {
+    synchronized public boolean removeGroup(String name, String graph) {
         if(graphExist(graph) && groupExist(name)) {
-            groups.remove(indexOfGroup(name));
+            Group g = groupsByName.remove(name);
+            groupsById.remove(g.getId());
+            groups.remove(g);
+
+            JSONObject payload = new JSONObject();
+            payload.put("name", name);
+            payload.put("graph", graph);
+            record("removegroup", payload);
+
+            publishSnapshot();
             return true;
         } else {
             return false;
@@ -417,12 +564,17 @@ public class Flow implements FlowInterface {
      * @param graph the graph where the group is
      * @return
      */
-    public boolean renameGroup(String from, String to, String graph) {
+    synchronized public boolean renameGroup(String from, String to, String graph) {
         // Verify that the requested graph is the workspace
         if(graphExist(graph) && groupExist(from)) {
             // If so, retrieve the group and modify its name
-            Group g = groups.get(indexOfGroup(from));
+            Group g = groupsByName.remove(from);
             g.setName(to);
+            groupsByName.put(to, g);
+
+            record("renamegroup", renamePayload(from, to, graph));
+
+            publishSnapshot();
             return true;
         } else {
             return false;
@@ -437,12 +589,18 @@ public class Flow implements FlowInterface {
      * @param graph the graph where the group is
      * @return
      */
-    public boolean changeGroup(String name, JSONObject metadata, String graph) {
+    synchronized public boolean changeGroup(String name, JSONObject metadata, String graph) {
         // Verify that the requested graph is the workspace
         if(graphExist(graph) && groupExist(name)) {
             // If so, retrieve the group and modify its metadata
-            Group g = groups.get(indexOfGroup(name));
+            Group g = groupsByName.get(name);
             g.setMetadata(metadata);
+
+            JSONObject payload = new JSONObject();
+            payload.put("name", name);
+            payload.put("metadata", metadata);
+            payload.put("graph", graph);
+            record("changegroup", payload);
             return true;
         } else {
             return false;
@@ -505,14 +663,14 @@ public class Flow implements FlowInterface {
     /**
      * Get an edge from its source and target nodes
      *
-     * @param src the source node of the edge. Src format is : {node: string(id), port: string}
-     * @param tgt the target node of the edge. Tgt format is : {node: string(id), port: string}
+     * @param src the source node of the edge
+     * @param tgt the target node of the edge
      * @param graph the graph where the edge is supposed to be
      * @return the Edge if found, null if not
      */
-    public Edge getEdge (JSONObject src, JSONObject tgt, String graph) {
-        if (graphExist(graph) && edgeExist(src, tgt)) {
-            return edges.get(indexOfEdge(src, tgt));
+    synchronized public Edge getEdge (EdgeEndpoint src, EdgeEndpoint tgt, String graph) {
+        if (graphExist(graph)) {
+            return findEdge(src, tgt);
         } else {
             return null;
         }
@@ -523,20 +681,17 @@ public class Flow implements FlowInterface {
      * @param id the id of the edge
      * @return the Edge if found, null if not
      */
-    public Edge getEdge (String id) {
-        // Look at each edge and if its id is the same as the given one, returns it.
-        for (int i=0; i<edges.size(); i++) {
-            if (edges.get(i).getId().equals(id)) return edges.get(i);
-        }
-
-        return null;
+    synchronized public Edge getEdge (String id) {
+        return edgesById.get(id);
     }
 
     /**
-     * @return the list of nodes
+     * Read from the snapshot, so it can be called from any thread.
+     *
+     * @return the unmodifiable list of nodes
      */
-    public ArrayList<Node> getNodes() {
-        return nodes;
+    public List<Node> getNodes() {
+        return snapshot.getNodes();
     }
 
     /**
@@ -565,8 +720,11 @@ public class Flow implements FlowInterface {
      * @return the Node if found, null if not
      */
     public Node getNode (String id, String graph) {
-        if (graphExist(graph) && nodeExist(id)) {
-            return nodes.get(indexOfNode(id));
+        // Read from the snapshot, so it can be called from any thread
+        FlowSnapshot current = snapshot;
+
+        if (current.hasGraph(graph)) {
+            return current.getNode(id);
         } else {
             return null;
         }
@@ -579,9 +737,9 @@ public class Flow implements FlowInterface {
      * @param graph the graph where the Group is
      * @return the Group if found, null if not
      */
-    public Group getGroup (String name, String graph) {
-        if (graphExist(graph) && groupExist(name)) {
-            return groups.get(indexOfGroup(name));
+    synchronized public Group getGroup (String name, String graph) {
+        if (graphExist(graph)) {
+            return groupsByName.get(name);
         } else {
             return null;
         }
@@ -606,10 +764,36 @@ public class Flow implements FlowInterface {
      *
      * @param description the new description
      */
-    public void setDescription(String description) {
+    synchronized public void setDescription(String description) {
         this.description = description;
     }
 
+    /**
+     * Get the last published snapshot of the flow. It is immutable and consistent, so it can be read from any thread.
+     *
+     * @return the current FlowSnapshot
+     */
+    public FlowSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Give the journal in which the edits of the flow are appended. The edits done before, like the ones done while
+     * replaying the journal, are not recorded.
+     *
+     * @param journal the journal of the flow
+     */
+    public void setJournal(FlowJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * @return the sequence number of the last edit of the journal contained in the file the flow has been loaded from
+     */
+    public long getJournalSequence() {
+        return journalSequence;
+    }
+
     /**
      * Get the status of the Flow
      * @return the Status instance
@@ -623,128 +807,153 @@ public class Flow implements FlowInterface {
        ===============================================================================================================*/
 
     /**
-     * Test whether a node exists or not
-     *
-     * @param id the id of the node
-     * @return True if the node exists
+     * Create the empty indexes of the flow.
      */
-    private boolean nodeExist (String id) {
-        // Go trough all the nodes and if it finds one with the given id return true, else return false
-        for (Node node : nodes) {
-            if (id.equals(node.getId())) return true;
-        }
+    private void initIndexes () {
+        this.nodesById = new HashMap<>();
+        this.edgesById = new HashMap<>();
+        this.edgesByEndpoints = new HashMap<>();
+        this.groupsById = new HashMap<>();
+        this.groupsByName = new HashMap<>();
+        this.incomingEdges = new HashMap<>();
+        this.outgoingEdges = new HashMap<>();
+        this.snapshot = new FlowSnapshot(id, nodes, edges, groups);
+    }
 
-        return false;
+    /**
+     * Build a new snapshot of the flow and publish it. Must be called after each edit of the structure of the graph.
+     */
+    private void publishSnapshot () {
+        if (!loading) snapshot = new FlowSnapshot(id, nodes, edges, groups);
     }
 
     /**
-     * Test whether an edge exists or not
+     * Append an edit to the journal, if any. Must be called under the lock of the flow, once the edit is done.
+     * When the journal becomes too long, a save of the workspace is asked in order to compact it.
      *
-     * @param src the source node of the edge. Src format is : {node: string(id), port: string}
-     * @param tgt the target node of the edge. Tgt format is : {node: string(id), port: string}
-     * @return True if exists
+     * @param op the name of the edit, as the FBP Network Protocol command
+     * @param payload the arguments of the edit
      */
-    private boolean edgeExist (JSONObject src, JSONObject tgt) {
-        return indexOfEdge(src, tgt) != -1;
+    private void record (String op, JSONObject payload) {
+        if (journal == null || loading) return;
+
+        if (journal.append(op, payload) >= FlowJournal.COMPACTION_THRESHOLD && owningWorkspace != null) {
+            owningWorkspace.save();
+        }
+    }
+
+    private JSONObject renamePayload (String from, String to, String graph) {
+        JSONObject payload = new JSONObject();
+        payload.put("from", from);
+        payload.put("to", to);
+        payload.put("graph", graph);
+
+        return payload;
+    }
+
+    private JSONObject edgePayload (String id, EdgeEndpoint src, EdgeEndpoint tgt, String graph) {
+        JSONObject payload = new JSONObject();
+        payload.put("id", id);
+        payload.put("src", src.toJson());
+        payload.put("tgt", tgt.toJson());
+        payload.put("graph", graph);
+
+        return payload;
     }
 
     /**
-     * Test whether an edge exists or not
+     * Add the edge into the indexes and the adjacency lists of its src and tgt nodes.
      *
-     * @param id the id of the edge
-     * @return True if exists
+     * @param e the edge
      */
-    private boolean edgeExist(String id) {
-        return indexOfEdge(id) != -1;
+    private void indexEdge (Edge e) {
+        edgesById.put(e.getId(), e);
+        edgesByEndpoints.computeIfAbsent(e.getSrc(), k -> new HashMap<>()).put(e.getTgt(), e);
+        outgoingEdges.computeIfAbsent(e.getSrc().getNode(), k -> new ArrayList<>()).add(e);
+        incomingEdges.computeIfAbsent(e.getTgt().getNode(), k -> new ArrayList<>()).add(e);
     }
 
     /**
-     * Test whether a graph exists or not
+     * Remove the edge from the indexes and from the adjacency lists of its src and tgt nodes.
      *
-     * @param id the id of the graph
-     * @return True if exists
+     * @param e the edge
      */
-    private boolean graphExist (String id) {
-        if (this.id.equals(id)) return true;
-
-        for (Group group : groups) {
-            if (id.equals(group.getId())) return true;
+    private void unindexEdge (Edge e) {
+        edgesById.remove(e.getId());
+        Map<EdgeEndpoint, Edge> fromSrc = edgesByEndpoints.get(e.getSrc());
+        if (fromSrc != null) {
+            fromSrc.remove(e.getTgt());
+            if (fromSrc.isEmpty()) edgesByEndpoints.remove(e.getSrc());
         }
 
-        return false;
+        ArrayList<Edge> outgoing = outgoingEdges.get(e.getSrc().getNode());
+        if (outgoing != null) outgoing.remove(e);
+        ArrayList<Edge> incoming = incomingEdges.get(e.getTgt().getNode());
+        if (incoming != null) incoming.remove(e);
     }
 
     /**
-     * Test whether a group exists or not
+     * Find an edge from its src and tgt in the edgesByEndpoints index.
      *
-     * @param name the name of the group
-     * @return True if exists
+     * @param src the source node of the edge
+     * @param tgt the target node of the edge
+     * @return the Edge if found, null if not
      */
-    private boolean groupExist (String name) {
-        if (this.groups == null) return false;
+    private Edge findEdge (EdgeEndpoint src, EdgeEndpoint tgt) {
+        Map<EdgeEndpoint, Edge> fromSrc = edgesByEndpoints.get(src);
 
-        for (Group group : groups) {
-            if (group.getName().equals(name)) return true;
-        }
-
-        return false;
+        return fromSrc != null ? fromSrc.get(tgt) : null;
     }
 
     /**
-     * Get the index of an edge in the edges array
+     * Test whether a node exists or not
      *
-     * @param src the source node of the edge. Src format is : {node: string(id), port: string}
-     * @param tgt the target node of the edge. Tgt format is : {node: string(id), port: string}
-     * @return the index of the edge, -1 if not in edges
+     * @param id the id of the node
+     * @return True if the node exists
      */
-    private int indexOfEdge (JSONObject src, JSONObject tgt) {
-        for(int i=0; i<edges.size(); i++) {
-            if (edges.get(i).getSrc().equals(src) && edges.get(i).getTgt().equals(tgt)) return i;
-        }
+    private boolean nodeExist (String id) {
+        return nodesById.containsKey(id);
+    }
 
-        return -1;
+    /**
+     * Test whether an edge exists or not
+     *
+     * @param src the source node of the edge
+     * @param tgt the target node of the edge
+     * @return True if exists
+     */
+    private boolean edgeExist (EdgeEndpoint src, EdgeEndpoint tgt) {
+        return findEdge(src, tgt) != null;
     }
 
     /**
-     * Get the index of an edge in the edges array
+     * Test whether an edge exists or not
      *
      * @param id the id of the edge
-     * @return the index of the edge, -1 if not in edges
+     * @return True if exists
      */
-    private int indexOfEdge (String id) {
-        for(int i=0; i<edges.size(); i++) {
-            if (edges.get(i).getId().equals(id)) return i;
-        }
-
-        return -1;
+    private boolean edgeExist(String id) {
+        return edgesById.containsKey(id);
     }
 
     /**
-     * Get the index of a node in the nodes array
+     * Test whether a graph exists or not
      *
-     * @param id the id of the node
-     * @return the index of the node, -1 if not in nodes
+     * @param id the id of the graph
+     * @return True if exists
      */
-    private int indexOfNode (String id) {
-        for(int i=0; i<nodes.size(); i++) {
-            if (nodes.get(i).getId().equals(id)) return i;
-        }
-
-        return -1;
+    private boolean graphExist (String id) {
+        return this.id.equals(id) || groupsById.containsKey(id);
     }
 
     /**
-     * Get the index of a group in the groups array
+     * Test whether a group exists or not
      *
      * @param name the name of the group
-     * @return the index of the group, -1 if not in groups
+     * @return True if exists
      */
-    private int indexOfGroup (String name) {
-        for(int i=0; i<groups.size(); i++) {
-            if (groups.get(i).getName().equals(name)) return i;
-        }
-
-        return -1;
+    private boolean groupExist (String name) {
+        return groupsByName.containsKey(name);
     }
 
 }
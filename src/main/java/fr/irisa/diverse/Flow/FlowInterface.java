@@ -65,7 +65,7 @@ interface FlowInterface {
      * @param graph the graph where the edge is
      * @return True if successfully added and connected.
      */
-    boolean addEdge (String id, JSONObject src, JSONObject tgt, JSONObject metadata, String graph);
+    boolean addEdge (String id, EdgeEndpoint src, EdgeEndpoint tgt, JSONObject metadata, String graph);
 
     /**
      * Remove an existing edge from the graph.
@@ -76,7 +76,7 @@ interface FlowInterface {
      * @param tgt the tgt node of the edge
      * @return True if successfully removed
      */
-    boolean removeEdge (String id, String graph, JSONObject src, JSONObject tgt);
+    boolean removeEdge (String id, String graph, EdgeEndpoint src, EdgeEndpoint tgt);
 
     /**
      * Modify the src, tgt and metadata of an edge
@@ -88,7 +88,7 @@ interface FlowInterface {
      * @param tgt the tgt object of the edge
      * @return True if the modification has successfully be done
      */
-    boolean changeEdge (String id, String graph, JSONObject metadata, JSONObject src, JSONObject tgt);
+    boolean changeEdge (String id, String graph, JSONObject metadata, EdgeEndpoint src, EdgeEndpoint tgt);
 
     boolean addInitial (String graph, JSONObject metadata, JSONObject src, JSONObject tgt);
 
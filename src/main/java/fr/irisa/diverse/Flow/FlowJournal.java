@@ -0,0 +1,303 @@
+package fr.irisa.diverse.Flow;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The FlowJournal is an append-only log of the edits done on a Flow.
+ *
+ * Instead of rewriting the whole flow.json file after each edit, the Flow appends one line per edit to the journal :
+ * {seq: number, op: string, payload: object}. The op is the name of the command of the FBP Network Protocol that
+ * did the edit (addnode, changeedge, ...) and the payload contains the arguments given to the Flow.
+ *
+ * The sequence number of each edit is increasing. When the flow is saved in flow.json, the sequence number of the
+ * last edit it contains is saved with it. So, at startup, the flow is rebuilt by loading flow.json and replaying
+ * the edits of the journal that have a greater sequence number. The journal is then compacted : the edits already
+ * saved in flow.json are removed from it.
+ *
+ * Each line is flushed to the OS when it is appended, so no edit is lost if the backend crashes. A line partially
+ * written during a crash of the machine is ignored, and removed, at replay.
+ */
+@SuppressWarnings("unchecked")
+public class FlowJournal {
+
+    // Configuration
+    public static final int COMPACTION_THRESHOLD = Integer.getInteger("padins.journal.compactionThreshold", 500);
+
+    // Attributes
+    private Path file;
+    private FileOutputStream out = null;
+    private Writer writer = null;
+    private long sequence = 0; // Sequence number of the last edit
+    private int size = 0; // Number of edits in the file
+
+    // Constructor
+    public FlowJournal (Path file) {
+        this.file = file;
+    }
+
+    /*==================================================================================================================
+                                              PUBLIC CLASS METHODS
+     =================================================================================================================*/
+
+    /**
+     * Replay, on the given flow, the edits of the journal that are not already saved in it.
+     * Must be called once, before the journal is given to the flow, so the replayed edits are not appended again.
+     *
+     * @param flow : the flow loaded from flow.json
+     * @param fromSequence : the sequence number of the last edit saved in flow.json
+     * @return the number of replayed edits
+     */
+    synchronized public int replay (Flow flow, long fromSequence) {
+        List<String> kept = new ArrayList<>();
+        boolean corrupted = false;
+        int replayed = 0;
+        this.sequence = fromSequence;
+
+        if (Files.exists(file)) {
+            JSONParser parser = new JSONParser();
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    JSONObject entry;
+                    try {
+                        entry = (JSONObject) parser.parse(line);
+                    } catch (ParseException | ClassCastException e) {
+                        // Partially written line
+                        corrupted = true;
+                        continue;
+                    }
+
+                    long seq = ((Number) entry.get("seq")).longValue();
+                    if (seq <= fromSequence) {
+                        // Already in flow.json
+                        corrupted = true;
+                        continue;
+                    }
+
+                    apply(flow, (String) entry.get("op"), (JSONObject) entry.get("payload"));
+                    kept.add(line);
+                    sequence = Math.max(sequence, seq);
+                    replayed++;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        size = kept.size();
+        if (corrupted) rewrite(kept);
+
+        return replayed;
+    }
+
+    /**
+     * Remove from the journal the edits whose sequence number is lower than or equal to the given one.
+     * Used once the flow, up to this edit, has been saved in flow.json.
+     *
+     * @param upTo : the sequence number of the last edit saved in flow.json
+     */
+    synchronized public void discard (long upTo) {
+        List<String> kept = new ArrayList<>();
+        if (Files.exists(file)) {
+            try {
+                flush();
+                JSONParser parser = new JSONParser();
+                for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                    try {
+                        JSONObject entry = (JSONObject) parser.parse(line);
+                        if (((Number) entry.get("seq")).longValue() > upTo) kept.add(line);
+                    } catch (ParseException | ClassCastException e) {
+                        // Ignore the corrupted lines
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+
+        size = kept.size();
+        rewrite(kept);
+    }
+
+    /**
+     * Force the appended edits to be written on the disk.
+     */
+    synchronized public void sync () {
+        if (out == null) return;
+
+        try {
+            writer.flush();
+            out.getFD().sync();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Close the file of the journal. It is reopened at the next edit.
+     */
+    synchronized public void close () {
+        sync();
+        closeWriter();
+    }
+
+    /**
+     * @return the sequence number of the last edit
+     */
+    synchronized public long getSequence () {
+        return sequence;
+    }
+
+    /**
+     * @return the number of edits in the journal
+     */
+    synchronized public int size () {
+        return size;
+    }
+
+    /*==================================================================================================================
+                                              PACKAGE CLASS METHODS
+     =================================================================================================================*/
+
+    /**
+     * Append an edit to the journal. Called by the Flow, under its lock, after each successful edit.
+     *
+     * @param op : the name of the edit, as the FBP Network Protocol command
+     * @param payload : the arguments of the edit
+     * @return the number of edits in the journal
+     */
+    synchronized int append (String op, JSONObject payload) {
+        JSONObject entry = new JSONObject();
+        entry.put("seq", ++sequence);
+        entry.put("op", op);
+        entry.put("payload", payload);
+
+        try {
+            if (writer == null) open();
+            writer.write(entry.toJSONString());
+            writer.write('\n');
+            writer.flush();
+            size++;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return size;
+    }
+
+    /*==================================================================================================================
+                                              PRIVATE CLASS METHODS
+     =================================================================================================================*/
+
+    /**
+     * Apply an edit on the flow.
+     *
+     * @param flow : the flow
+     * @param op : the name of the edit
+     * @param p : the arguments of the edit
+     */
+    private void apply (Flow flow, String op, JSONObject p) {
+        switch (op) {
+            case "addnode":
+                flow.addNode((String) p.get("id"), (String) p.get("component"), (JSONObject) p.get("metadata"),
+                        (String) p.get("graph"), (Boolean) p.get("executable"));
+                break;
+            case "removenode":
+                flow.removeNode((String) p.get("id"), (String) p.get("graph"));
+                break;
+            case "renamenode":
+                flow.renameNode((String) p.get("from"), (String) p.get("to"), (String) p.get("graph"));
+                break;
+            case "changenode":
+                flow.changeNode((String) p.get("id"), (JSONObject) p.get("metadata"), (String) p.get("graph"));
+                break;
+            case "addedge":
+                flow.addEdge((String) p.get("id"), EdgeEndpoint.fromJson((JSONObject) p.get("src")),
+                        EdgeEndpoint.fromJson((JSONObject) p.get("tgt")), (JSONObject) p.get("metadata"),
+                        (String) p.get("graph"));
+                break;
+            case "removeedge":
+                flow.removeEdge((String) p.get("id"), (String) p.get("graph"),
+                        EdgeEndpoint.fromJson((JSONObject) p.get("src")), EdgeEndpoint.fromJson((JSONObject) p.get("tgt")));
+                break;
+            case "changeedge":
+                flow.changeEdge((String) p.get("id"), (String) p.get("graph"), (JSONObject) p.get("metadata"),
+                        EdgeEndpoint.fromJson((JSONObject) p.get("src")), EdgeEndpoint.fromJson((JSONObject) p.get("tgt")));
+                break;
+            case "addgroup":
+                flow.addGroup((String) p.get("name"), (JSONArray) p.get("nodes"), (JSONObject) p.get("metadata"),
+                        (String) p.get("graph"));
+                break;
+            case "removegroup":
+                flow.removeGroup((String) p.get("name"), (String) p.get("graph"));
+                break;
+            case "renamegroup":
+                flow.renameGroup((String) p.get("from"), (String) p.get("to"), (String) p.get("graph"));
+                break;
+            case "changegroup":
+                flow.changeGroup((String) p.get("name"), (JSONObject) p.get("metadata"), (String) p.get("graph"));
+                break;
+            default:
+                System.out.println("Unknown edit " + op + " in the journal " + file);
+        }
+    }
+
+    /**
+     * Replace the content of the journal with the given lines. The new content is written under a temporary name
+     * then renamed, so a crash never leaves a partially written journal.
+     *
+     * @param lines : the lines to keep
+     */
+    private void rewrite (List<String> lines) {
+        closeWriter();
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (FileOutputStream tmpOut = new FileOutputStream(tmp.toFile());
+                 Writer tmpWriter = new BufferedWriter(new OutputStreamWriter(tmpOut, StandardCharsets.UTF_8))) {
+                for (String line : lines) {
+                    tmpWriter.write(line);
+                    tmpWriter.write('\n');
+                }
+                tmpWriter.flush();
+                tmpOut.getFD().sync();
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void open () throws IOException {
+        out = new FileOutputStream(file.toFile(), true);
+        writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    private void flush () throws IOException {
+        if (writer != null) writer.flush();
+    }
+
+    private void closeWriter () {
+        if (writer == null) return;
+
+        try {
+            writer.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        writer = null;
+        out = null;
+    }
+}
@@ -0,0 +1,132 @@
+package fr.irisa.diverse.Flow;
+
+import java.util.*;
+
+/**
+ * A FlowSnapshot is an immutable view of the structure of a Flow at a given time : its nodes, the groups they are in
+ * and the edges between them.
+ *
+ * The Flow builds a new snapshot after each edit of its structure and publishes it atomically. So the executions
+ * can take the current snapshot when they start and read it from any thread, without any lock, while the UIs keep
+ * editing the flow. The nodes themselves are shared with the Flow, only the graph structure is copied.
+ */
+public final class FlowSnapshot {
+
+    // Attributes
+    private final String flowId;
+    private final List<Node> nodes;
+    private final Map<String, Node> nodesById;
+    private final Map<String, List<Node>> groupsNodes; // Group name <-> nodes of the group
+    private final Set<String> groupsIds;
+    private final Map<Node, List<Node>> previousNodes;
+    private final Map<Node, List<Node>> nextNodes;
+
+    /* =================================================================================================================
+                                                CONSTRUCTOR
+       ===============================================================================================================*/
+
+    /**
+     * Copy the structure of the flow. Must only be called by the Flow, while no other thread modifies it.
+     *
+     * @param flowId the id of the flow
+     * @param nodes the nodes of the flow
+     * @param edges the edges of the flow
+     * @param groups the groups of the flow
+     */
+    FlowSnapshot (String flowId, List<Node> nodes, List<Edge> edges, List<Group> groups) {
+        this.flowId = flowId;
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+
+        Map<String, Node> byId = new HashMap<>();
+        for (Node n : nodes) byId.put(n.getId(), n);
+        this.nodesById = Collections.unmodifiableMap(byId);
+
+        Map<String, List<Node>> groupsNodes = new HashMap<>();
+        Set<String> groupsIds = new HashSet<>();
+        for (Group g : groups) {
+            List<Node> groupNodes = new ArrayList<>();
+            for (Object o : g.getNodes()) {
+                Node n = byId.get((String) o);
+                if (n != null) groupNodes.add(n);
+            }
+            groupsNodes.put(g.getName(), Collections.unmodifiableList(groupNodes));
+            groupsIds.add(g.getId());
+        }
+        this.groupsNodes = Collections.unmodifiableMap(groupsNodes);
+        this.groupsIds = Collections.unmodifiableSet(groupsIds);
+
+        // Build the adjacency lists. An edge whose src or tgt node doesn't exist anymore is ignored.
+        Map<Node, List<Node>> previous = new HashMap<>();
+        Map<Node, List<Node>> next = new HashMap<>();
+        for (Edge e : edges) {
+            Node src = byId.get(e.getSrc().getNode());
+            Node tgt = byId.get(e.getTgt().getNode());
+            if (src == null || tgt == null) continue;
+
+            next.computeIfAbsent(src, k -> new ArrayList<>()).add(tgt);
+            previous.computeIfAbsent(tgt, k -> new ArrayList<>()).add(src);
+        }
+        previous.replaceAll((k, v) -> Collections.unmodifiableList(v));
+        next.replaceAll((k, v) -> Collections.unmodifiableList(v));
+        this.previousNodes = Collections.unmodifiableMap(previous);
+        this.nextNodes = Collections.unmodifiableMap(next);
+    }
+
+    /* =================================================================================================================
+                                                    PUBLIC FUNCTIONS
+       ===============================================================================================================*/
+
+    /**
+     * @return the nodes of the flow
+     */
+    public List<Node> getNodes () {
+        return nodes;
+    }
+
+    /**
+     * Get the nodes of a graph.
+     *
+     * @param graph the id of the flow or the name of a group
+     * @return the nodes of the graph, null if the graph doesn't exist
+     */
+    public List<Node> getNodes (String graph) {
+        if (flowId.equals(graph)) return nodes;
+        else return groupsNodes.get(graph);
+    }
+
+    /**
+     * @param id the id of the node
+     * @return the Node if found, null if not
+     */
+    public Node getNode (String id) {
+        return nodesById.get(id);
+    }
+
+    /**
+     * @param id the id of a graph
+     * @return true if the graph is the flow or one of its groups
+     */
+    public boolean hasGraph (String id) {
+        return flowId.equals(id) || groupsIds.contains(id);
+    }
+
+    /**
+     * Get the nodes connected to the inports of the given node, one per edge.
+     *
+     * @param node the node
+     * @return the list of previous nodes, null if there is none
+     */
+    public List<Node> previousNodes (Node node) {
+        return previousNodes.get(node);
+    }
+
+    /**
+     * Get the nodes connected to the outports of the given node, one per edge.
+     *
+     * @param node the node
+     * @return the list of next nodes, null if there is none
+     */
+    public List<Node> nextNodes (Node node) {
+        return nextNodes.get(node);
+    }
+}
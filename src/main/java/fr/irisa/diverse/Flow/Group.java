@@ -2,6 +2,7 @@ package fr.irisa.diverse.Flow;
 
 import fr.irisa.diverse.MessageHandlers.FBPNetworkProtocol.Utils.Status;
 import org.json.simple.JSONArray;
+import org.json.simple.JSONAware;
 import org.json.simple.JSONObject;
 
 import java.util.UUID;
@@ -13,10 +14,11 @@ import java.util.UUID;
  *
  * Created by antoine on 29/05/17.
  */
-public class Group {
+public class Group implements JSONAware {
 
     // Attributes
     private JSONObject group = null;
+    private String serialized = null; // The cached JSON String of the group, null when the group changed
     private Flow owningFlow = null;
     private String id = "";
     private String name = "";
@@ -99,6 +101,7 @@ public class Group {
      */
     public void setName(String name) {
         this.name = name;
+        invalidateJson();
     }
 
     /**
@@ -107,6 +110,7 @@ public class Group {
      */
     public void setMetadata(JSONObject metadata) {
         this.metadata = metadata;
+        invalidateJson();
     }
 
     /**
@@ -119,7 +123,7 @@ public class Group {
      * @return {JSONObject} the object containing all the data of the group
      */
     public JSONObject getJson() {
-        build();
+        toJSONString();
         return group;
     }
 
@@ -137,16 +141,34 @@ public class Group {
 
     @Override
     public String toString () {
-        build();
+        return toJSONString();
+    }
+
+    /**
+     * Serialize the group as a JSON String. The result is cached until the group changes.
+     * @return {String} the JSON String of the group
+     */
+    @Override
+    synchronized public String toJSONString () {
+        if (serialized == null) {
+            build();
+            serialized = group.toJSONString();
+        }
 
-        // Return it as a String
-        return group.toJSONString();
+        return serialized;
     }
 
     /* =================================================================================================================
                                                     PRIVATE FUNCTIONS
        ===============================================================================================================*/
 
+    /**
+     * Drop the cached JSON of the group. Must be called each time the content of the JSON changes.
+     */
+    synchronized private void invalidateJson () {
+        serialized = null;
+    }
+
     /**
      * Build the json object representing the group.
      * The json is used to send all the information of this group to any other service.
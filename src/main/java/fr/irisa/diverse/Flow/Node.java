@@ -1,11 +1,10 @@
 package fr.irisa.diverse.Flow;
 
+import fr.irisa.diverse.Utils.Utils;
+import org.json.simple.JSONAware;
 import org.json.simple.JSONObject;
 
-import java.lang.reflect.Array;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.Iterator;
+import java.util.*;
 
 /**
  * A node correspond to a block on a flow-based program
@@ -16,13 +15,15 @@ import java.util.Iterator;
  *
  * Created by antoine on 29/05/17.
  */
-public class Node implements Comparable<Node>{
+public class Node implements Comparable<Node>, JSONAware {
 
     // Attributes related to outer objects
     private Flow owningFlow = null;
 
     // The JSONObject containig all the data of a node
     private JSONObject node = null;
+    // The node serialized as a JSON String, null when the node changed since it has been serialized
+    private String serialized = null;
 
     // Attributes that compose the content of the JSON used for sharing a node to other services
     private String id = "";
@@ -35,6 +36,9 @@ public class Node implements Comparable<Node>{
     // Other information about a node
     private boolean executable;
     private JSONObject pickledResult = null; // A pickle is a string for the python serializer pickle
+    private JSONObject resultFingerprints = null; // Hash of each variable of the result, reset each time the result changes
+    private String resultHash = null; // Hash of the result, computed lazily and reset each time the result changes
+    private String executionKey = null; // Key of the execution that produced the current result
 
     // Information about the runs of a node
     private long lastRun;
@@ -60,11 +64,7 @@ public class Node implements Comparable<Node>{
         this.lastModification = date.getTime();
         this.lastRun = 0;
         this.lastError = 0;
-
-        // Start a kernel if needed
-        if (executable) {
-            owningFlow.owningWorkspace.startNewKernel(id);
-        }
+        // The kernel of an executable node is started by the workspace when it is needed
 
     }
 
@@ -86,7 +86,10 @@ public class Node implements Comparable<Node>{
      * Update the id of the node. The ID must be unique !
      * @param newId {String} the new uuid of the node
      */
-    public void setId (String newId) { id = newId; }
+    public void setId (String newId) {
+        id = newId;
+        invalidateJson();
+    }
 
     /**
      * Get the inports of the node.
@@ -119,6 +122,8 @@ public class Node implements Comparable<Node>{
     public void setMetadata(JSONObject metadata) {
         nodeUpdated();
         this.metadata = metadata;
+        this.resultFingerprints = null;
+        this.resultHash = null;
     }
 
     /**
@@ -143,7 +148,7 @@ public class Node implements Comparable<Node>{
      * @return {JSONObject} the node's json object
      */
     public JSONObject getJson() {
-        build();
+        toJSONString();
         return node;
     }
 
@@ -186,6 +191,7 @@ public class Node implements Comparable<Node>{
      * Get the data of the node as pairs of key: pickle.
      * A pickle is a string that is the result of the serialization of any variable in python using pickle.dumps.
      * -> See python documentation.
+     * The variables sent as binary buffers are kept as received instead, see fr.irisa.diverse.Core.BinaryValue.
      * @return {JSONObject} key: pickle pairs
      */
     public JSONObject getPickledResult() { return pickledResult != null ? pickledResult : new JSONObject(); }
@@ -198,6 +204,8 @@ public class Node implements Comparable<Node>{
      */
     public void setPickledResult (JSONObject result) {
         pickledResult = result;
+        resultFingerprints = null;
+        resultHash = null;
     }
 
     /**
@@ -206,34 +214,163 @@ public class Node implements Comparable<Node>{
      */
     public void setJsonResult(JSONObject result) {
         this.metadata.put("result", result);
+        invalidateJson();
+        if (!isExecutable()) resultFingerprints = null;
+        resultHash = null;
         date = new Date();
         lastRun = date.getTime();
 
         sendUpdateNodeMessage();
     }
 
+    /**
+     * Get the key of the execution that produced the current result of the node.
+     * See computeExecutionKey.
+     *
+     * @return {String} the execution key, null if the current result hasn't been produced by an execution
+     */
+    public String getExecutionKey () {
+        return executionKey;
+    }
+
+    /**
+     * Store the key of the execution that produced the current result of the node.
+     *
+     * @param executionKey {String} the execution key
+     */
+    public void setExecutionKey (String executionKey) {
+        this.executionKey = executionKey;
+    }
+
+    /**
+     * Get the fingerprint of each variable of the result : the key: hash pairs of the result.
+     * The fingerprints are given by the kernel when it receives the result, otherwise they are computed from the
+     * current result.
+     *
+     * @return {JSONObject} the key: hash pairs
+     */
+    public JSONObject getResultFingerprints () {
+        if (resultFingerprints == null) {
+            JSONObject result = getResult();
+            JSONObject fingerprints = new JSONObject();
+
+            if (result != null) {
+                for (Object key : result.keySet()) {
+                    fingerprints.put(key, Utils.hash(String.valueOf(key), String.valueOf(result.get(key))));
+                }
+            }
+            resultFingerprints = fingerprints;
+        }
+
+        return resultFingerprints;
+    }
+
+    /**
+     * Set the fingerprint of each variable of the result. Must be called after setting the result.
+     *
+     * @param fingerprints {JSONObject} key: hash pairs, one for each variable of the result
+     */
+    public void setResultFingerprints (JSONObject fingerprints) {
+        resultFingerprints = fingerprints;
+        resultHash = null;
+    }
+
+    /**
+     * Get a hash of the result of the node. Two nodes with the same result hash send exactly the same data to
+     * their next nodes.
+     *
+     * @return {String} the hash of the result
+     */
+    public String getResultHash () {
+        if (resultHash == null) {
+            JSONObject fingerprints = getResultFingerprints();
+
+            // Hash the fingerprints ordered by key, to make the hash independent from the order of the map
+            List<String> keys = new ArrayList<>();
+            for (Object key : fingerprints.keySet()) keys.add(String.valueOf(key));
+            Collections.sort(keys);
+
+            String[] parts = new String[keys.size()];
+            for (int i = 0; i < keys.size(); i++) {
+                parts[i] = (String) fingerprints.get(keys.get(i));
+            }
+            resultHash = Utils.hash(parts);
+        }
+
+        return resultHash;
+    }
+
     /* =================================================================================================================
                                                     PUBLIC FUNCTIONS
        ===============================================================================================================*/
 
+    /**
+     * Compute the key identifying an execution of the node with its current code and inputs.
+     * The key is a hash of the code of the node and of the result hashes of its previous nodes in the flow.
+     *
+     * If the key is the same as the one of a previous execution, the result will be exactly the same.
+     *
+     * @return {String} the execution key
+     */
+    public String computeExecutionKey () {
+        return computeExecutionKey(previousInFlow());
+    }
+
+    /**
+     * Compute the key identifying an execution of the node with its current code and the results of the given
+     * previous nodes. Used by the executions, that read the previous nodes from the snapshot of the flow they run.
+     *
+     * @param previousNodes {List<Node>} the previous nodes of this node, null if there is none
+     * @return {String} the execution key
+     */
+    public String computeExecutionKey (List<Node> previousNodes) {
+        List<String> parts = new ArrayList<>();
+        parts.add(getCode());
+
+        if (previousNodes != null) {
+            // Sort the hashes to make the key independent from the order of the edges
+            List<String> previousHashes = new ArrayList<>();
+            for (Node previous : new HashSet<>(previousNodes)) {
+                previousHashes.add(previous.getResultHash());
+            }
+            Collections.sort(previousHashes);
+            parts.addAll(previousHashes);
+        }
+
+        return Utils.hash(parts.toArray(new String[parts.size()]));
+    }
+
     @Override
     public String toString () {
-        build();
-        // Return it as a String
-        return node.toJSONString();
+        return toJSONString();
+    }
+
+    /**
+     * Serialize the node as a JSON String. The result is cached until the node changes, so serializing a flow
+     * only re-builds the nodes that changed since the last time.
+     * @return {String} the JSON String of the node
+     */
+    @Override
+    synchronized public String toJSONString () {
+        if (serialized == null) {
+            build();
+            serialized = node.toJSONString();
+        }
+
+        return serialized;
     }
 
     /**
      * Store the information that an edge has been connected to a port of the node.
-     * @param port {String} the name of the port on which the edge has been connected
+     * @param endpoint {EdgeEndpoint} the end of the edge that is connected to this node
      * @param edge {String} the id of the connected edge
      */
-    public void assignPortToEdge (String port, String edge) {
+    public void assignPortToEdge (EdgeEndpoint endpoint, String edge) {
         // Generate an event saying that the node has been updated
         nodeUpdated();
 
         // Retrieve the Port instance corresponding to the given port name
-        Port p = findPort(port);
+        Port p = findPort(endpoint.getPort());
         if (p != null) {
             // Connect the edge to the port
             p.addConnectedEdge(edge);
@@ -242,15 +379,15 @@ public class Node implements Comparable<Node>{
 
     /**
      * Remove the association between the port of the node and the edge
-     * @param port {String} the name of the port on which the edge has been disconnected
+     * @param endpoint {EdgeEndpoint} the end of the edge that is disconnected to this node
      * @param edge {String} the id of the disconnected edge
      */
-    public void unassignPortToEdge (String port, String edge) {
+    public void unassignPortToEdge (EdgeEndpoint endpoint, String edge) {
         // Generate an event saying that the node has been updated
         nodeUpdated();
 
         // Retrieve the Port instance corresponding to the given port name
-        Port p = findPort(port);
+        Port p = findPort(endpoint.getPort());
         if (p != null) {
             // Disconnect the edge from the port
             p.removeConnectedEdge(edge);
@@ -262,14 +399,20 @@ public class Node implements Comparable<Node>{
      * @return {JSONObject} containing the data (variables ) as key:pickle pairs and the key:stringified-json pairs
      */
     public JSONObject getPreviousNodesData() {
+        return getPreviousNodesData(previousInFlow());
+    }
+
+    /**
+     * Retrieve the data of all the given previous nodes.
+     * @param previousNodes {List<Node>} the nodes connected to the inports of this node, null if there is none
+     * @return {JSONObject} containing the data (variables ) as key:pickle pairs and the key:stringified-json pairs
+     */
+    public JSONObject getPreviousNodesData(List<Node> previousNodes) {
         // Create the result json that will contain the pickled and jsonified key:value pairs
         JSONObject res = new JSONObject();
         JSONObject pickled = new JSONObject();
         JSONObject jsonified = new JSONObject();
 
-        // Retrieve the list of nodes connected on the inports
-        ArrayList<Node> previousNodes = previousInFlow();
-
         if (previousNodes != null) {
             // Retrieve of pickled and jsonified data for each connected node.
             for(int i=0; i<previousNodes.size(); i++) {
@@ -312,25 +455,24 @@ public class Node implements Comparable<Node>{
     }
 
     /**
-     * Retrieve the list of nodes connected to the inports.
-     * @return {ArrayList<Node>} the list of node connected to the inports
+     * Retrieve the list of nodes connected to the inports, from the current snapshot of the flow.
+     * @return {List<Node>} the list of node connected to the inports, null if there is none
      */
-    public ArrayList<Node> previousInFlow () {
-        return nextOrPreviousNodeInFlow(getInports());
+    public List<Node> previousInFlow () {
+        return owningFlow.getSnapshot().previousNodes(this);
     }
 
     /**
-     * Retrieve the list of nodes connected to the outports.
-     * Usually used in order to know what are the next nodes to execute when running the flow.
-     * @return {ArrayList<Node>} the list of node connected to the outports
+     * Retrieve the list of nodes connected to the outports, from the current snapshot of the flow.
+     * @return {List<Node>} the list of node connected to the outports, null if there is none
      */
-    public ArrayList<Node> nextInFlow () {
+    public List<Node> nextInFlow () {
         /* In order to avoid running the next nodes if this node thrown an error on the last run,
          * we verify that the user modified his/her code after the last thrown error.
          * It he/she didn't, we return an empty list.
          */
         if (lastModification > lastError) {
-            return nextOrPreviousNodeInFlow(getOutports());
+            return owningFlow.getSnapshot().nextNodes(this);
         } else {
             return new ArrayList<>();
         }
@@ -355,34 +497,30 @@ public class Node implements Comparable<Node>{
 
     /**
      * Should the node be re-run ?
-     * If this node and this node's previous nodes in the flow haven't been modified since the last run
-     * it is not necessary to run it again, the result will be exactly the same.
+     * If neither the code of this node nor the results of this node's previous nodes in the flow changed since
+     * the last run, it is not necessary to run it again, the result will be exactly the same.
      *
-     * To make sure this is reliable, it will verify that all nodes connected to the inports of this node haven't been
-     * modified, and their own previous node that will themselves verified that their previous node haven't been modified
-     * and so on, recursively.
-     * @return
+     * To make sure this is reliable, it compares the key of the execution that produced the current result with
+     * the key computed from the current code and the current results of the previous nodes. The previous nodes are
+     * executed before this one, so their results are up to date when this method is called.
+     * @return {boolean} True if the node has to be executed
      */
     public boolean shouldBeReRun () {
+        return shouldBeReRun(previousInFlow());
+    }
+
+    /**
+     * Should the node be re-run, given its previous nodes ? See shouldBeReRun().
+     * @param previousNodes {List<Node>} the previous nodes of this node, null if there is none
+     * @return {boolean} True if the node has to be executed
+     */
+    public boolean shouldBeReRun (List<Node> previousNodes) {
         // First and obvious verification : if the node is not executable, we won't run it.
         if (!isExecutable()) {
             return false;
         } else {
-            // Otherwise, step by step we verify what's explained above.
-
-            // Has this node been modified since last run ?
-            boolean res = lastRun < lastModification;
-
-            // Have this node's previous nodes in flow been modified (including input data) since last run.
-            ArrayList<Node> previousNodes = previousInFlow();
-
-            if(previousNodes != null) {
-                for (Node previous : previousNodes) {
-                    res = res || previous.lastModification > this.lastRun;
-                }
-            }
-
-            return  res;
+            // Otherwise, we compare the execution keys
+            return executionKey == null || !executionKey.equals(computeExecutionKey(previousNodes));
         }
 
     }
@@ -433,6 +571,7 @@ public class Node implements Comparable<Node>{
     public void emptyTraceback () {
         if (this.metadata != null) {
             this.metadata.put("traceback", "");
+            invalidateJson();
         }
     }
 
@@ -504,63 +643,6 @@ public class Node implements Comparable<Node>{
         return null;
     }
 
-    /**
-     * Give all the nodes connected to the opposite side of the edges connected to the given ports.
-     * The given ports must be either the inports of this block or the ouports.
-     * @param ports {Ports} the ports you want to get the nodes connected to the opposite of the edges
-     * @return {ArrayList<Node>} the list of nodes connected to the opposite of the edges connected to the given ports
-     */
-    private ArrayList<Node> nextOrPreviousNodeInFlow (Ports ports) {
-        // Create the object that will be returned
-        ArrayList<Node> res = new ArrayList<>();
-        boolean previous = ports == getInports();
-
-        // Search the previous or next nodes for each ports in ports an add them into res
-        for (int i=0; i<ports.size(); i++) {
-            ArrayList<Node> n = oppositeNodesForPort(ports.get(i), previous);
-            if (n != null) {
-                for(int j=0; j<n.size(); j++) {
-                    res.add(n.get(j));
-                }
-            }
-        }
-
-        // End
-        return res.size() == 0 ? null : res;
-    }
-
-    /**
-     * Get the nodes connected to the opposite side of the edges connected to the given port.
-     * Choose between getting the nodes at the beginning or at the end of the edges.
-     * @param p {Port} the port used to retrieve the connected edges and their src or tgt nodes
-     * @param previousNode {boolean} do you want to previous nodes or next nodes ?
-     *                     Using the flow execution order as the reference for previous or next.
-     * @return {ArrayList<Node>} the list of nodes on the opposite of the port
-     */
-    private ArrayList<Node> oppositeNodesForPort(Port p, boolean previousNode) {
-        // First : retrieve the edge
-        ArrayList<String> edgesIds = p.getConnectedEdgesId();
-        ArrayList<Node> oppositeNodes = new ArrayList<>();
-
-        for (int i=0; i<edgesIds.size(); i++) {
-            Edge e = owningFlow.getEdge(edgesIds.get(i));
-            // Second : determine whether we have to return the src or tgt node of this edge
-            try {
-                String resNodeId = (String) (previousNode ? e.getSrc().get("node") : e.getTgt().get("node"));
-                // Add the node into the list
-                oppositeNodes.add(owningFlow.getNode(resNodeId, owningFlow.getId()));
-            } catch (NullPointerException e1) {
-                // Do nothing, continue
-            }
-        }
-
-
-        // Finally, if there is no edge we return null
-        if(oppositeNodes.size() == 0) return null;
-
-        return oppositeNodes;
-    }
-
     /**
      * Send an updatenode message to the UIs connected to the workspace this node is on.
      */
@@ -575,5 +657,13 @@ public class Node implements Comparable<Node>{
     private void nodeUpdated () {
         date = new Date();
         lastModification = date.getTime();
+        invalidateJson();
+    }
+
+    /**
+     * Drop the cached JSON of the node. Must be called each time the content of the JSON changes.
+     */
+    synchronized private void invalidateJson () {
+        serialized = null;
     }
 }
@@ -1,5 +1,6 @@
 package fr.irisa.diverse.Flow;
 
+import org.json.simple.JSONAware;
 import org.json.simple.JSONObject;
 
 import java.util.ArrayList;
@@ -18,10 +19,11 @@ import java.util.UUID;
  *
  * Created by antoine on 29/05/17.
  */
-public class Port {
+public class Port implements JSONAware {
 
     // Attributes
     private JSONObject portJSON = null;
+    private String serialized = null; // The cached JSON String of the port, null when the port changed
     private String id = "";
     private String name = "";
     private String port = "";
@@ -130,6 +132,7 @@ public class Port {
      */
     public void setNode(String node) {
         this.node = node;
+        invalidateJson();
     }
 
     /**
@@ -139,6 +142,7 @@ public class Port {
      */
     public void setConnectedEdges(ArrayList<String> connectedEdges) {
         this.connectedEdges = connectedEdges;
+        invalidateJson();
     }
 
     /**
@@ -148,6 +152,7 @@ public class Port {
     public void addConnectedEdge (String edgeId) {
         if (this.connectedEdges.indexOf(edgeId) == -1) {
             this.connectedEdges.add(edgeId);
+            invalidateJson();
         }
     }
 
@@ -158,6 +163,7 @@ public class Port {
     public void removeConnectedEdge (String edgeId) {
         if (this.connectedEdges.indexOf(edgeId) != -1) {
             this.connectedEdges.remove(this.connectedEdges.indexOf(edgeId));
+            invalidateJson();
         }
     }
 
@@ -167,13 +173,25 @@ public class Port {
 
     @Override
     public String toString () {
-        build();
-        // Return it as a String
-        return portJSON.toJSONString();
+        return toJSONString();
+    }
+
+    /**
+     * Serialize the port as a JSON String. The result is cached until the port changes.
+     * @return {String} the JSON String of the port
+     */
+    @Override
+    synchronized public String toJSONString () {
+        if (serialized == null) {
+            build();
+            serialized = portJSON.toJSONString();
+        }
+
+        return serialized;
     }
 
     public JSONObject toJson() {
-        build();
+        toJSONString();
         return portJSON;
     }
 
@@ -181,6 +199,13 @@ public class Port {
                                                     PRIVATE FUNCTIONS
        ===============================================================================================================*/
 
+    /**
+     * Drop the cached JSON of the port. Must be called each time the content of the JSON changes.
+     */
+    synchronized private void invalidateJson () {
+        serialized = null;
+    }
+
     /**
      * Build the port object in order to create a JSON that can be serialized and sent.
      *
@@ -0,0 +1,241 @@
+package fr.irisa.diverse.Jupyter.JupyterChannels;
+
+import fr.irisa.diverse.Core.Kernel;
+import org.zeromq.ZMQ;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A ChannelsReactor runs the sockets of the Jupyter channels of many kernels in a single thread.
+ *
+ * Every channel of the server uses the same ZMQ context. The channels of a kernel are given to one of the
+ * NB_OF_REACTORS reactors, so the number of threads doesn't depend on the number of kernels. Each reactor polls the
+ * sockets of its channels with a ZMQ.Poller, and gives the messages received to the channels, that dispatch them to
+ * the Manager of their kernel.
+ *
+ * ZMQ sockets must not be used by several threads, so every operation on a socket is done by the thread of its
+ * reactor : the other threads submit tasks, that wake the reactor up through a Pipe registered in its poller.
+ *
+ * The number of reactors and of ZMQ I/O threads can be configured with the padins.zmq.reactors and
+ * padins.zmq.ioThreads system properties.
+ */
+public class ChannelsReactor implements Runnable {
+
+    // Configuration
+    public static final int NB_OF_REACTORS = Math.max(1, Integer.getInteger("padins.zmq.reactors",
+            Math.min(2, Runtime.getRuntime().availableProcessors())));
+    private static final int NB_OF_IO_THREADS = Math.max(1, Integer.getInteger("padins.zmq.ioThreads", 1));
+
+    // Shared objects
+    private static final ZMQ.Context context = ZMQ.context(NB_OF_IO_THREADS);
+    private static final ChannelsReactor[] reactors = new ChannelsReactor[NB_OF_REACTORS];
+
+    // Attributes
+    private final Thread thread;
+    private final ZMQ.Poller poller;
+    private final Map<ZMQ.Socket, JupyterChannel> channels; // Only used by the thread of the reactor
+    private final ConcurrentLinkedQueue<Runnable> tasks;
+    private final Pipe wakeup;
+    private final ByteBuffer wakeupBuffer;
+
+    // Constructor
+    private ChannelsReactor (int index) throws IOException {
+        this.poller = context.poller(16);
+        this.channels = new HashMap<>();
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.wakeupBuffer = ByteBuffer.allocate(64);
+
+        this.wakeup = Pipe.open();
+        wakeup.source().configureBlocking(false);
+        poller.register(wakeup.source(), ZMQ.Poller.POLLIN);
+
+        this.thread = new Thread(this, "jupyter-channels-" + index);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /*==================================================================================================================
+                                              PUBLIC CLASS METHODS
+     =================================================================================================================*/
+
+    /**
+     * Get the reactor running the channels of a kernel. All the channels of a kernel run on the same reactor.
+     *
+     * @param kernel : the kernel
+     * @return the reactor of the kernel
+     */
+    public static ChannelsReactor forKernel (Kernel kernel) {
+        int index = Math.floorMod(System.identityHashCode(kernel), NB_OF_REACTORS);
+
+        synchronized (reactors) {
+            if (reactors[index] == null) {
+                try {
+                    reactors[index] = new ChannelsReactor(index);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Unable to start the Jupyter channels reactor", e);
+                }
+            }
+            return reactors[index];
+        }
+    }
+
+    /**
+     * @return the ZMQ context shared by every channel
+     */
+    public static ZMQ.Context getContext () {
+        return context;
+    }
+
+    /**
+     * Run a task on the thread of the reactor, without waiting for it.
+     *
+     * @param task : the task, that can use the sockets of the reactor
+     */
+    public void execute (Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != thread) wakeUp();
+    }
+
+    /**
+     * Run a task on the thread of the reactor and wait for it to be done.
+     *
+     * @param task : the task, that can use the sockets of the reactor
+     */
+    public void executeAndWait (Runnable task) {
+        if (Thread.currentThread() == thread) {
+            task.run();
+            return;
+        }
+
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        execute(() -> {
+            try {
+                task.run();
+                done.complete(null);
+            } catch (RuntimeException e) {
+                done.completeExceptionally(e);
+            }
+        });
+
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        }
+    }
+
+    /**
+     * @return true if the thread of the reactor is running
+     */
+    public boolean isAlive () {
+        return thread.isAlive();
+    }
+
+    /**
+     * Loop of the reactor : wait for incoming messages, timers or tasks, and handle them.
+     */
+    @Override
+    public void run () {
+        while (!Thread.currentThread().isInterrupted()) {
+            runTasks();
+
+            // Wait until the next timer of a channel, like the ping of the heartbeats
+            long now = System.currentTimeMillis();
+            long next = Long.MAX_VALUE;
+            for (JupyterChannel channel : channels.values()) {
+                next = Math.min(next, channel.onTimer(now));
+            }
+            long timeout = next == Long.MAX_VALUE ? -1 : Math.max(0, next - System.currentTimeMillis());
+
+            try {
+                poller.poll(timeout);
+            } catch (RuntimeException e) {
+                // The context has been terminated
+                e.printStackTrace();
+                break;
+            }
+
+            for (int i = 0; i < poller.getNext(); i++) {
+                if (poller.getItem(i) == null || !poller.pollin(i)) continue;
+
+                ZMQ.Socket socket = poller.getSocket(i);
+                if (socket == null) {
+                    drainWakeUp();
+                    continue;
+                }
+
+                JupyterChannel channel = channels.get(socket);
+                if (channel == null) continue;
+
+                try {
+                    channel.onReadable();
+                } catch (RuntimeException e) {
+                    // A message that can't be handled must not stop the other channels
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /*==================================================================================================================
+                                              PACKAGE CLASS METHODS
+     =================================================================================================================*/
+
+    /**
+     * Start polling the socket of a channel. Must be called from the thread of the reactor.
+     */
+    void register (JupyterChannel channel, ZMQ.Socket socket) {
+        channels.put(socket, channel);
+        poller.register(socket, ZMQ.Poller.POLLIN);
+    }
+
+    /**
+     * Stop polling the socket of a channel. Must be called from the thread of the reactor.
+     */
+    void unregister (ZMQ.Socket socket) {
+        if (channels.remove(socket) != null) poller.unregister(socket);
+    }
+
+    /*==================================================================================================================
+                                              PRIVATE CLASS METHODS
+     =================================================================================================================*/
+
+    private void runTasks () {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void wakeUp () {
+        synchronized (wakeup) {
+            try {
+                wakeup.sink().write(ByteBuffer.wrap(new byte[]{1}));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void drainWakeUp () {
+        try {
+            wakeupBuffer.clear();
+            while (wakeup.source().read(wakeupBuffer) > 0) wakeupBuffer.clear();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -2,7 +2,6 @@ package fr.irisa.diverse.Jupyter.JupyterChannels;
 
 import fr.irisa.diverse.Core.Kernel;
 import org.zeromq.ZMQ;
-import org.zeromq.ZMQException;
 
 /**
  * The Heartbeat channel is one of the five channel used to communicate with a Jupyter Kernel.
@@ -25,7 +24,6 @@ public class HeartbeatChannel extends JupyterChannel {
 
     /* Superclass attributes
        String name;
-       ZContext context = null;
        Socket socket = null;
        String socketAddress;
        String identity;
@@ -33,49 +31,48 @@ public class HeartbeatChannel extends JupyterChannel {
        boolean log = false;
        Kernel owningKernel;
        Manager messagesManager;
-       Thread thread;
     */
 
+    // Configuration
+    private static final long PING_PERIOD = 1000;
+
+    // Attributes
+    private long nextPing = 0;
+    private boolean waitingForAnswer = false;
+
     public HeartbeatChannel(String name, String transport, String ip, long port, String containerID, Kernel kernel) {
         super(name, transport, ip, port, containerID, ZMQ.REQ, kernel);
     }
 
     /**
-     * Run methods from Runnable interface
+     * Called by the reactor when the answer to the ping is received.
      */
     @Override
-    public void run() {
-        initializeThread();
-
-        // Loop that will run whenever the Thread runs
-        // This is where we will handle the socket behavior
-        while(!Thread.currentThread().isInterrupted()) {
-            try {
-                // Send 'ping' every second
-                Thread.sleep(1000);
-                socket.send("ping".getBytes(), 0);
+    void onReadable() {
+        while (socket != null && (socket.getEvents() & ZMQ.Poller.POLLIN) != 0) {
+            String message = socket.recvStr(ZMQ.DONTWAIT);
+            waitingForAnswer = false;
 
-                // Wait for the answer
-                String message = socket.recvStr();
-                // Log the answer if configured
-                if (this.log) System.out.println("Received : " + message + " on socket " + name);
+            // Log the answer if configured
+            if (this.log) System.out.println("Received : " + message + " on socket " + name);
+        }
+    }
 
-            } catch (ZMQException e) {
-                // Catch a ZMQException in order to close the channel properly.
-                // It is thrown only when we call context.term
-                if (e.getErrorCode() == ZMQ.Error.ETERM.getCode()) {
-                    break;
-                }
-            } catch (InterruptedException e)  {
-                break;
-            }
+    /**
+     * Send 'ping' every second, once the previous one has been answered : a REQ socket must receive the reply
+     * before sending a new request.
+     */
+    @Override
+    long onTimer(long now) {
+        if (socket == null) return Long.MAX_VALUE;
 
+        if (!waitingForAnswer && now >= nextPing) {
+            socket.send("ping".getBytes(), 0);
+            waitingForAnswer = true;
+            nextPing = now + PING_PERIOD;
         }
 
-        // Finally close the socket properly
-        socket.setLinger(0);
-        socket.close();
-        this.connected = false;
+        return waitingForAnswer ? Long.MAX_VALUE : nextPing;
     }
 
     /* =================================================================================================================
@@ -85,10 +82,14 @@ public class HeartbeatChannel extends JupyterChannel {
        ===============================================================================================================*/
 
     @Override
-    protected void initializeThread() {
+    protected void initializeSocket() {
         // First : connect to the ZMQ server
         this.socket.connect(this.socketAddress);
         this.connected = true;
+
+        // The first ping is sent after one second
+        this.nextPing = System.currentTimeMillis() + PING_PERIOD;
+        this.waitingForAnswer = false;
     }
 
 }
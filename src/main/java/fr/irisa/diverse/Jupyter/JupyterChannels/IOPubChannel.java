@@ -25,7 +25,6 @@ public class IOPubChannel extends JupyterChannel {
     /* Superclass attributes
     -----------------------------------------
         String name;
-        ZContext context = null;
         Socket socket = null;
         String socketAddress;
         String identity;
@@ -33,7 +32,6 @@ public class IOPubChannel extends JupyterChannel {
         boolean log = false;
         Kernel owningKernel;
         Manager messagesManager;
-        Thread thread;
      */
 
     public IOPubChannel(String name, String transport, String ip, long port, String containerID, Kernel kernel) {
@@ -47,7 +45,7 @@ public class IOPubChannel extends JupyterChannel {
        ===============================================================================================================*/
 
     @Override
-    protected void initializeThread() {
+    protected void initializeSocket() {
         // First : connect the server
         this.socket.connect(this.socketAddress);
         this.socket.subscribe("".getBytes());
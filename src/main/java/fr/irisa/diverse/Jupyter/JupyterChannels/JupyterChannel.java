@@ -7,12 +7,12 @@ import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 import org.zeromq.ZMQ;
-import org.zeromq.ZMQ.Context;
 import org.zeromq.ZMQ.Socket;
-import org.zeromq.ZMQException;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.regex.Matcher;
+import java.util.Arrays;
+import java.util.List;
 import java.util.regex.Pattern;
 
 
@@ -25,9 +25,12 @@ import java.util.regex.Pattern;
  *
  * When needed, the child classes (Heartbeat, IOPub, Shell, Control, Stdin) override the necessary methods and attributes.
  *
+ * The channels don't have their own thread : their sockets are polled by the ChannelsReactor of their kernel, that
+ * also does every operation on them.
+ *
  * Created by antoine on 28/04/17.
  */
-public abstract class JupyterChannel implements Runnable {
+public abstract class JupyterChannel {
 
     /*==================================================================================================================
                                                     ATTRIBUTES
@@ -36,15 +39,17 @@ public abstract class JupyterChannel implements Runnable {
     // Main attributes
     String name;
     private final int JUPYTER_MESSAGE_LENGTH = 7;
-    private String lastCorrectUuidReceived = "";
-    private ArrayList<String> incomingMessage = null;
+    private static final byte[] DELIMITER = "<IDS|MSG>".getBytes(ZMQ.CHARSET);
+    private static final Pattern UUID_PATTERN = Pattern.compile("(kernel)\\.([a-z-0-9-\\-]){36}\\.(.*)");
+    private byte[] lastCorrectUuidReceived = new byte[0];
+    private ArrayList<byte[]> incomingMessage = null;
 
     // ZMQ and socket related attributes
-    Context context = null;
     Socket socket = null;
     String socketAddress;
     private String identity;
     private int socketType;
+    private final ChannelsReactor reactor;
 
     // Communication state attributes
     boolean connected = false;
@@ -53,11 +58,11 @@ public abstract class JupyterChannel implements Runnable {
     // Attributes related to this program architecture : the linked objects.
     Kernel owningKernel;
     Manager messagesManager;
-    private Thread thread;
 
-    //Attributes related to history
-    private boolean storeHistory = true;
-    private ArrayList<ArrayList<String>> history = null;
+    //Attributes related to history, disabled by default as the channels of a kernel can live for a long time
+    private static final int HISTORY_SIZE = 100; // Number of messages kept in the history
+    private boolean storeHistory = false;
+    private ArrayDeque<List<byte[]>> history = null; // Last received messages, without their binary buffers
 
     /*==================================================================================================================
                                                     CONSTRUCTOR
@@ -69,20 +74,15 @@ public abstract class JupyterChannel implements Runnable {
         this.socketType = socketType;
         this.owningKernel = kernel;
 
-        // Create the ZMQ context and the socket (without connecting it)
-        this.context = ZMQ.context(1);
-        this.socket = context.socket(socketType);
-        // Set Linger to 1s to prevent hangs at exit
-        this.socket.setLinger(1000);
+        // The socket is created by the reactor of the kernel, that runs all its channels
+        this.reactor = ChannelsReactor.forKernel(kernel);
 
-        // Store the address of the socket and set its identity
-        setIdentity(containerID);
+        // Store the address of the socket and its identity
+        this.identity = containerID;
         this.socketAddress = transport + "://" + ip + ":" + port;
-        socket.setIdentity(containerID.getBytes());
 
-        // Create the incoming message & history object
+        // Create the incoming message object
         incomingMessage = new ArrayList<>();
-        history = new ArrayList<>();
     }
 
     // Constructor that also set log and storeHistory properties
@@ -92,114 +92,97 @@ public abstract class JupyterChannel implements Runnable {
         this.log = shouldLog;
         this.storeHistory = storeHistory;
 
-        if(storeHistory) history = new ArrayList<>();
+        if(storeHistory) history = new ArrayDeque<>();
     }
 
     /*==================================================================================================================
-                                               THREAD RELATED METHODS
+                                               REACTOR RELATED METHODS
      =================================================================================================================*/
 
     /**
-     * Run method from Runnable interface
+     * Called by the reactor when messages are waiting on the socket. Read and handle all of them.
      */
-    public void run() {
-        initializeThread();
-
-        // Loop that will run whenever the Thread runs
-        // This is where we will handle the socket behavior
-        while(!Thread.currentThread().isInterrupted()) {
-
-            try {
-                // First : empty the incomingMessage because we are receiving a new one.
-                incomingMessage = new ArrayList<>();
-
-                // We look for the delimiter to start handling the message
-                String lastMessageReceived = socket.recvStr();
-                while (!lastMessageReceived.equals("<IDS|MSG>")) {
-                    // We store the previous messages received, because we need the message right before the delimiter
-                    // in order to make verifications.
-                    // We look for the delimiter because it is always the same, so it makes its detection easier than
-                    // the message before it.
-                    incomingMessage.add(lastMessageReceived);
-
-                    lastMessageReceived = socket.recvStr();
-                }
+    void onReadable() {
+        while (socket != null && (socket.getEvents() & ZMQ.Poller.POLLIN) != 0) {
+            // A ZMQ multipart message is delivered at once, so all its frames are available.
+            // They are kept as received, the Manager decodes only what it needs.
+            ArrayList<byte[]> frames = new ArrayList<>(JUPYTER_MESSAGE_LENGTH);
+            do {
+                frames.add(socket.recv(ZMQ.DONTWAIT));
+            } while (socket.hasReceiveMore());
+
+            handleFrames(frames);
+        }
+    }
 
-                // Here we've received the delimiter.
-                // Now we check whether the previously received message was a uuid or not
-                if (incomingMessage.size() == 0) {
-                    // It means that we did not received any uuid.
-                    // So, we retrieve the previous one
-                    incomingMessage.add(0, lastCorrectUuidReceived);
-                } else if (!isUuid(incomingMessage.get(incomingMessage.size() - 1))) {
-                    // Last received message is not a correct uuid, we remove everything from incoming message, log it and
-                    for (int i = 0; i < incomingMessage.size(); i++) {
-                        System.out.println("\033[33m" + "[WARNING]" + "\033[0m" + " Loosing data on " + name + " socket : " + incomingMessage.get(0));
-                        incomingMessage.remove(0);
-                    }
-                    // add the correct uuid in the beginning
-                    incomingMessage.add(0, lastCorrectUuidReceived);
-
-                } else {
-                    // Uuid is correct and incomingMessage.size > 0
-                    if (incomingMessage.size() > 1) {
-                        for (int i = 0; i < incomingMessage.size() - 1; i++) {
-                            System.out.println("\033[33m" + "[WARNING]" + "\033[0m" + "Loosing data on " + name + " socket : " + incomingMessage.get(0));
-                            incomingMessage.remove(0);
-                        }
-                    }
+    /**
+     * Called by the reactor before it waits for incoming messages, in order to run timed behaviors.
+     *
+     * @param now : the current time, in milliseconds
+     * @return the time at which the reactor must call onTimer again, Long.MAX_VALUE if never
+     */
+    long onTimer(long now) {
+        return Long.MAX_VALUE;
+    }
 
-                    // Store the correct uuuid
-                    lastCorrectUuidReceived = incomingMessage.get(incomingMessage.size() - 1);
-                }
+    /**
+     * Open the socket and connect it, on the thread of the reactor.
+     */
+    private void open() {
+        if (socket != null) return;
 
-                incomingMessage.add(lastMessageReceived);   // delimiter <IDS|MSG>
-                incomingMessage.add(socket.recvStr());      // hmac
-                incomingMessage.add(socket.recvStr());      // header
-                incomingMessage.add(socket.recvStr());      // parent_header
-                incomingMessage.add(socket.recvStr());      // metadata
-                incomingMessage.add(socket.recvStr());      // content
-
-                // Log if configured
-                if (this.log) logMessage(incomingMessage);
-                // Save history if configured
-                if (this.storeHistory) history.add(incomingMessage);
-
-                // Finally handle the incoming message
-                handleMessage(incomingMessage);
-            } catch (ZMQException e) {
-                // Catch a ZMQException in order to close the channel properly.
-                // It is thrown only when we call context.term
-                if (e.getErrorCode() == ZMQ.Error.ETERM.getCode()) {
-                    break;
-                }
-            }
-        } // End while
+        this.socket = ChannelsReactor.getContext().socket(socketType);
+        // Set Linger to 1s to prevent hangs at exit
+        this.socket.setLinger(1000);
+        this.socket.setIdentity(identity.getBytes());
+
+        initializeSocket();
+        reactor.register(this, socket);
+    }
 
-        // End the thread by closing the socket properly
+    /**
+     * Close the socket, on the thread of the reactor.
+     */
+    private void close() {
+        if (socket == null) return;
+
+        reactor.unregister(socket);
         socket.setLinger(0);
         socket.close();
+        this.socket = null;
         this.connected = false;
     }
 
     /**
-     * Start the thread that makes the channel working
+     * Start the channel : its socket is connected and polled by the reactor of its kernel
      */
     public void start() {
-        if(thread == null) thread = new Thread(this);
         this.messagesManager = owningKernel.getMessagesManager();
-        thread.start();
+        reactor.execute(this::open);
     }
 
     /**
-     * Interrupt the channel by interrupting the thread
+     * Stop the channel and close its socket
      */
     public void stop() throws InterruptedException {
-        if(thread != null && !thread.isInterrupted()) {
-            context.term();
-            thread.interrupt();
-            thread.join();
-        }
+        reactor.executeAndWait(this::close);
+    }
+
+    /**
+     * Send a message as bytes, needed by Jupyter. The message is sent by the thread of the reactor, ZMQ sockets
+     * must not be shared between threads.
+     *
+     * @param message : the frames of the message to send
+     */
+    public void send (byte[][] message) {
+        reactor.execute(() -> {
+            if (socket == null) return;
+
+            for(int i=0; i<message.length-1; i++) {
+                socket.sendMore(message[i]);
+            }
+            socket.send(message[message.length-1], 0);
+        });
     }
 
     /*==================================================================================================================
@@ -219,26 +202,27 @@ public abstract class JupyterChannel implements Runnable {
      * @return {boolean} true if still alive, false otherwise
      */
     public boolean isRunning() {
-        return thread.isAlive();
+        return connected && reactor.isAlive();
     }
 
     /**
      * Set the identity of the ZMQ socket.
-     * The identity is sent as a message preceding the other messages sent with socket.sendMore and socket.send
+     * The identity is sent as a message preceding the other messages sent with socket.sendMore and socket.send.
+     * It is used the next time the channel is started.
      * @param identity : a String representing the chosen identity
      */
     public void setIdentity(String identity) {
         this.identity = identity;
-        this.socket.setIdentity(identity.getBytes());
     }
 
     /**
-     * Set the behavior of the channel about storing messages history
+     * Set the behavior of the channel about storing messages history.
+     * Only the last HISTORY_SIZE messages are kept, without their binary buffers.
      * @param b : true to store, false not to
      */
     public void doStoreHistory (boolean b) {
         // If user decide to start storing history and the history object hasn't been set yet, we set it
-        if (b && history == null) history = new ArrayList<>();
+        if (b && history == null) history = new ArrayDeque<>();
 
         // Set the boolean that will be used to store history
         this.storeHistory = b;
@@ -248,16 +232,85 @@ public abstract class JupyterChannel implements Runnable {
                                           CUSTOM METHODS FOR THIS CLASS ONLY
      =================================================================================================================*/
 
+    /**
+     * Normalize a message received on the socket into a complete Jupyter message and handle it.
+     *
+     * @param frames : all the frames of the received message
+     */
+    private void handleFrames (ArrayList<byte[]> frames) {
+        // First : empty the incomingMessage because we are receiving a new one.
+        incomingMessage = new ArrayList<>(JUPYTER_MESSAGE_LENGTH);
+
+        // We look for the delimiter to start handling the message
+        int delimiter = indexOfDelimiter(frames);
+        if (delimiter == -1 || frames.size() < delimiter + 6) {
+            System.out.println("\033[33m" + "[WARNING]" + "\033[0m" + " Loosing data on " + name + " socket : " + frames.size() + " frames without a complete message");
+            return;
+        }
+        // We store the messages received before the delimiter, because we need the message right before it
+        // in order to make verifications.
+        incomingMessage.addAll(frames.subList(0, delimiter));
+
+        // Now we check whether the previously received message was a uuid or not
+        if (incomingMessage.size() == 0) {
+            // It means that we did not received any uuid.
+            // So, we retrieve the previous one
+            incomingMessage.add(0, lastCorrectUuidReceived);
+        } else if (!isUuid(incomingMessage.get(incomingMessage.size() - 1))) {
+            // Last received message is not a correct uuid, we remove everything from incoming message, log it and
+            while (incomingMessage.size() > 0) {
+                System.out.println("\033[33m" + "[WARNING]" + "\033[0m" + " Loosing data on " + name + " socket : " + toString(incomingMessage.get(0)));
+                incomingMessage.remove(0);
+            }
+            // add the correct uuid in the beginning
+            incomingMessage.add(0, lastCorrectUuidReceived);
+
+        } else {
+            // Uuid is correct and incomingMessage.size > 0
+            while (incomingMessage.size() > 1) {
+                System.out.println("\033[33m" + "[WARNING]" + "\033[0m" + "Loosing data on " + name + " socket : " + toString(incomingMessage.get(0)));
+                incomingMessage.remove(0);
+            }
+
+            // Store the correct uuuid
+            lastCorrectUuidReceived = incomingMessage.get(0);
+        }
+
+        // delimiter <IDS|MSG>, hmac, header, parent_header, metadata and content, followed by the binary buffers
+        // of the message, if it has some
+        incomingMessage.addAll(frames.subList(delimiter, frames.size()));
+
+        // Log if configured
+        if (this.log) logMessage(incomingMessage);
+        // Save history if configured
+        if (this.storeHistory) storeInHistory(incomingMessage);
+
+        // Finally handle the incoming message
+        handleMessage(incomingMessage);
+    }
+
+    /**
+     * Keep a received message in the bounded history. The binary buffers, that can be large, are not kept.
+     *
+     * @param frames : complete Jupyter message
+     */
+    private void storeInHistory (ArrayList<byte[]> frames) {
+        history.addLast(new ArrayList<>(frames.subList(0, Math.min(frames.size(), JUPYTER_MESSAGE_LENGTH))));
+        if (history.size() > HISTORY_SIZE) history.removeFirst();
+    }
+
     /** Log all the messages received with their category name
      *
      * @param incomingMessage : complete Jupyter message. Look at the Jupyter doc to know more about it
      */
-    private void logMessage (ArrayList<String> incomingMessage) {
+    private void logMessage (ArrayList<byte[]> frames) {
+        ArrayList<String> incomingMessage = new ArrayList<>(frames.size());
+        for (byte[] frame : frames) incomingMessage.add(toString(frame));
 
         String msg = "\n------- MESSAGE RECEIVED ON " + name + " CHANNEL -------";
 
         // First, we verify that the message is as long as a common Jupyter message
-        if (incomingMessage.size() == JUPYTER_MESSAGE_LENGTH) {
+        if (incomingMessage.size() >= JUPYTER_MESSAGE_LENGTH) {
             // If so, we log it into the shell with prefix
             msg += "\nUUID : " + incomingMessage.get(0);
             msg += "\nDelimiter : " + incomingMessage.get(1);
@@ -301,28 +354,34 @@ public abstract class JupyterChannel implements Runnable {
      *
      * @param incomingMessage : the received message, look at Jupyter doc to know its format
      */
-    private void handleMessage(ArrayList<String> incomingMessage) {
+    private void handleMessage(ArrayList<byte[]> incomingMessage) {
 
         messagesManager.handleMessage(name, incomingMessage);
     }
 
     /**
-     * Verify whether the given message is a correct UUID (Universally Unique IDentifier)
-     * @param message {String} the message to test
-     * @return {boolean} True if the message is a UUID, false otherwise.
+     * Verify whether the given frame is a correct UUID (Universally Unique IDentifier)
+     * @param frame {byte[]} the frame to test
+     * @return {boolean} True if the frame is a UUID, false otherwise.
      */
-    private boolean isUuid (String message) {
-        // Define the REGEX for an ip address
-        String UUID_PATTERN = "(kernel)\\.([a-z-0-9-\\-]){36}\\.(.*)";
-
-        // Create a pattern object used to run the regex
-        Pattern pattern = Pattern.compile(UUID_PATTERN);
+    private boolean isUuid (byte[] frame) {
+        return UUID_PATTERN.matcher(toString(frame)).matches();
+    }
 
-        // Create an object that verify whether the given "message" match the regex previously given
-        Matcher matcher = pattern.matcher(message);
+    /**
+     * Find the <IDS|MSG> delimiter, that separates the identities from the message.
+     * @param frames : the frames of the received message
+     * @return the index of the delimiter, -1 if there is none
+     */
+    private int indexOfDelimiter (ArrayList<byte[]> frames) {
+        for (int i = 0; i < frames.size(); i++) {
+            if (Arrays.equals(frames.get(i), DELIMITER)) return i;
+        }
+        return -1;
+    }
 
-        // Run and return the test
-        return matcher.matches();
+    private static String toString (byte[] frame) {
+        return new String(frame, ZMQ.CHARSET);
     }
 
     /*==================================================================================================================
@@ -330,9 +389,10 @@ public abstract class JupyterChannel implements Runnable {
      =================================================================================================================*/
 
     /**
-     * Define a initializeThread method that should be overridden by the child classes.
+     * Define a initializeSocket method that should be overridden by the child classes.
      *
-     * This method is called when the Thread start in order to initialize what needs to be initialized.
+     * This method is called by the reactor when the channel starts, once the socket is created, in order to connect
+     * it and initialize what needs to be initialized.
      */
-    protected abstract void initializeThread();
+    protected abstract void initializeSocket();
 }
@@ -25,7 +25,6 @@ public class ShellChannel extends JupyterChannel {
 
     /* Superclass attributes
         String name;
-        ZContext context = null;
         Socket socket = null;
         String socketAddress;
         String identity;
@@ -33,7 +32,6 @@ public class ShellChannel extends JupyterChannel {
         boolean log = false;
         Kernel owningKernel;
         Manager messagesManager;
-        Thread thread;
      */
 
     public ShellChannel(String name, String transport, String ip, long port, String containerID, Kernel kernel) {
@@ -41,7 +39,7 @@ public class ShellChannel extends JupyterChannel {
     }
 
     @Override
-    protected void initializeThread() {
+    protected void initializeSocket() {
         // First : connect the server
         this.socket.connect(this.socketAddress);
         this.connected = true;
@@ -54,17 +52,6 @@ public class ShellChannel extends JupyterChannel {
        =================================================================================================================
        ===============================================================================================================*/
 
-    /**
-     * Send a message as bytes, needed by Jupyter
-     * @param message : the message to send to the shell
-     */
-    public void send (String[] message) {
-        for(int i=0; i<message.length-1; i++) {
-            socket.sendMore(message[i].getBytes());
-        }
-        socket.send(message[message.length-1]);
-    }
-
     /**
      * Send a KernelInfoRequest message.
      *
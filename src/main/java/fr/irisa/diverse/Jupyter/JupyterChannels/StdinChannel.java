@@ -20,7 +20,6 @@ public class StdinChannel extends JupyterChannel {
 
     /* Superclass attributes
         String name;
-        ZContext context = null;
         Socket socket = null;
         String socketAddress;
         String identity;
@@ -28,7 +27,6 @@ public class StdinChannel extends JupyterChannel {
         boolean log = false;
         Kernel owningKernel;
         Manager messagesManager;
-        Thread thread;
      */
 
     public StdinChannel(String name, String transport, String ip, long port, String containerID, Kernel kernel) {
@@ -42,20 +40,9 @@ public class StdinChannel extends JupyterChannel {
        ===============================================================================================================*/
 
     @Override
-    protected void initializeThread() {
+    protected void initializeSocket() {
         // First : connect the server
         this.socket.connect(this.socketAddress);
         this.connected = true;
     }
-
-    /**
-     * Send a message as bytes, needed by Jupyter
-     * @param message : the message to send to the shell
-     */
-    public void send (String[] message) {
-        for(int i=0; i<message.length-1; i++) {
-            socket.sendMore(message[i].getBytes());
-        }
-        socket.send(message[message.length-1]);
-    }
 }
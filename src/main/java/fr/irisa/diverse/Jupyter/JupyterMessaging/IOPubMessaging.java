@@ -59,6 +59,15 @@ class IOPubMessaging {
             case "stream" :
                 handleStreamMessage (message);
                 break;
+            case "comm_open" :
+                handleCommOpenMessage (message);
+                break;
+            case "comm_msg" :
+                handleCommMessage (message);
+                break;
+            case "comm_close" :
+                handleCommCloseMessage (message);
+                break;
         }
     }
 
@@ -81,6 +90,9 @@ class IOPubMessaging {
         // Set the state of the kernel
         if(executionState.equals("idle")) kernel.setIdleState(true);
         else kernel.setIdleState(false);
+
+        // The kernel goes back to idle once it has handled a request : if it is an execution, it is finished
+        if (executionState.equals("idle")) kernel.executionFinished((String) message.getParentHeader().get("msg_id"));
     }
 
     /**
@@ -94,7 +106,10 @@ class IOPubMessaging {
         JSONObject content = message.getContent();
 
         // Content contains ename, evalue and traceback
-        kernel.owningWorkspace.clientCommunicationManager.handleTracebackFromKernel((JSONArray) content.get("traceback"), this.kernel);
+        String nodeId = kernel.getNodeIdForExecution((String) message.getParentHeader().get("msg_id"));
+        if (nodeId != null) {
+            kernel.owningWorkspace.clientCommunicationManager.handleTracebackFromKernel((JSONArray) content.get("traceback"), nodeId);
+        }
     }
 
     /**
@@ -159,14 +174,61 @@ class IOPubMessaging {
         // TODO
     }
 
+    /**
+     * Handle a comm_open message, according to this doc :
+     * http://jupyter-client.readthedocs.io/en/latest/messaging.html#opening-a-comm
+     *
+     * Our implementation behavior: the executions open a comm with the padins.results target to send the data to
+     * the next nodes as binary buffers, see sendTheseDataToNextNodes. The comms with another target are closed,
+     * as no such target exists on this side.
+     * @param message {JupyterMessage} the received message
+     */
+    private void handleCommOpenMessage(JupyterMessage message) {
+        JSONObject content = message.getContent();
+        String commId = (String) content.get("comm_id");
+
+        if (Kernel.RESULTS_COMM_TARGET.equals(content.get("target_name"))) {
+            kernel.resultsCommOpened(commId, (String) message.getParentHeader().get("msg_id"));
+        } else {
+            kernel.getMessagesManager().sendMessageOnShell().sendCommCloseMessage(commId);
+        }
+    }
+
+    /**
+     * Handle a comm_msg message, according to this doc :
+     * http://jupyter-client.readthedocs.io/en/latest/messaging.html#comm-messages
+     *
+     * Our implementation behavior: on a results comm, each message carries one variable, described by its data
+     * and whose value is in the buffers of the message. It is given to the kernel.
+     * @param message {JupyterMessage} the received message
+     */
+    private void handleCommMessage(JupyterMessage message) {
+        JSONObject content = message.getContent();
+        String commId = (String) content.get("comm_id");
+
+        if (!kernel.resultsCommMessage(commId, (JSONObject) content.get("data"), message.getBuffers())) {
+            System.err.println("Received message on unknown comm " + commId);
+        }
+    }
+
+    /**
+     * Handle a comm_close message, according to this doc :
+     * http://jupyter-client.readthedocs.io/en/latest/messaging.html#tearing-down-comms
+     *
+     * @param message {JupyterMessage} the received message
+     */
+    private void handleCommCloseMessage(JupyterMessage message) {
+        kernel.resultsCommClosed((String) message.getContent().get("comm_id"));
+    }
+
     /**
      * Handle a stream message, according to this doc :
      * http://jupyter-client.readthedocs.io/en/latest/messaging.html#streams-stdout-stderr-etc
      *
      * Our implementation behavior:
      * - STDOUT : we use the stdout to retrieve the data to share across nodes.
-     * So, we store the lines of the stdout in a variable. Then the kernel handles it by storing
-     * the data into the corresponding node.
+     * A large stdout is split into several messages, so each chunk is given to the kernel that decodes them
+     * and stores the data into the corresponding node once the execution is finished.
      *
      * -STDERR : we do not handle the stderr for now. The error message sends the traceback use for
      * debugging.
@@ -181,9 +243,8 @@ class IOPubMessaging {
 
         if (message.getParentHeader().get("msg_type").equals("execute_request")) {
             if (content.get("name").equals("stdout")) {
-                // If we receive something on stdout, we store the result of each variable
-                String result = content.get("text").toString();
-                this.kernel.handleExecutionResult(result.split("\\r\\n|\\n|\\r"));
+                // If we receive something on stdout, it contains a part of the result of each variable
+                this.kernel.executionOutput((String) message.getParentHeader().get("msg_id"), text);
 
             } else if (content.get("name").equals("stderr")) {
 
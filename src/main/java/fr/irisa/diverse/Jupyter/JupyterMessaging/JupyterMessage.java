@@ -4,15 +4,17 @@ import fr.irisa.diverse.Core.Kernel;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
+import org.zeromq.ZMQ;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.TimeZone;
 import java.util.UUID;
 
@@ -29,7 +31,9 @@ class JupyterMessage {
      =================================================================================================================*/
 
     private Kernel kernel = null;
-    private JSONObject message;
+    private List<byte[]> frames = null; // Frames of an incoming message, decoded on demand
+    private List<byte[]> buffers = null; // Binary buffers of a message to send
+    private JSONParser parser = null;
 
     // Main elements of the message
     private final int JUPYTER_MESSAGE_LENGTH = 7;
@@ -90,37 +94,22 @@ class JupyterMessage {
 
     /** Constructor for incoming messages
      *
-     * @param incomingMessage : Array of String containing the parts of the message
+     * The frames are kept as received. Only the header is decoded here, because it is needed to route the message.
+     * The other parts are decoded the first time they are read.
+     *
+     * @param incomingMessage : the frames of the message : uuid, delimiter, hmac, header, parent_header, metadata
+     *                        and content, followed by its binary buffers
      */
-    public JupyterMessage(Kernel kernel, ArrayList<String> incomingMessage) {
+    public JupyterMessage(Kernel kernel, List<byte[]> incomingMessage) {
         // Store the source kernel instance
         this.kernel = kernel;
 
-        // Create the message from the received data
-        message = new JSONObject();
-
-        if(incomingMessage.size() == JUPYTER_MESSAGE_LENGTH) {
-            message.put("uuid", incomingMessage.get(0));
-            this.uuid = incomingMessage.get(0);
-            message.put("delimiter", incomingMessage.get(1));
-            this.delimiter = incomingMessage.get(1);
-            message.put("hmac", incomingMessage.get(2));
-            this.hmac = incomingMessage.get(2);
-            message.put("header", incomingMessage.get(3));
-            message.put("parent_header", incomingMessage.get(4));
-            message.put("metadata", incomingMessage.get(5));
-            message.put("content", incomingMessage.get(6));
-
-            // Construct the header, parent_header, metadata and content to make them easily accessible
-            JSONParser jsonParser = new JSONParser();
-            try {
-                header = (JSONObject) jsonParser.parse(incomingMessage.get(3));
-                parent_header = (JSONObject) jsonParser.parse(incomingMessage.get(4));
-                metadata = (JSONObject) jsonParser.parse(incomingMessage.get(5));
-                content = (JSONObject) jsonParser.parse(incomingMessage.get(6));
-            } catch (ParseException e) {
-                e.printStackTrace();
-            }
+        if(incomingMessage.size() >= JUPYTER_MESSAGE_LENGTH) {
+            this.frames = incomingMessage;
+            this.uuid = toString(incomingMessage.get(0));
+            this.delimiter = toString(incomingMessage.get(1));
+            this.hmac = toString(incomingMessage.get(2));
+            this.header = parseFrame(3);
         } else {
             System.err.println("Incoming message error : missing informations");
         }
@@ -162,7 +151,10 @@ class JupyterMessage {
      *
      * @return {JSONObject} the parent header
      */
-    public JSONObject getParentHeader () { return this.parent_header; }
+    public JSONObject getParentHeader () {
+        if (parent_header == null) parent_header = parseFrame(4);
+        return this.parent_header;
+    }
 
     /**
      * Set the metadata part of the message.
@@ -179,7 +171,7 @@ class JupyterMessage {
      * @return {String} the HMAC
      */
     public String getHmac () {
-        if(this.hmac == null) this.hmac = generateHmac();
+        if(this.hmac == null) this.hmac = toString(getFramesToSend()[1]);
         return this.hmac;
     }
 
@@ -189,7 +181,10 @@ class JupyterMessage {
      *
      * @return {JSONObject} the metadata
      */
-    public JSONObject getMetadata () { return this.metadata; }
+    public JSONObject getMetadata () {
+        if (metadata == null) metadata = parseFrame(5);
+        return this.metadata;
+    }
 
     /**
      * Get the universally unique identifier (UUID) of the message
@@ -215,33 +210,116 @@ class JupyterMessage {
      *
      * @return {JSONObject} the content of the message.
      */
-    public JSONObject getContent () { return this.content; }
+    public JSONObject getContent () {
+        if (content == null) content = parseFrame(6);
+        return this.content;
+    }
+
+    /**
+     * Get the binary buffers of an incoming message, sent after its content. They are used by the comm messages
+     * to send raw data, see http://jupyter-client.readthedocs.io/en/latest/messaging.html#custom-messages
+     *
+     * @return {List<byte[]>} the buffers, empty if the message has none
+     */
+    public List<byte[]> getBuffers () {
+        if (frames == null) return buffers != null ? buffers : Collections.emptyList();
+        return frames.subList(JUPYTER_MESSAGE_LENGTH, frames.size());
+    }
+
+    /**
+     * Set the binary buffers of a message to send. They are sent after the content and are not signed.
+     *
+     * @param buffers {List<byte[]>} the buffers
+     */
+    public void setBuffers (List<byte[]> buffers) {
+        this.buffers = buffers;
+    }
 
     /**
      * Get the message serialized in the proper format in order to send it through the channel,
-     * using the ZMQ library.
+     * using the ZMQ library. The hmac is computed on the frames that are sent. The binary buffers, if any, follow
+     * the content.
+     *
+     * @return {byte[][]} the frames of the message
+     */
+    public byte[][] getFramesToSend () {
+        byte[] headerFrame = toBytes(getHeader());
+        byte[] parentHeaderFrame = toBytes(getParentHeader());
+        byte[] metadataFrame = toBytes(getMetadata());
+        byte[] contentFrame = toBytes(getContent());
+        byte[] hmacFrame = getSigner().sign(headerFrame, parentHeaderFrame, metadataFrame, contentFrame);
+
+        // Add each field in the right order and respect the way python list are built
+        byte[][] res = new byte[6 + (buffers != null ? buffers.size() : 0)][];
+        res[0] = delimiter.getBytes(ZMQ.CHARSET);
+        res[1] = hmacFrame;
+        res[2] = headerFrame;
+        res[3] = parentHeaderFrame;
+        res[4] = metadataFrame;
+        res[5] = contentFrame;
+        for (int i = 6; i < res.length; i++) res[i] = buffers.get(i - 6);
+
+        return res;
+    }
+
+    /**
+     * Get the message serialized in the proper format, as Strings, in order to log it.
      *
      * @return {String[]} the serialized message
      */
     public String[] getMessageToSend () {
-        buildMessage();
+        byte[][] frames = getFramesToSend();
 
-        // Add each field in the right order and respect the way python list are built
-        String[] msg = new String[6];
-        msg[0] = this.message.get("delimiter").toString();
-        msg[1] = this.message.get("hmac").toString();
-        msg[2] = this.message.get("header").toString();
-        msg[3] = this.message.get("parent_header").toString();
-        msg[4] = this.message.get("metadata").toString();
-        msg[5] = this.message.get("content").toString();
+        String[] msg = new String[frames.length];
+        for (int i = 0; i < frames.length; i++) msg[i] = toString(frames[i]);
 
         return msg;
     }
 
+    /**
+     * Verify the hmac of an incoming message, on the frames as received.
+     *
+     * @return {boolean} true if the hmac is correct
+     */
+    boolean hasValidSignature () {
+        return frames != null && getSigner().verify(frames);
+    }
+
     /* =================================================================================================================
                                                 CUSTOM METHODS
      =================================================================================================================*/
 
+    /**
+     * Decode a JSON part of an incoming message, without copying its frame into a String.
+     *
+     * @param index : the index of the frame
+     * @return the decoded part, an empty JSONObject if it can't be decoded
+     */
+    private JSONObject parseFrame (int index) {
+        if (frames == null) return new JSONObject();
+        if (parser == null) parser = new JSONParser();
+
+        try {
+            Reader reader = new InputStreamReader(new ByteArrayInputStream(frames.get(index)), ZMQ.CHARSET);
+            return (JSONObject) parser.parse(reader);
+        } catch (ParseException | IOException | ClassCastException e) {
+            e.printStackTrace();
+            return new JSONObject();
+        }
+    }
+
+    private MessageSigner getSigner () {
+        return kernel.getMessagesManager().getSigner();
+    }
+
+    private static byte[] toBytes (JSONObject part) {
+        return part.toJSONString().getBytes(ZMQ.CHARSET);
+    }
+
+    private static String toString (byte[] frame) {
+        return new String(frame, ZMQ.CHARSET);
+    }
+
     /**
      * Generate an ISO 8061 compliant timestamp
      * @return : String - the timestamp
@@ -254,58 +332,21 @@ class JupyterMessage {
     }
 
     /**
-     * Generate the Jupypter messaging protocol compliant hmac
-     * @return : a hmac for the message to send
+     * Serialize the message in accordance with Jupyter messaging specification, to log it.
      */
-    private String generateHmac() {
-        final String ALGORITHM = "HmacSHA256";
-
-        String result = "";
-
-        try {
-            Mac hmac = Mac.getInstance(ALGORITHM);
-            SecretKeySpec sk = new SecretKeySpec(kernel.getKey().getBytes(), ALGORITHM);
-            hmac.init(sk);
-            hmac.update(header.toJSONString().getBytes());
-            hmac.update(parent_header.toJSONString().getBytes());
-            hmac.update(metadata.toJSONString().getBytes());
-            hmac.update(content.toJSONString().getBytes());
-            byte[] mac_data = hmac.doFinal();
-
-            // Convert the hmac into a String to send it
-            for (final byte element : mac_data)
-            {
-                result += Integer.toString((element & 0xff) + 0x100, 16).substring(1);
-            }
-        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
-            e.printStackTrace();
-        }
-
-        return result;
-    }
-
-    /**
-     * Build the message in accordance with Jupyter messaging specification
-     */
-    private void buildMessage () {
-        // Build the message
-        message = new JSONObject();
+    @Override
+    public String toString() {
+        JSONObject message = new JSONObject();
         message.put("uuid", uuid);
         message.put("delimiter", delimiter);
         message.put("header", header);
 
-        message.put("parent_header", parent_header);
-        message.put("metadata", metadata);
-        message.put("content", content);
+        message.put("parent_header", getParentHeader());
+        message.put("metadata", getMetadata());
+        message.put("content", getContent());
 
-        // Generate and add the hmac
-        hmac = generateHmac();
-        message.put("hmac", hmac);
-    }
-
-    @Override
-    public String toString() {
-        buildMessage();
+        // Add the hmac
+        message.put("hmac", getHmac());
 
         return message.toJSONString();
     }
@@ -3,7 +3,7 @@ package fr.irisa.diverse.Jupyter.JupyterMessaging;
 import fr.irisa.diverse.Core.Kernel;
 import org.json.simple.JSONObject;
 
-import java.util.ArrayList;
+import java.util.List;
 
 /** The manager is a component that handle everything related to reacting to incoming messages.
  *
@@ -25,6 +25,7 @@ public class Manager {
     private IOPubMessaging ioPubMessaging = null;
     private StdinMessaging stdinMessaging = null;
     private ShellMessaging controlMessaging = null;
+    private MessageSigner signer = null;
 
     /* =================================================================================================================
                                                 CONSTRUCTOR
@@ -32,6 +33,7 @@ public class Manager {
 
     public Manager (Kernel kernel) {
         owningKernel = kernel;
+        signer = new MessageSigner(kernel.getKey(), kernel.getSignatureScheme());
         shellMessaging = new ShellMessaging(owningKernel, kernel.shell);
         ioPubMessaging = new IOPubMessaging(owningKernel, kernel.iopub);
         stdinMessaging = new StdinMessaging(owningKernel, kernel.stdin);
@@ -45,10 +47,12 @@ public class Manager {
     /**
      * Handles any Jupyter Message coming from a channel.
      *
+     * Only the header is decoded to route the message, the other parts are decoded when the handler reads them.
+     *
      * @param sourceChannel {String} the name of the channel the message comes from
-     * @param incomingMessage {String[]} the received message
+     * @param incomingMessage {List<byte[]>} the frames of the received message
      */
-    public void handleMessage (String sourceChannel, ArrayList<String> incomingMessage) {
+    public void handleMessage (String sourceChannel, List<byte[]> incomingMessage) {
         JupyterMessage message = new JupyterMessage(owningKernel, incomingMessage);
 
         if(hmacIsCorrect(message)) {
@@ -75,7 +79,7 @@ public class Manager {
                     break;
             }
         } else {
-            System.err.println("Incorrect hmac in message : " + message.getMessageToSend());
+            System.err.println("Incorrect hmac in message " + message.getUuid() + " received on " + sourceChannel);
         }
     }
 
@@ -109,6 +113,13 @@ public class Manager {
         return controlMessaging;
     }
 
+    /**
+     * @return {MessageSigner} the component signing the messages sent to the kernel with its key
+     */
+    MessageSigner getSigner () {
+        return signer;
+    }
+
     /* =================================================================================================================
                                            MESSAGE HEADER RELATED METHODS
      =================================================================================================================*/
@@ -121,17 +132,7 @@ public class Manager {
      * @return {boolean} True if correct, false if not
      */
     private boolean hmacIsCorrect(JupyterMessage message) {
-        /* TODO : the below code isn't doing the job. We need to figure out what the problem is.
-         It is surprising, this code is doing the same thing as session.sign in the jupyter_client project */
-
-        /*String signature = message.getHmac();
-
-        // To obtain the check we generate a new hmac in the message, benefiting from its generate hmac method.
-        String check = message.generateHmac();
-
-        System.out.println("Hmac verification returns : " + signature.equals(check) +"\n" + signature + "\n" + check);
-        return signature.equals(check);*/
-        return true;
+        return message.hasValidSignature();
     }
 
     /**
@@ -0,0 +1,102 @@
+package fr.irisa.diverse.Jupyter.JupyterMessaging;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.List;
+
+/**
+ * The MessageSigner signs the messages sent to a kernel and verifies the signature of the messages it sends,
+ * as explained here : http://jupyter-client.readthedocs.io/en/latest/messaging.html#the-wire-protocol
+ *
+ * The signature is the hex encoded HMAC of the header, parent_header, metadata and content frames, computed with the
+ * key and the signature scheme of the connexion file. The incoming messages are verified on their raw frames, the
+ * JSON is never serialized again.
+ *
+ * The Mac is initialized once per kernel. It is not thread-safe, so its use is synchronized : the messages are signed
+ * by the threads sending them, and verified by the reactor of the kernel.
+ *
+ * If the key is empty, the authentication is disabled : the signature is empty and every message is accepted.
+ */
+class MessageSigner {
+
+    // Configuration
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NO_SIGNATURE = new byte[0];
+
+    // Attributes
+    private final Mac mac;
+
+    // Constructor
+    MessageSigner (String key, String signatureScheme) {
+        this.mac = key == null || key.isEmpty() ? null : createMac(key, signatureScheme);
+    }
+
+    /*==================================================================================================================
+                                              PACKAGE CLASS METHODS
+     =================================================================================================================*/
+
+    /**
+     * Sign the frames of a message.
+     *
+     * @param frames : header, parent_header, metadata and content, as sent
+     * @return the hex encoded signature, empty if the authentication is disabled
+     */
+    byte[] sign (byte[]... frames) {
+        if (mac == null) return NO_SIGNATURE;
+
+        byte[] digest;
+        synchronized (mac) {
+            for (byte[] frame : frames) mac.update(frame);
+            digest = mac.doFinal();
+        }
+
+        return toHex(digest);
+    }
+
+    /**
+     * Verify the signature of an incoming message, in constant time.
+     *
+     * @param frames : the frames of the message : uuid, delimiter, hmac, header, parent_header, metadata and content
+     * @return true if the signature is correct or if the authentication is disabled
+     */
+    boolean verify (List<byte[]> frames) {
+        if (mac == null) return true;
+
+        byte[] expected = sign(frames.get(3), frames.get(4), frames.get(5), frames.get(6));
+        return MessageDigest.isEqual(expected, frames.get(2));
+    }
+
+    /*==================================================================================================================
+                                              PRIVATE CLASS METHODS
+     =================================================================================================================*/
+
+    /**
+     * Create the Mac from the signature scheme of the connexion file, for instance hmac-sha256 gives HmacSHA256.
+     */
+    private static Mac createMac (String key, String signatureScheme) {
+        String algorithm = "HmacSHA256";
+        if (signatureScheme != null && signatureScheme.startsWith("hmac-")) {
+            algorithm = "Hmac" + signatureScheme.substring(5).replace("-", "").toUpperCase();
+        }
+
+        try {
+            Mac mac = Mac.getInstance(algorithm);
+            mac.init(new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), algorithm));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Unsupported signature scheme " + signatureScheme, e);
+        }
+    }
+
+    private static byte[] toHex (byte[] bytes) {
+        byte[] hex = new byte[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return hex;
+    }
+}
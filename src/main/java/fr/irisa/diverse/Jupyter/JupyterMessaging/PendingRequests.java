@@ -0,0 +1,129 @@
+package fr.irisa.diverse.Jupyter.JupyterMessaging;
+
+import org.json.simple.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the requests sent to a kernel and waiting for their answer, keyed by the msg_id of their header.
+ *
+ * A request is finished when both its reply has been received on the shell channel and the kernel went back to
+ * idle after handling it, on the iopub channel. The messages it leads to are received before the idle status, so
+ * once the request is finished every output of the execution has been handled.
+ *
+ * The messages of the kernel are linked to their request with the msg_id of their parent_header.
+ */
+public class PendingRequests {
+
+    // Attributes
+    private final Map<String, PendingRequest> pending; // msg_id of the request <-> the request
+
+    // Constructor
+    public PendingRequests () {
+        this.pending = new ConcurrentHashMap<>();
+    }
+
+    /*==================================================================================================================
+                                              PUBLIC CLASS METHODS
+     =================================================================================================================*/
+
+    /**
+     * Register a request, before sending it.
+     *
+     * @param msgId : the msg_id of the request
+     * @param nodeId : the id of the node the request is for, null if it is not related to a node
+     * @return a future completed with the content of the reply once the request is finished
+     */
+    public CompletableFuture<JSONObject> register (String msgId, String nodeId) {
+        PendingRequest request = new PendingRequest(nodeId);
+        pending.put(msgId, request);
+        request.done.whenComplete((content, e) -> pending.remove(msgId, request));
+
+        return request.done;
+    }
+
+    /**
+     * Record the reply to a request.
+     *
+     * @param msgId : the msg_id of the request, from the parent_header of the reply
+     * @param content : the content of the reply
+     */
+    public void replyReceived (String msgId, JSONObject content) {
+        PendingRequest request = msgId != null ? pending.get(msgId) : null;
+        if (request != null) request.reply.complete(content);
+    }
+
+    /**
+     * Record that the kernel went back to idle after handling a request.
+     *
+     * @param msgId : the msg_id of the request, from the parent_header of the status message
+     */
+    public void idleReceived (String msgId) {
+        PendingRequest request = msgId != null ? pending.get(msgId) : null;
+        if (request != null) request.idle.complete(null);
+    }
+
+    /**
+     * @param nodeId : the id of a node
+     * @return true if a request for the node is not finished yet
+     */
+    public boolean hasPending (String nodeId) {
+        for (PendingRequest request : pending.values()) {
+            if (nodeId.equals(request.nodeId)) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Wait for the requests of a node that are not finished yet.
+     *
+     * @param nodeId : the id of a node
+     * @return a future completed once all of them are finished, successfully or not
+     */
+    public CompletableFuture<Void> whenFinished (String nodeId) {
+        List<CompletableFuture<?>> requests = new ArrayList<>();
+        for (PendingRequest request : pending.values()) {
+            if (nodeId.equals(request.nodeId)) requests.add(request.done.handle((content, e) -> null));
+        }
+
+        return CompletableFuture.allOf(requests.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * Fail all the pending requests, because the kernel has been stopped.
+     * Their reply and idle status will never come, so the requests are failed directly : a combined future would
+     * wait for both of them even once one failed.
+     */
+    public void cancelAll () {
+        for (String msgId : pending.keySet()) {
+            PendingRequest request = pending.remove(msgId);
+            if (request == null) continue;
+
+            CancellationException e = new CancellationException("The kernel has been stopped");
+            request.reply.completeExceptionally(e);
+            request.idle.completeExceptionally(e);
+            request.done.completeExceptionally(e);
+        }
+    }
+
+    /*==================================================================================================================
+                                                  INNER CLASSES
+     =================================================================================================================*/
+
+    private static class PendingRequest {
+        final String nodeId;
+        final CompletableFuture<JSONObject> reply = new CompletableFuture<>();
+        final CompletableFuture<Void> idle = new CompletableFuture<>();
+        final CompletableFuture<JSONObject> done = reply.thenCombine(idle, (content, v) -> content);
+
+        PendingRequest (String nodeId) {
+            this.nodeId = nodeId;
+        }
+    }
+}
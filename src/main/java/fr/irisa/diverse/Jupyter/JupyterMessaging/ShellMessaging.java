@@ -5,6 +5,9 @@ import fr.irisa.diverse.MessageHandlers.FBPNetworkProtocol.FBPNetworkProtocolMan
 import fr.irisa.diverse.Jupyter.JupyterChannels.ShellChannel;
 import org.json.simple.JSONObject;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /** This class provide a function to create every request message for the shell socket of Jupyter, as documented here :
  * http://jupyter-client.readthedocs.io/en/latest/messaging.html#messages-on-the-shell-router-dealer-channel
  *
@@ -19,6 +22,8 @@ import org.json.simple.JSONObject;
  *  kernel_info_request
  *  shutdown_request
  *
+ * And the comm messages, comm_open, comm_msg and comm_close, that can be sent on the shell too.
+ *
  * Created by antoine on 10/05/2017.
  */
 public class ShellMessaging {
@@ -98,10 +103,13 @@ public class ShellMessaging {
      * Implementation of execute_request message according to documentation
      * http://jupyter-client.readthedocs.io/en/latest/messaging.html#execute
      * @param code : python code to execute
-     * @return : the message sent through the channel
+     * @param nodeId : the id of the node whose code is executed, null if the code is not the one of a node
+     * @return : a future completed with the content of the execute_reply once the kernel finished the execution
      */
-    public String sendExecuteRequestMessage (String code) {
+    public CompletableFuture<JSONObject> sendExecuteRequestMessage (String code, String nodeId) {
         JupyterMessage message = new JupyterMessage(kernel, "execute_request");
+        // Register the execution before sending it, so every message it leads to can be linked to the node
+        CompletableFuture<JSONObject> res = kernel.executionStarted((String) message.getHeader().get("msg_id"), nodeId);
 
         JSONObject content = new JSONObject();
         content.put("code", code);
@@ -113,9 +121,9 @@ public class ShellMessaging {
 
         message.setContent(content);
 
-        channel.send(message.getMessageToSend());
+        channel.send(message.getFramesToSend());
 
-        return message.toString();
+        return res;
     }
 
     /**
@@ -133,7 +141,7 @@ public class ShellMessaging {
 
         message.setContent(content);
 
-        channel.send(message.getMessageToSend());
+        channel.send(message.getFramesToSend());
 
         return message.toString();
     }
@@ -152,7 +160,7 @@ public class ShellMessaging {
 
         message.setContent(content);
 
-        channel.send(message.getMessageToSend());
+        channel.send(message.getFramesToSend());
 
         return message.toString();
     }
@@ -173,7 +181,7 @@ public class ShellMessaging {
 
         message.setContent(content);
 
-        channel.send(message.getMessageToSend());
+        channel.send(message.getFramesToSend());
 
         return message.toString();
     }
@@ -191,7 +199,7 @@ public class ShellMessaging {
 
         message.setContent(content);
 
-        channel.send(message.getMessageToSend());
+        channel.send(message.getFramesToSend());
 
         return message.toString();
     }
@@ -204,7 +212,7 @@ public class ShellMessaging {
     public String sendConnectRequestMessage () {
         JupyterMessage message = new JupyterMessage(kernel, "connect_request");
 
-        channel.send(message.getMessageToSend());
+        channel.send(message.getFramesToSend());
 
         return message.toString();
     }
@@ -217,7 +225,67 @@ public class ShellMessaging {
     public String sendCommInfoRequestMessage () {
         JupyterMessage message = new JupyterMessage(kernel, "comm_info_request");
 
-        channel.send(message.getMessageToSend());
+        channel.send(message.getFramesToSend());
+
+        return message.toString();
+    }
+
+    /**
+     * Implementation of comm_open message according to documentation
+     * http://jupyter-client.readthedocs.io/en/latest/messaging.html#opening-a-comm
+     * @param commId : the id of the comm to open
+     * @param target : the name of the target of the comm, that must be registered in the kernel
+     * @param data : the data of the message
+     * @return : the message sent through the channel
+     */
+    public String sendCommOpenMessage (String commId, String target, JSONObject data) {
+        JupyterMessage message = new JupyterMessage(kernel, "comm_open");
+
+        JSONObject content = new JSONObject();
+        content.put("comm_id", commId);
+        content.put("target_name", target);
+        content.put("data", data);
+        message.setContent(content);
+
+        channel.send(message.getFramesToSend());
+
+        return message.toString();
+    }
+
+    /**
+     * Implementation of comm_msg message according to documentation
+     * http://jupyter-client.readthedocs.io/en/latest/messaging.html#comm-messages
+     * @param commId : the id of the comm
+     * @param data : the data of the message
+     * @param buffers : the binary buffers sent with the message
+     */
+    public void sendCommMessage (String commId, JSONObject data, List<byte[]> buffers) {
+        JupyterMessage message = new JupyterMessage(kernel, "comm_msg");
+
+        JSONObject content = new JSONObject();
+        content.put("comm_id", commId);
+        content.put("data", data);
+        message.setContent(content);
+        message.setBuffers(buffers);
+
+        channel.send(message.getFramesToSend());
+    }
+
+    /**
+     * Implementation of comm_close message according to documentation
+     * http://jupyter-client.readthedocs.io/en/latest/messaging.html#tearing-down-comms
+     * @param commId : the id of the comm to close
+     * @return : the message sent through the channel
+     */
+    public String sendCommCloseMessage (String commId) {
+        JupyterMessage message = new JupyterMessage(kernel, "comm_close");
+
+        JSONObject content = new JSONObject();
+        content.put("comm_id", commId);
+        content.put("data", new JSONObject());
+        message.setContent(content);
+
+        channel.send(message.getFramesToSend());
 
         return message.toString();
     }
@@ -230,7 +298,7 @@ public class ShellMessaging {
     public String sendKernelInfoRequestMessage () {
         JupyterMessage message = new JupyterMessage(kernel, "kernel_info_request");
 
-        //channel.send(message.getMessageToSend());
+        //channel.send(message.getFramesToSend());
 
         return message.toString();
     }
@@ -247,7 +315,7 @@ public class ShellMessaging {
         content.put("restart", Boolean.toString(restart));
         message.setContent(content);
 
-        channel.send(message.getMessageToSend());
+        channel.send(message.getFramesToSend());
 
         return message.toString();
     }
@@ -274,19 +342,36 @@ public class ShellMessaging {
         Long executionCount = (Long) content.get("execution_count");
         kernel.setNbExecutions(executionCount);
 
+        // The node whose code has been executed, null if the code was not the one of a node
+        String msgId = (String) message.getParentHeader().get("msg_id");
+        String nodeId = kernel.getNodeIdForExecution(msgId);
+        if (nodeId != null) handleExecutionStatus(status, executionCount, nodeId);
+
+        // The execution is finished once the kernel is idle again
+        kernel.executionReplied(msgId, content);
+    }
+
+    /**
+     * Broadcast the errors of the execution of a node.
+     *
+     * @param status : the status of the execute_reply
+     * @param executionCount : the number of the execution
+     * @param nodeId : the id of the executed node
+     */
+    private void handleExecutionStatus (String status, Long executionCount, String nodeId) {
         switch (status) {
             case "ok":
                 // Good news everything went well
                 break;
             case "error":
                 System.err.println("Error executing code of cell nb" + executionCount);
-                manager.sendErrorToAll("network", "[JUPYTER ERROR] For node : " + kernel.linkedNodeId + ", impossible to run code");
-                kernel.owningWorkspace.errorExecutingNode(kernel.linkedNodeId);
+                manager.sendErrorToAll("network", "[JUPYTER ERROR] For node : " + nodeId + ", impossible to run code");
+                kernel.owningWorkspace.errorExecutingNode(nodeId);
                 break;
             case "abort":
                 System.err.println("Execution of the code of cell nb" + executionCount + " has been aborted");
-                manager.sendErrorToAll("network", "[JUPYTER ERROR] For node : " + kernel.linkedNodeId + ", code running aborted");
-                kernel.owningWorkspace.errorExecutingNode(kernel.linkedNodeId);
+                manager.sendErrorToAll("network", "[JUPYTER ERROR] For node : " + nodeId + ", code running aborted");
+                kernel.owningWorkspace.errorExecutingNode(nodeId);
                 break;
         }
     }
@@ -307,7 +392,7 @@ public class ShellMessaging {
         String status = (String) content.get("status");
 
         if(status.equals("error")) {
-            manager.sendError("NETWORK", "[JUPYTER ERROR] Introspection error for node : " + kernel.linkedNodeId + "");
+            manager.sendError("NETWORK", "[JUPYTER ERROR] Introspection error on kernel " + kernel.getContainerId());
             return;
         }
         else if (status.equals("ok")) {
@@ -336,7 +421,7 @@ public class ShellMessaging {
         String status = (String) content.get("status");
 
         if(status.equals("error")) {
-            manager.sendError("NETWORK", "[JUPYTER ERROR] Completion error for node : " + kernel.linkedNodeId + "");
+            manager.sendError("NETWORK", "[JUPYTER ERROR] Completion error on kernel " + kernel.getContainerId());
             return;
         }
         else if (status.equals("ok")) {
@@ -74,6 +74,6 @@ public class StdinMessaging {
         JupyterMessage reply = new JupyterMessage(kernel, "input_reply", null, null, content);
 
         // Send it through the socket
-        channel.send(reply.getMessageToSend());
+        channel.send(reply.getFramesToSend());
     }
 }
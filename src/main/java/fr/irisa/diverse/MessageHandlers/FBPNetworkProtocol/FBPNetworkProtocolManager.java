@@ -1,6 +1,5 @@
 package fr.irisa.diverse.MessageHandlers.FBPNetworkProtocol;
 
-import fr.irisa.diverse.Core.Kernel;
 import fr.irisa.diverse.Core.Workspace;
 import fr.irisa.diverse.Webserver.Servlets.WebsocketOthers.ServerSocket;
 import org.json.simple.JSONArray;
@@ -202,11 +201,11 @@ public class FBPNetworkProtocolManager {
      * Handle the traceback coming from the kernel, redirecting it to the UIs.
      *
      * @param traceback {JSONArray} the traceback, as an array on text lines.
-     * @param k {Kernel} the kernel that provide the traceback
+     * @param nodeId {String} the id of the node whose execution provided the traceback
      */
-    public void handleTracebackFromKernel (JSONArray traceback, Kernel k) {
+    public void handleTracebackFromKernel (JSONArray traceback, String nodeId) {
         JSONObject payload = new JSONObject();
-        payload.put("node", owningWorkspace.getNodeIdForKernel(k));
+        payload.put("node", nodeId);
         payload.put("traceback", traceback);
 
         FBPMessage msg = new FBPMessage("trace", "nodetraceback", payload.toJSONString());
@@ -261,4 +260,26 @@ public class FBPNetworkProtocolManager {
 
         sendToAll(msg);
     }
+
+    /**
+     * Send an executionstats message that gives, for the last execution of the given graph, the number of nodes
+     * for which the result of a previous execution has been reused (hits) and the number of nodes that had to
+     * be executed (misses).
+     *
+     * @param graph {String} the id of the executed graph
+     * @param hits {int} the number of reused results during the execution
+     * @param misses {int} the number of executed nodes during the execution
+     */
+    public void sendExecutionStats (String graph, int hits, int misses) {
+        JSONObject payload = new JSONObject();
+        payload.put("graph", graph);
+        payload.put("hits", hits);
+        payload.put("misses", misses);
+        payload.put("totalHits", owningWorkspace.getResultCache().getHits());
+        payload.put("totalMisses", owningWorkspace.getResultCache().getMisses());
+
+        FBPMessage msg = new FBPMessage("network", "executionstats", payload.toJSONString());
+
+        sendToAll(msg);
+    }
 }
@@ -25,7 +25,6 @@ public class GraphMessageHandler extends SendMessageOverFBP implements FBPProtoc
 
     GraphMessageHandler (FBPNetworkProtocolManager manager) {
         this.owningManager = manager;
-        this.flow = owningManager.owningWorkspace.getFlow();
         this.owningWorkspace = manager.owningWorkspace;
         this.PROTOCOL = "graph";
     }
@@ -42,6 +41,8 @@ public class GraphMessageHandler extends SendMessageOverFBP implements FBPProtoc
      */
     public void handleMessage (FBPMessage message) {
         String command = message.getCommand();
+        // The flow of the workspace is loaded at the first access
+        flow = owningWorkspace.getFlow();
 
         switch (command) {
             case "clear" :
@@ -237,8 +238,8 @@ public class GraphMessageHandler extends SendMessageOverFBP implements FBPProtoc
     private void addedge (JSONObject payload) {
         // Retrieve needed data for addEdge() method
         String id = (String) payload.get("id");
-        JSONObject src = (JSONObject) payload.get("src");
-        JSONObject tgt = (JSONObject) payload.get("tgt");
+        EdgeEndpoint src = EdgeEndpoint.fromJson((JSONObject) payload.get("src"));
+        EdgeEndpoint tgt = EdgeEndpoint.fromJson((JSONObject) payload.get("tgt"));
         JSONObject metadata = (JSONObject) payload.get("metadata");
         String graph = (String) payload.get("graph");
 
@@ -246,8 +247,8 @@ public class GraphMessageHandler extends SendMessageOverFBP implements FBPProtoc
             // Answer
             sendAddEdgeMessage(src, tgt, graph);
         } else {
-            String srcNodeId = (String) src.get("node");
-            String tgtNodeId = (String) src.get("node");
+            String srcNodeId = src != null ? src.getNode() : null;
+            String tgtNodeId = tgt != null ? tgt.getNode() : null;
             System.err.println("[ERROR] Cannot create graph for src : " + srcNodeId + ", target : " + tgtNodeId + ", graph : " + graph + " because one of them doesn't exist");
         }
 
@@ -264,8 +265,8 @@ public class GraphMessageHandler extends SendMessageOverFBP implements FBPProtoc
         // Retrieve needed data for removeEdge() method
         String id = (String) payload.get("id");
         String graph = (String) payload.get("graph");
-        JSONObject src = (JSONObject) payload.get("src");
-        JSONObject tgt = (JSONObject) payload.get("tgt");
+        EdgeEndpoint src = EdgeEndpoint.fromJson((JSONObject) payload.get("src"));
+        EdgeEndpoint tgt = EdgeEndpoint.fromJson((JSONObject) payload.get("tgt"));
 
         if (flow.removeEdge(id, graph, src, tgt)) {
             // Answer
@@ -289,8 +290,8 @@ public class GraphMessageHandler extends SendMessageOverFBP implements FBPProtoc
         String id = (String) payload.get("id");
         String graph = (String) payload.get("graph");
         JSONObject metadata = (JSONObject) payload.get("metadata");
-        JSONObject src = (JSONObject) payload.get("src");
-        JSONObject tgt = (JSONObject) payload.get("tgt");
+        EdgeEndpoint src = EdgeEndpoint.fromJson((JSONObject) payload.get("src"));
+        EdgeEndpoint tgt = EdgeEndpoint.fromJson((JSONObject) payload.get("tgt"));
 
         if (flow.changeEdge(id, graph, metadata, src, tgt)) {
             // Answer
@@ -633,17 +634,17 @@ public class GraphMessageHandler extends SendMessageOverFBP implements FBPProtoc
      *
      * https://flowbased.github.io/fbp-protocol/#graph-addedge
      *
-     * @param src {JSONObject} the node's id, port and index of the source node
-     * @param tgt {JSONObject} the node's id, port and index of the target node
+     * @param src {EdgeEndpoint} the node's id, port and index of the source node
+     * @param tgt {EdgeEndpoint} the node's id, port and index of the target node
      * @param graph {String} the graph the edge will be on
      */
-    private void sendAddEdgeMessage (JSONObject src, JSONObject tgt, String graph) {
+    private void sendAddEdgeMessage (EdgeEndpoint src, EdgeEndpoint tgt, String graph) {
         Edge edge = flow.getEdge(src, tgt, graph);
         // Build payload
         JSONObject payload = new JSONObject();
         payload.put("id", edge.getId());
-        payload.put("src", edge.getSrc());
-        payload.put("tgt", edge.getTgt());
+        payload.put("src", edge.getSrc().toJson());
+        payload.put("tgt", edge.getTgt().toJson());
         payload.put("metadata", edge.getMetadata());
         payload.put("graph", graph);
 
@@ -658,16 +659,16 @@ public class GraphMessageHandler extends SendMessageOverFBP implements FBPProtoc
      *
      * @param id {String} the id of the edge
      * @param graph {String} the id of the graph the edge is on
-     * @param src {JSONObject} the node's id, port and index of the source node
-     * @param tgt {JSONObject} the node's id, port and index of the target node
+     * @param src {EdgeEndpoint} the node's id, port and index of the source node
+     * @param tgt {EdgeEndpoint} the node's id, port and index of the target node
      */
-    private void sendRemoveEdgeMessage (String id, String graph, JSONObject src, JSONObject tgt) {
+    private void sendRemoveEdgeMessage (String id, String graph, EdgeEndpoint src, EdgeEndpoint tgt) {
         // Build payload
         JSONObject payload = new JSONObject();
         payload.put("id", id);
         payload.put("graph", graph);
-        payload.put("src", src);
-        payload.put("tgt", tgt);
+        payload.put("src", src.toJson());
+        payload.put("tgt", tgt.toJson());
 
         // Send the message
         sendMessageToAll("removeedge", payload);
@@ -679,16 +680,16 @@ public class GraphMessageHandler extends SendMessageOverFBP implements FBPProtoc
      * https://flowbased.github.io/fbp-protocol/#graph-changeedge
      *
      * @param graph {String} the id of the graph the edge is on
-     * @param src {JSONObject} the node's id, port and index of the source node
-     * @param tgt {JSONObject} the node's id, port and index of the target node
+     * @param src {EdgeEndpoint} the node's id, port and index of the source node
+     * @param tgt {EdgeEndpoint} the node's id, port and index of the target node
      */
-    private void sendChangeEdgeMessage (String graph, JSONObject src, JSONObject tgt) {
+    private void sendChangeEdgeMessage (String graph, EdgeEndpoint src, EdgeEndpoint tgt) {
         Edge edge = flow.getEdge(src, tgt, graph);
         // Build payload
         JSONObject payload = new JSONObject();
         payload.put("id", edge.getId());
-        payload.put("src", edge.getSrc());
-        payload.put("tgt", edge.getTgt());
+        payload.put("src", edge.getSrc().toJson());
+        payload.put("tgt", edge.getTgt().toJson());
         payload.put("metadata", edge.getMetadata());
         payload.put("graph", graph);
 
@@ -1,6 +1,8 @@
 package fr.irisa.diverse.MessageHandlers.FBPNetworkProtocol;
 
+import fr.irisa.diverse.Core.ExecutionService;
 import fr.irisa.diverse.Core.Workspace;
+import fr.irisa.diverse.Flow.Node;
 import fr.irisa.diverse.MessageHandlers.FBPNetworkProtocol.Utils.Status;
 import fr.irisa.diverse.Utils.Utils;
 import org.json.simple.JSONObject;
@@ -53,6 +55,18 @@ public class NetworkMessageHandler extends SendMessageOverFBP implements FBPProt
             case "start" :
                 start(message);
                 break;
+            case "runto" :
+                runto(message);
+                break;
+            case "warmup" :
+                warmup(message);
+                break;
+            case "sharekernel" :
+                sharekernel(message);
+                break;
+            case "kernelbackend" :
+                kernelbackend(message);
+                break;
             case "stop" :
                 stop(message);
                 break;
@@ -122,25 +136,96 @@ public class NetworkMessageHandler extends SendMessageOverFBP implements FBPProt
      * @param message {FBPMessage} the received message.
      */
     private void start(FBPMessage message) {
-        Runnable task = () -> {
-            JSONObject payload = message.getPayload();
-            String graph = (String) payload.get("graph");
+        JSONObject payload = message.getPayload();
+        String graph = (String) payload.get("graph");
+
+        startExecution(graph, () -> owningManager.owningWorkspace.startGraph(graph));
+    }
+
+    /**
+     * Handle a "runto" message by executing only the given node and the nodes it depends on.
+     * It is not part of the FBP Network Protocol, the payload is : { graph: String, node: String }.
+     * The UIs receive the same "started" and "stopped" messages than for a "start" message.
+     *
+     * @param message {FBPMessage} the received message.
+     */
+    private void runto(FBPMessage message) {
+        JSONObject payload = message.getPayload();
+        String graph = (String) payload.get("graph");
+        String node = (String) payload.get("node");
+
+        startExecution(graph, () -> owningManager.owningWorkspace.startGraphUpTo(graph, node));
+    }
+
+    /**
+     * Handle a "warmup" message, sent by the UIs when the user opens the editor of a node, by starting the kernel of
+     * the node in background. So it is ready when the user runs the node.
+     * It is not part of the FBP Network Protocol, the payload is : { graph: String, node: String }.
+     *
+     * @param message {FBPMessage} the received message.
+     */
+    private void warmup(FBPMessage message) {
+        JSONObject payload = message.getPayload();
+        String graph = (String) payload.get("graph");
+        String nodeId = (String) payload.get("node");
+
+        Node node = owningManager.owningWorkspace.getFlow().getNode(nodeId, graph);
+        if (node != null && node.isExecutable()) owningManager.owningWorkspace.startKernel(nodeId);
+    }
+
+    /**
+     * Handle a "sharekernel" message, choosing whether all the nodes of the workspace run on the same kernel, each
+     * one in its own namespace. The choice is saved with the flow.
+     * It is not part of the FBP Network Protocol, the payload is : { graph: String, shared: boolean }.
+     *
+     * @param message {FBPMessage} the received message.
+     */
+    private void sharekernel(FBPMessage message) {
+        JSONObject payload = message.getPayload();
+        Boolean shared = (Boolean) payload.get("shared");
 
+        if (shared != null) owningManager.owningWorkspace.setKernelShared(shared);
+    }
+
+    /**
+     * Handle a "kernelbackend" message, choosing what launches the kernels of the workspace : Docker containers or
+     * local subprocesses. The choice is saved with the flow.
+     * It is not part of the FBP Network Protocol, the payload is : { graph: String, backend: String }.
+     *
+     * @param message {FBPMessage} the received message.
+     */
+    private void kernelbackend(FBPMessage message) {
+        JSONObject payload = message.getPayload();
+        String backend = (String) payload.get("backend");
+
+        try {
+            owningManager.owningWorkspace.setKernelBackend(backend);
+        } catch (IllegalArgumentException e) {
+            sendError(e.getMessage());
+        }
+    }
+
+    /**
+     * Run an execution of the given graph in the graphs pool, informing the UIs when it starts and stops.
+     *
+     * @param graph {String} the id of the executed graph.
+     * @param execution {GraphExecution} launches the execution and returns without waiting for it to finish.
+     */
+    private void startExecution(String graph, GraphExecution execution) {
+        Runnable task = () -> {
             boolean started = false;
 
             try {
                 // Send a network started message
                 sendStartedMessage(graph);
                 // Start the graph
-                owningManager.owningWorkspace.startGraph(graph);
+                execution.run();
                 started = true;
-                // Wait for the run to finish
-                while (owningManager.owningWorkspace.graphRunning(graph)) {
-                    Thread.sleep(200);
-                }
-                // After it finishes : send a Stopped message
-                sendStoppedMessage(graph);
-                System.out.println("Simulation finished");
+                // Once the run finishes : send a Stopped message
+                owningManager.owningWorkspace.whenGraphFinished(graph).thenRun(() -> {
+                    sendStoppedMessage(graph);
+                    System.out.println("Simulation finished");
+                });
 
             } catch (Workspace.NotExistingGraphException e) {
                 if (started) {
@@ -150,15 +235,10 @@ public class NetworkMessageHandler extends SendMessageOverFBP implements FBPProt
                 sendError(e.getMessage());
                 // Print stack trace in stderr
                 e.printStackTrace();
-            } catch (InterruptedException e) {
-                // Thread.sleep exception
-                e.printStackTrace();
             }
         };
 
-        Thread thread = new Thread(task);
-        thread.start();
-
+        ExecutionService.getInstance().executeGraphTask(task);
     }
 
     /**
@@ -176,20 +256,9 @@ public class NetworkMessageHandler extends SendMessageOverFBP implements FBPProt
         // Then we make sure the graph is really running
         if (owningManager.owningWorkspace.graphRunning(graph)) {
             // If so, we stop it
-            try {
-                owningManager.owningWorkspace.stopGraph(graph);
-                // Wait for the graph to finish
-                while (owningManager.owningWorkspace.graphRunning(graph)) {
-                    Thread.sleep(200);
-                }
-                // Send a stopped message after it finishes
-                sendStoppedMessage(graph);
-
-            } catch (InterruptedException e) {
-                // Thread.sleep exception
-                e.printStackTrace();
-            }
-
+            owningManager.owningWorkspace.stopGraph(graph);
+            // Send a stopped message after it finishes
+            owningManager.owningWorkspace.whenGraphFinished(graph).thenRun(() -> sendStoppedMessage(graph));
         }
     }
 
@@ -337,4 +406,16 @@ public class NetworkMessageHandler extends SendMessageOverFBP implements FBPProt
 
         return Utils.getGraphStatus(o);
     }
+
+    /* =================================================================================================================
+                                                    INNER INTERFACES
+       ===============================================================================================================*/
+
+    /**
+     * An execution of a graph, started by a "start" or a "runto" message.
+     */
+    @FunctionalInterface
+    private interface GraphExecution {
+        void run () throws Workspace.NotExistingGraphException;
+    }
 }
\ No newline at end of file
@@ -153,6 +153,9 @@ public class FileExplorerMessageHandler implements MessageHandler.Whole<FBPMessa
 
         // Go through the folder
         for (File f: files) {
+            // Hidden files, like the stored results of the nodes, are internal to the workspace
+            if (f.isHidden()) continue;
+
             JSONObject o = new JSONObject();
             o.put("id", UUID.randomUUID().toString());
             o.put("name", f.getName());
@@ -4,6 +4,10 @@ import fr.irisa.diverse.MessageHandlers.FBPNetworkProtocol.Utils.Status;
 import fr.irisa.diverse.Flow.Flow;
 import fr.irisa.diverse.Flow.Group;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
 /**
  * A Utils class to store methods that can be useful anywhere across the code, without the need to instantiate it.
  *
@@ -61,4 +65,44 @@ public class Utils {
 
         return res;
     }
+
+    /**
+     * Compute the SHA-256 hash of the given Strings, as if they were concatenated with a separator between them.
+     *
+     * @param parts {String[]} the Strings to hash, null ones are considered empty
+     * @return {String} the hash as an hexadecimal String
+     */
+    public static String hash (String... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : parts) {
+                if (part != null) digest.update(part.getBytes(StandardCharsets.UTF_8));
+                // Separator, to make sure that ("ab", "c") and ("a", "bc") have different hashes
+                digest.update((byte) 0);
+            }
+
+            return toHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is available in every JVM
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Encode the given bytes as an hexadecimal String.
+     *
+     * @param bytes {byte[]} the bytes to encode
+     * @return {String} the lowercase hexadecimal representation of the bytes
+     */
+    public static String toHex (byte[] bytes) {
+        final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+        char[] res = new char[bytes.length * 2];
+
+        for (int i = 0; i < bytes.length; i++) {
+            res[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            res[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+
+        return new String(res);
+    }
 }
@@ -80,12 +80,8 @@ public class WorkspacesServlet extends HttpServlet{
         String uuid = request.getParameter("uuid");
         String name = request.getParameter("name");
 
-        // Retrieve the workspace associated to the uuid
-        Workspace w = root.getWorkspace(uuid);
-
-        // Change the name with the one given in the request
-        if (w != null) {
-            w.setName(name);
+        // Change the name of the workspace associated to the uuid with the one given in the request
+        if (root.renameWorkspace(uuid, name)) {
 
             // Set the status of the response to OK
             response.setStatus(HttpServletResponse.SC_OK);
@@ -0,0 +1,117 @@
+package fr.irisa.diverse.Core;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the decoding of the stdout of an execution doesn't depend on how Jupyter splits it into stream
+ * messages.
+ */
+public class ExecutionResultDecoderTest {
+
+    // The stdout of an execution, as printed by sendTheseDataToNextNodes after some prints of the user
+    private static final String OUTPUT = "Computing...\r\n"
+            + "#BEGINNING OF DATA RETRIEVING\r\n"
+            + "key  x\r\n"
+            + "pickle  b'\\x80\\x03K\\x01.'\r\n"
+            + "json  1\r\n"
+            + "key  table\n"
+            + "pickle  b'\\x80\\x03}q\\x00.'\n"
+            + "json  {\"a\": [1,\n"
+            + " 2, 3],\n"
+            + " \"b\": \"text\"}\n"
+            + "key  nothing\n"
+            + "pickle  b'N.'\n"
+            + "json  \n";
+
+    @Test
+    public void decodeTheWholeOutput() {
+        ExecutionResultDecoder decoder = decode(Arrays.asList(OUTPUT));
+
+        assertTrue(decoder.hasData());
+        assertEquals(1L, decoder.getJson().get("x"));
+        assertEquals("b'\\x80\\x03K\\x01.'", decoder.getPickled().get("x"));
+
+        // The jsonified value of table is on several lines
+        JSONObject table = (JSONObject) decoder.getJson().get("table");
+        assertEquals(Arrays.asList(1L, 2L, 3L), table.get("a"));
+        assertEquals("text", table.get("b"));
+        assertTrue(table.get("a") instanceof JSONArray);
+
+        // None is printed as an empty value
+        assertTrue(decoder.getJson().containsKey("nothing"));
+        assertNull(decoder.getJson().get("nothing"));
+
+        assertEquals(3, decoder.getFingerprints().size());
+    }
+
+    @Test
+    public void splitAnywhere() {
+        ExecutionResultDecoder expected = decode(Arrays.asList(OUTPUT));
+
+        for (int i = 0; i <= OUTPUT.length(); i++) {
+            assertSameResult("split at " + i, expected, decode(Arrays.asList(OUTPUT.substring(0, i), OUTPUT.substring(i))));
+        }
+    }
+
+    @Test
+    public void splitBetweenCarriageReturnAndLineFeed() {
+        ExecutionResultDecoder expected = decode(Arrays.asList(OUTPUT));
+
+        int index = OUTPUT.indexOf("\r\n");
+        while (index != -1) {
+            List<String> chunks = Arrays.asList(OUTPUT.substring(0, index + 1), OUTPUT.substring(index + 1));
+            assertSameResult("split after \\r at " + index, expected, decode(chunks));
+            index = OUTPUT.indexOf("\r\n", index + 1);
+        }
+    }
+
+    @Test
+    public void splitInSmallChunks() {
+        ExecutionResultDecoder expected = decode(Arrays.asList(OUTPUT));
+
+        for (int size = 1; size <= 16; size++) {
+            List<String> chunks = new ArrayList<>();
+            for (int i = 0; i < OUTPUT.length(); i += size) {
+                chunks.add(OUTPUT.substring(i, Math.min(OUTPUT.length(), i + size)));
+            }
+            assertSameResult("chunks of " + size, expected, decode(chunks));
+        }
+    }
+
+    @Test
+    public void outputWithoutData() {
+        ExecutionResultDecoder decoder = decode(Arrays.asList("key  x\n", "json  1\n"));
+
+        assertFalse(decoder.hasData());
+        assertTrue(decoder.getJson().isEmpty());
+    }
+
+    @Test
+    public void lastLineWithoutLineBreak() {
+        ExecutionResultDecoder decoder = decode(Arrays.asList("#BEGINNING OF DATA RETRIEVING\nkey  x\npickle  b'a'\njson  [1,", " 2]"));
+
+        assertEquals(Arrays.asList(1L, 2L), decoder.getJson().get("x"));
+    }
+
+    private static ExecutionResultDecoder decode(List<String> chunks) {
+        ExecutionResultDecoder decoder = new ExecutionResultDecoder();
+        for (String chunk : chunks) decoder.feed(chunk);
+        decoder.finish();
+        return decoder;
+    }
+
+    private static void assertSameResult(String message, ExecutionResultDecoder expected, ExecutionResultDecoder actual) {
+        assertEquals(message, expected.hasData(), actual.hasData());
+        assertEquals(message, expected.getJson(), actual.getJson());
+        assertEquals(message, expected.getPickled(), actual.getPickled());
+        assertEquals(message, expected.getFingerprints(), actual.getFingerprints());
+    }
+}
@@ -0,0 +1,208 @@
+package fr.irisa.diverse.Core;
+
+import fr.irisa.diverse.Flow.EdgeEndpoint;
+import fr.irisa.diverse.Flow.Flow;
+import fr.irisa.diverse.Flow.FlowSnapshot;
+import fr.irisa.diverse.Flow.Node;
+import org.json.simple.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the order in which the nodes of a flow are executed, on flows built without a workspace.
+ */
+@SuppressWarnings("unchecked")
+public class ExecutionScheduleTest {
+
+    private static final String GRAPH = "graph";
+
+    private Flow flow;
+    private int edges;
+
+    @Before
+    public void setUp() {
+        JSONObject source = new JSONObject();
+        source.put("id", GRAPH);
+        flow = new Flow(source, null);
+        edges = 0;
+    }
+
+    @Test
+    public void nodesRunAfterTheirPreviousNodes() {
+        nodes("a", "b", "c", "d", "e");
+        edge("a", "b");
+        edge("a", "c");
+        edge("b", "d");
+        edge("c", "d");
+
+        List<String> order = run(new ExecutionSchedule(flow.getSnapshot(), flow.getSnapshot().getNodes(GRAPH)));
+
+        assertEquals(5, order.size());
+        assertBefore(order, "a", "b");
+        assertBefore(order, "a", "c");
+        assertBefore(order, "b", "d");
+        assertBefore(order, "c", "d");
+    }
+
+    @Test
+    public void onlyTheNodesWithoutDependencyAreReadyFirst() {
+        nodes("a", "b", "c");
+        edge("a", "b");
+
+        ExecutionSchedule schedule = new ExecutionSchedule(flow.getSnapshot(), flow.getSnapshot().getNodes(GRAPH));
+
+        assertEquals(new HashSet<>(Arrays.asList("a", "c")), new HashSet<>(drain(schedule)));
+        schedule.finished(node("a"), true, true);
+        assertEquals(Collections.singletonList("b"), drain(schedule));
+    }
+
+    @Test
+    public void aNodeWaitsForAllItsPreviousNodes() {
+        nodes("a", "b", "c");
+        edge("a", "c");
+        edge("a", "c"); // Two ports of c connected to a
+        edge("b", "c");
+
+        ExecutionSchedule schedule = new ExecutionSchedule(flow.getSnapshot(), flow.getSnapshot().getNodes(GRAPH));
+        drain(schedule);
+
+        schedule.finished(node("a"), true, true);
+        assertFalse(schedule.hasReady());
+        schedule.finished(node("b"), true, true);
+        assertEquals(Collections.singletonList("c"), drain(schedule));
+    }
+
+    @Test
+    public void theNextNodesOfAFailedNodeAreNotRun() {
+        nodes("a", "b", "c", "d");
+        edge("a", "b");
+        edge("b", "c");
+
+        Set<String> failed = Collections.singleton("a");
+        List<String> order = run(new ExecutionSchedule(flow.getSnapshot(), flow.getSnapshot().getNodes(GRAPH)), failed);
+
+        assertEquals(new HashSet<>(Arrays.asList("a", "d")), new HashSet<>(order));
+    }
+
+    @Test
+    public void theNodesOfACycleAreNeverReady() {
+        nodes("a", "b", "c", "d");
+        edge("a", "b");
+        edge("b", "c");
+        edge("c", "b");
+
+        List<String> order = run(new ExecutionSchedule(flow.getSnapshot(), flow.getSnapshot().getNodes(GRAPH)));
+
+        assertEquals(new HashSet<>(Arrays.asList("a", "d")), new HashSet<>(order));
+    }
+
+    @Test
+    public void theConeOfANodeContainsOnlyItsPredecessors() {
+        nodes("a", "b", "c", "d", "e", "f", "x");
+        edge("a", "b");
+        edge("a", "c");
+        edge("b", "d");
+        edge("c", "d");
+        edge("d", "f");
+        edge("x", "f");
+
+        FlowSnapshot snapshot = flow.getSnapshot();
+        Set<String> cone = ids(ExecutionSchedule.upstreamNodes(snapshot, node("d")));
+
+        assertEquals(new HashSet<>(Arrays.asList("a", "b", "c", "d")), cone);
+    }
+
+    @Test
+    public void runningAConeIgnoresTheOtherNodes() {
+        nodes("a", "b", "c", "x");
+        edge("a", "b");
+        edge("x", "b");
+        edge("b", "c");
+
+        FlowSnapshot snapshot = flow.getSnapshot();
+        List<Node> cone = ExecutionSchedule.upstreamNodes(snapshot, node("b"));
+        cone.remove(node("x"));
+
+        // x is not executed, so b only waits for a. c is not executed even if b finishes.
+        assertEquals(Arrays.asList("a", "b"), run(new ExecutionSchedule(snapshot, cone)));
+    }
+
+    @Test
+    public void theNextNodesOfAChangedNodeAreDirty() {
+        nodes("a", "b", "c", "d");
+        edge("a", "b");
+        edge("c", "d");
+
+        ExecutionSchedule schedule = new ExecutionSchedule(flow.getSnapshot(), flow.getSnapshot().getNodes(GRAPH));
+        drain(schedule);
+        schedule.finished(node("a"), true, true);
+        schedule.finished(node("c"), true, false);
+
+        assertTrue(schedule.isDirty(node("b")));
+        assertFalse(schedule.isDirty(node("d")));
+    }
+
+    /*==================================================================================================================
+                                                    UTILS
+     =================================================================================================================*/
+
+    private void nodes(String... ids) {
+        for (String id : ids) assertTrue(flow.addNode(id, "component", new JSONObject(), GRAPH, true));
+    }
+
+    private void edge(String src, String tgt) {
+        String port = "in" + edges;
+        assertTrue(flow.addEdge("edge" + edges++, new EdgeEndpoint(src, "out"), new EdgeEndpoint(tgt, port), new JSONObject(), GRAPH));
+    }
+
+    private Node node(String id) {
+        return flow.getSnapshot().getNode(id);
+    }
+
+    /**
+     * Run the schedule as the FlowExecutionHandler does, one node at a time, every node succeeding.
+     */
+    private List<String> run(ExecutionSchedule schedule) {
+        return run(schedule, Collections.emptySet());
+    }
+
+    /**
+     * Run the schedule as the FlowExecutionHandler does, one node at a time.
+     *
+     * @return the ids of the run nodes, in order
+     */
+    private List<String> run(ExecutionSchedule schedule, Set<String> failing) {
+        List<String> order = new ArrayList<>();
+        Node n = schedule.nextReady();
+        while (n != null) {
+            order.add(n.getId());
+            schedule.finished(n, !failing.contains(n.getId()), true);
+            n = schedule.nextReady();
+        }
+        return order;
+    }
+
+    private List<String> drain(ExecutionSchedule schedule) {
+        List<String> res = new ArrayList<>();
+        Node n = schedule.nextReady();
+        while (n != null) {
+            res.add(n.getId());
+            n = schedule.nextReady();
+        }
+        return res;
+    }
+
+    private static Set<String> ids(List<Node> nodes) {
+        Set<String> res = new HashSet<>();
+        for (Node n : nodes) res.add(n.getId());
+        return res;
+    }
+
+    private static void assertBefore(List<String> order, String first, String then) {
+        assertTrue(first + " must run before " + then, order.indexOf(first) < order.indexOf(then));
+    }
+}
@@ -0,0 +1,139 @@
+package fr.irisa.diverse.Docker;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the parsing of the responses of the Docker daemon, with a fake server that answers each request with a
+ * given raw HTTP response and closes the connection.
+ */
+public class DockerHttpClientTest {
+
+    private ServerSocket server;
+    private DockerHttpClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new ServerSocket(0);
+        client = new DockerHttpClient("tcp://127.0.0.1:" + server.getLocalPort());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void contentLengthBody() throws Exception {
+        answer("HTTP/1.1 201 Created\r\nContent-Type: application/json\r\nContent-Length: 11\r\n\r\n{\"Id\":\"a\"}\n");
+
+        DockerHttpClient.Response response = client.request("POST", "/containers/create", null);
+        assertEquals(201, response.getStatus());
+        assertEquals("a", response.getJson().get("Id"));
+    }
+
+    @Test
+    public void chunkedBody() throws Exception {
+        answer("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n5\r\nhello\r\n6;ext=1\r\n world\r\n0\r\n\r\n");
+
+        DockerHttpClient.Response response = client.request("GET", "/info", null);
+        assertEquals(200, response.getStatus());
+        assertEquals("hello world", response.getBody());
+    }
+
+    @Test
+    public void bodyUntilEof() throws Exception {
+        answer("HTTP/1.0 200 OK\r\n\r\nuntil the end");
+
+        assertEquals("until the end", client.request("GET", "/info", null).getBody());
+    }
+
+    @Test
+    public void noContent() throws Exception {
+        answer("HTTP/1.1 204 No Content\r\n\r\n");
+
+        DockerHttpClient.Response response = client.request("POST", "/containers/a/start", null);
+        assertTrue(response.isSuccessful());
+        assertEquals("", response.getBody());
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedChunkedBody() throws Exception {
+        answer("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n5\r\nhello\r\n");
+
+        client.request("GET", "/info", null);
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedContentLengthBody() throws Exception {
+        answer("HTTP/1.1 200 OK\r\nContent-Length: 20\r\n\r\nhello");
+
+        client.request("GET", "/info", null);
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidChunkSize() throws Exception {
+        answer("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\nzz\r\nhello\r\n0\r\n\r\n");
+
+        client.request("GET", "/info", null);
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidStatus() throws Exception {
+        answer("HTTP/1.1 OK\r\n\r\n");
+
+        client.request("GET", "/info", null);
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidContentLength() throws Exception {
+        answer("HTTP/1.1 200 OK\r\nContent-Length: ten\r\n\r\n");
+
+        client.request("GET", "/info", null);
+    }
+
+    @Test(expected = IOException.class)
+    public void emptyResponse() throws Exception {
+        answer("");
+
+        client.request("GET", "/info", null);
+    }
+
+    /**
+     * Answer the next request with the given response, from another thread.
+     */
+    private void answer(String response) {
+        Thread thread = new Thread(() -> {
+            try (Socket socket = server.accept()) {
+                readRequestHead(socket.getInputStream());
+                OutputStream out = socket.getOutputStream();
+                out.write(response.getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+            } catch (IOException e) {
+                // The server has been closed
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void readRequestHead(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != -1) {
+            head.write(c);
+            if (head.toString("US-ASCII").endsWith("\r\n\r\n")) return;
+        }
+    }
+}
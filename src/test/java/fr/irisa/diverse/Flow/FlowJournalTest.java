@@ -0,0 +1,266 @@
+package fr.irisa.diverse.Flow;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that a flow rebuilt from its flow.json file and its journal is the flow that has been edited, on flows built
+ * without a workspace. The saves of the workspace are done the way the WorkspacePersister does them.
+ */
+@SuppressWarnings("unchecked")
+public class FlowJournalTest {
+
+    private static final String GRAPH = "graph";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path flowFile;
+    private Path journalFile;
+    private FlowJournal journal;
+    private Flow flow;
+
+    @Before
+    public void setUp() throws IOException {
+        flowFile = folder.getRoot().toPath().resolve("flow.json");
+        journalFile = folder.getRoot().toPath().resolve(".flow.journal");
+
+        JSONObject source = new JSONObject();
+        source.put("id", GRAPH);
+        flow = new Flow(source, null);
+        journal = new FlowJournal(journalFile);
+        flow.setJournal(journal);
+    }
+
+    @Test
+    public void theEditsAreAppended() throws IOException {
+        firstEdits();
+
+        assertEquals(5, journal.size());
+        assertEquals(5, journal.getSequence());
+
+        List<String> lines = Files.readAllLines(journalFile, StandardCharsets.UTF_8);
+        assertEquals(5, lines.size());
+        assertEquals("addnode", parse(lines.get(0)).get("op"));
+        assertEquals(1L, parse(lines.get(0)).get("seq"));
+        assertEquals("addedge", parse(lines.get(2)).get("op"));
+        assertEquals(5L, parse(lines.get(4)).get("seq"));
+    }
+
+    @Test
+    public void replayingTheJournalRebuildsTheFlow() {
+        firstEdits();
+        secondEdits();
+        journal.close();
+
+        Reload reload = reload();
+
+        assertEquals(10, reload.replayed);
+        assertEquals(describe(flow), describe(reload.flow));
+        assertEquals(10, reload.journal.getSequence());
+    }
+
+    @Test
+    public void aTornLastLineIsIgnored() throws IOException {
+        firstEdits();
+        journal.close();
+
+        // The machine crashed while the next edit was written
+        Files.write(journalFile, "{\"seq\":6,\"op\":\"addno".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        Reload reload = reload();
+
+        assertEquals(5, reload.replayed);
+        assertEquals(describe(flow), describe(reload.flow));
+        // The torn line is removed, so the next edits are appended after a complete line
+        assertEquals(5, Files.readAllLines(journalFile, StandardCharsets.UTF_8).size());
+
+        reload.flow.addNode("d", "component", new JSONObject(), GRAPH, true);
+        reload.journal.close();
+        List<String> lines = Files.readAllLines(journalFile, StandardCharsets.UTF_8);
+        assertEquals(6, lines.size());
+        assertEquals(6L, parse(lines.get(5)).get("seq"));
+    }
+
+    @Test
+    public void onlyTheEditsAfterTheSavedSequenceAreReplayed() {
+        firstEdits();
+        // The backend crashes after writing flow.json, before the journal is compacted
+        long saved = save();
+        secondEdits();
+        journal.close();
+
+        assertEquals(5, saved);
+        assertEquals(10, journal.size());
+
+        Reload reload = reload();
+
+        assertEquals(5, reload.flow.getJournalSequence());
+        assertEquals(5, reload.replayed);
+        assertEquals(describe(flow), describe(reload.flow));
+        // The edits already in flow.json are removed from the journal
+        assertEquals(5, reload.journal.size());
+    }
+
+    @Test
+    public void theSavedEditsAreDiscarded() throws IOException {
+        firstEdits();
+        journal.discard(save());
+
+        assertEquals(0, journal.size());
+        assertTrue(Files.readAllLines(journalFile, StandardCharsets.UTF_8).isEmpty());
+
+        // The sequence goes on after a compaction
+        secondEdits();
+        journal.close();
+        assertEquals(5, journal.size());
+        assertEquals(6L, parse(Files.readAllLines(journalFile, StandardCharsets.UTF_8).get(0)).get("seq"));
+
+        Reload reload = reload();
+
+        assertEquals(5, reload.replayed);
+        assertEquals(describe(flow), describe(reload.flow));
+    }
+
+    /*==================================================================================================================
+                                                    UTILS
+     =================================================================================================================*/
+
+    private void firstEdits() {
+        assertTrue(flow.addNode("a", "component", metadata("code", "x = 1"), GRAPH, true));
+        assertTrue(flow.addNode("b", "component", new JSONObject(), GRAPH, true));
+        assertTrue(flow.addEdge("edge0", new EdgeEndpoint("a", "out"), new EdgeEndpoint("b", "in"), new JSONObject(), GRAPH));
+        assertTrue(flow.addNode("c", "component", new JSONObject(), GRAPH, true));
+        assertTrue(flow.addEdge("edge1", new EdgeEndpoint("b", "out"), new EdgeEndpoint("c", "in"), new JSONObject(), GRAPH));
+    }
+
+    private void secondEdits() {
+        assertTrue(flow.changeNode("a", metadata("code", "x = 2"), GRAPH));
+        assertTrue(flow.renameNode("c", "e", GRAPH));
+        assertTrue(flow.changeEdge("edge0", GRAPH, metadata("route", 1L), new EdgeEndpoint("a", "out"), new EdgeEndpoint("b", "in")));
+        assertTrue(flow.removeEdge("edge1", GRAPH, new EdgeEndpoint("b", "out"), new EdgeEndpoint("e", "in")));
+
+        JSONArray nodes = new JSONArray();
+        nodes.add("a");
+        nodes.add("b");
+        assertTrue(flow.addGroup("group", nodes, metadata("description", "first nodes"), GRAPH));
+    }
+
+    /**
+     * Write flow.json as the WorkspacePersister does, without discarding the saved edits from the journal.
+     *
+     * @return the sequence number saved in flow.json
+     */
+    private long save() {
+        journal.sync();
+        long sequence = journal.getSequence();
+
+        JSONObject source = describe(flow);
+        source.put("id", GRAPH);
+        source.put("journal", sequence);
+
+        JSONArray nodes = new JSONArray();
+        nodes.addAll(((JSONObject) source.get("nodes")).values());
+        source.put("nodes", nodes);
+        JSONArray edges = new JSONArray();
+        edges.addAll(((JSONObject) source.get("edges")).values());
+        source.put("edges", edges);
+        JSONArray groups = new JSONArray();
+        groups.addAll(((JSONObject) source.get("groups")).values());
+        source.put("groups", groups);
+
+        try {
+            Files.write(flowFile, source.toJSONString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+
+        return sequence;
+    }
+
+    /**
+     * Rebuild the flow as the Workspace does at startup : load flow.json, if saved, then replay the journal.
+     */
+    private Reload reload() {
+        JSONObject source = new JSONObject();
+        source.put("id", GRAPH);
+        if (Files.exists(flowFile)) {
+            try {
+                source = parse(new String(Files.readAllBytes(flowFile), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        Reload res = new Reload();
+        res.flow = new Flow(source, null);
+        res.journal = new FlowJournal(journalFile);
+        res.replayed = res.journal.replay(res.flow, res.flow.getJournalSequence());
+        res.flow.setJournal(res.journal);
+        return res;
+    }
+
+    /**
+     * Describe the structure of the flow : its nodes, edges and groups as they are written in flow.json. The ids of
+     * the groups are generated, so they are left out.
+     */
+    private static JSONObject describe(Flow flow) {
+        JSONObject nodes = new JSONObject();
+        for (Node n : flow.getSnapshot().getNodes()) nodes.put(n.getId(), parse(n.toJSONString()));
+
+        JSONObject edges = new JSONObject();
+        for (String id : Arrays.asList("edge0", "edge1")) {
+            Edge e = flow.getEdge(id);
+            if (e != null) edges.put(id, parse(e.toJSONString()));
+        }
+
+        JSONObject groups = new JSONObject();
+        Group g = flow.getGroup("group", GRAPH);
+        if (g != null) {
+            JSONObject group = parse(g.toJSONString());
+            group.remove("id");
+            groups.put(g.getName(), group);
+        }
+
+        JSONObject res = new JSONObject();
+        res.put("nodes", nodes);
+        res.put("edges", edges);
+        res.put("groups", groups);
+        return res;
+    }
+
+    private static JSONObject metadata(String key, Object value) {
+        JSONObject res = new JSONObject();
+        res.put(key, value);
+        return res;
+    }
+
+    private static JSONObject parse(String json) {
+        try {
+            return (JSONObject) new JSONParser().parse(json);
+        } catch (ParseException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static class Reload {
+        Flow flow;
+        FlowJournal journal;
+        int replayed;
+    }
+}
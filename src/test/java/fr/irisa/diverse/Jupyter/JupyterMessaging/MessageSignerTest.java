@@ -0,0 +1,102 @@
+package fr.irisa.diverse.Jupyter.JupyterMessaging;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the signature of the messages against values computed with the hmac python module, as jupyter_client does.
+ */
+public class MessageSignerTest {
+
+    private static final String KEY = "a0436f6c-1916-498b-8eb9-e81ab9368e84";
+    private static final byte[] HEADER = bytes("{\"msg_id\":\"1\",\"msg_type\":\"execute_request\"}");
+    private static final byte[] PARENT_HEADER = bytes("{}");
+    private static final byte[] METADATA = bytes("{}");
+    private static final byte[] CONTENT = bytes("{\"code\":\"1+1\"}");
+    private static final String SHA256_SIGNATURE = "6079cf4714507d3fc645a0e9b5ea36d270738502ead09e0f753624a376aff7ce";
+    private static final String SHA512_SIGNATURE = "2ecae81f444a8610d91750fc91db3ff766d7c624c483382567d5bcbe8a383a9c"
+            + "446b9a497d87dba5ecbea0c4944416342b30a7c2ce2c9b590b53a96879fcfd4f";
+
+    @Test
+    public void signLikeJupyter() {
+        MessageSigner signer = new MessageSigner(KEY, "hmac-sha256");
+
+        assertEquals(SHA256_SIGNATURE, string(signer.sign(HEADER, PARENT_HEADER, METADATA, CONTENT)));
+    }
+
+    @Test
+    public void signatureSchemeOfTheConnexionFile() {
+        MessageSigner signer = new MessageSigner(KEY, "hmac-sha512");
+
+        assertEquals(SHA512_SIGNATURE, string(signer.sign(HEADER, PARENT_HEADER, METADATA, CONTENT)));
+    }
+
+    @Test
+    public void verifyASignedMessage() {
+        MessageSigner signer = new MessageSigner(KEY, "hmac-sha256");
+
+        assertTrue(signer.verify(frames(SHA256_SIGNATURE, CONTENT)));
+    }
+
+    @Test
+    public void rejectATamperedFrame() {
+        MessageSigner signer = new MessageSigner(KEY, "hmac-sha256");
+
+        assertFalse(signer.verify(frames(SHA256_SIGNATURE, bytes("{\"code\":\"1+2\"}"))));
+    }
+
+    @Test
+    public void rejectATamperedSignature() {
+        MessageSigner signer = new MessageSigner(KEY, "hmac-sha256");
+        String tampered = SHA256_SIGNATURE.substring(0, SHA256_SIGNATURE.length() - 1) + "f";
+
+        assertFalse(signer.verify(frames(tampered, CONTENT)));
+        assertFalse(signer.verify(frames("", CONTENT)));
+    }
+
+    @Test
+    public void theBuffersAreNotSigned() {
+        MessageSigner signer = new MessageSigner(KEY, "hmac-sha256");
+        List<byte[]> frames = frames(SHA256_SIGNATURE, CONTENT);
+        frames.add(new byte[] {1, 2, 3});
+
+        assertTrue(signer.verify(frames));
+    }
+
+    @Test
+    public void emptyKeyDisablesTheAuthentication() {
+        MessageSigner signer = new MessageSigner("", "hmac-sha256");
+
+        assertEquals(0, signer.sign(HEADER, PARENT_HEADER, METADATA, CONTENT).length);
+        assertTrue(signer.verify(frames("", CONTENT)));
+        assertTrue(signer.verify(frames("anything", CONTENT)));
+        assertEquals(0, new MessageSigner(null, null).sign(HEADER).length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedSignatureScheme() {
+        new MessageSigner(KEY, "hmac-unknown");
+    }
+
+    /**
+     * The frames of an incoming message : uuid, delimiter, hmac, header, parent_header, metadata and content.
+     */
+    private static List<byte[]> frames(String signature, byte[] content) {
+        return new ArrayList<>(Arrays.asList(bytes("uuid"), bytes("<IDS|MSG>"), bytes(signature), HEADER, PARENT_HEADER,
+                METADATA, content));
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] b) {
+        return new String(b, StandardCharsets.US_ASCII);
+    }
+}